@@ -17,9 +17,12 @@ public interface BitSliceIndex<K,V> {
     // 插入操作
     void put(K key, V value);
     void putAll(BitSliceIndex otherBsi);
+    void setValue(RoaringBitmap keys, V value);
     // 删除操作
     void clear();
     V remove(K key);
+    void removeAll(RoaringBitmap keys);
+    void retainAll(RoaringBitmap keys);
     // 精确查询操作
     boolean containsKey(K key);
     boolean containsValue(V value);
@@ -0,0 +1,59 @@
+package org.bitmap.intint;
+
+/**
+ * 功能：近似查询结果
+ *         只计算高位切片时，真实结果一定介于下界与上界之间
+ *         例如求和返回取值区间，范围查询返回一定满足条件与可能满足条件的 Key 集合
+ * @param <T> 结果类型
+ */
+public class ApproxResult<T> {
+    private final T lowerBound;
+    private final T upperBound;
+    private final int evaluatedSlices;
+    private final boolean exact;
+
+    public ApproxResult(T lowerBound, T upperBound, int evaluatedSlices, boolean exact) {
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.evaluatedSlices = evaluatedSlices;
+        this.exact = exact;
+    }
+
+    /**
+     * 下界 (求和的最小可能值、一定满足条件的 Key)
+     */
+    public T getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * 上界 (求和的最大可能值、可能满足条件的 Key)
+     */
+    public T getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * 实际计算的高位切片个数
+     */
+    public int getEvaluatedSlices() {
+        return evaluatedSlices;
+    }
+
+    /**
+     * 是否计算了全部切片，此时下界与上界相等
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    @Override
+    public String toString() {
+        return "ApproxResult{" +
+                "lowerBound=" + lowerBound +
+                ", upperBound=" + upperBound +
+                ", evaluatedSlices=" + evaluatedSlices +
+                ", exact=" + exact +
+                '}';
+    }
+}
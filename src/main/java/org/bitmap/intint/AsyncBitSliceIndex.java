@@ -0,0 +1,398 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.bitmap.core.Operation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 功能：BitSliceIndex 异步批量查询
+ *         查询在指定的 Executor 中执行并返回 CompletableFuture，BitSliceIndex 在查询期间只读
+ *         同一批次内：
+ *           相同的查询只计算一次
+ *           作用于 Rbm32BitSliceIndex 的多个比较合并为一次切片遍历(compareFused)
+ *           sumWhere 复用同一批次中相同比较的结果
+ *         默认 Executor 在 JVM 支持时使用虚拟线程(Executors.newVirtualThreadPerTaskExecutor)，否则使用 ForkJoinPool.commonPool()
+ */
+public class AsyncBitSliceIndex {
+    private final BitSliceIndex<Integer, Integer> bsi;
+    private final Executor executor;
+
+    /**
+     * 构造器 使用默认 Executor
+     * @param bsi 只读的 BitSliceIndex
+     */
+    public AsyncBitSliceIndex(BitSliceIndex<Integer, Integer> bsi) {
+        this(bsi, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * 构造器
+     * @param bsi 只读的 BitSliceIndex
+     * @param executor 执行查询的 Executor
+     */
+    public AsyncBitSliceIndex(BitSliceIndex<Integer, Integer> bsi, Executor executor) {
+        if (null == bsi || null == executor) {
+            throw new IllegalArgumentException("BitSliceIndex and executor should not be null");
+        }
+        this.bsi = bsi;
+        this.executor = executor;
+    }
+
+    /**
+     * 默认 Executor：JVM 支持时为每个任务一个虚拟线程，否则为 ForkJoinPool.commonPool()
+     *      所有使用者共享，只暴露 execute，调用方无法将其关闭
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutor.INSTANCE;
+    }
+
+    /**
+     * 提交单个查询
+     */
+    public <T> CompletableFuture<T> submit(Query<T> query) {
+        Batch batch = batch();
+        CompletableFuture<T> future = batch.add(query);
+        batch.submit();
+        return future;
+    }
+
+    /**
+     * 创建批次，add 所有查询之后调用 submit
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * 查询批次
+     *      add 返回的 CompletableFuture 在 submit 之后完成，同一批次中相同查询的结果为各自独立的 RoaringBitmap
+     */
+    public class Batch {
+        private final Map<Query<?>, List<CompletableFuture<Object>>> queries = new LinkedHashMap<>();
+        private boolean submitted = false;
+
+        /**
+         * 加入查询
+         * @return 查询结果
+         */
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> add(Query<T> query) {
+            if (null == query) {
+                throw new IllegalArgumentException("Query should not be null");
+            }
+            if (submitted) {
+                throw new IllegalStateException("Batch has been submitted");
+            }
+            List<CompletableFuture<Object>> futures = queries.get(query);
+            if (null == futures) {
+                futures = new ArrayList<>();
+                queries.put(query, futures);
+            }
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            futures.add(future);
+            return (CompletableFuture<T>) future;
+        }
+
+        /**
+         * 提交批次
+         */
+        public void submit() {
+            if (submitted) {
+                throw new IllegalStateException("Batch has been submitted");
+            }
+            submitted = true;
+            // 批次内去重后的比较：COMPARE 查询以及 SUM_WHERE 依赖的比较
+            Map<Query<?>, CompletableFuture<RoaringBitmap>> compares = new LinkedHashMap<>();
+            // 被 SUM_WHERE 读取的比较结果
+            Set<Query<?>> summed = new HashSet<>();
+            for (Query<?> query : queries.keySet()) {
+                if (query.kind != Query.Kind.SUM) {
+                    Query<RoaringBitmap> compare = query.compareQuery();
+                    if (!compares.containsKey(compare)) {
+                        compares.put(compare, new CompletableFuture<RoaringBitmap>());
+                    }
+                    if (query.kind == Query.Kind.SUM_WHERE) {
+                        summed.add(compare);
+                    }
+                }
+            }
+            submitCompares(compares);
+            for (Map.Entry<Query<?>, List<CompletableFuture<Object>>> entry : queries.entrySet()) {
+                final Query<?> query = entry.getKey();
+                CompletableFuture<?> result;
+                switch (query.kind) {
+                    case COMPARE:
+                        result = compares.get(query);
+                        break;
+                    case SUM_WHERE:
+                        result = compares.get(query.compareQuery()).thenApplyAsync(new Function<RoaringBitmap, Long>() {
+                            @Override
+                            public Long apply(RoaringBitmap keys) {
+                                return bsi.sum(keys);
+                            }
+                        }, executor);
+                        break;
+                    case SUM:
+                        result = CompletableFuture.supplyAsync(new Supplier<Long>() {
+                            @Override
+                            public Long get() {
+                                return bsi.sum(query.keys);
+                            }
+                        }, executor);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("");
+                }
+                boolean bitmap = query.kind == Query.Kind.COMPARE;
+                complete(result, entry.getValue(), bitmap, bitmap && summed.contains(query));
+            }
+        }
+
+        /**
+         * 计算批次内的比较
+         *      Rbm32BitSliceIndex 上的多个比较一次切片遍历完成，否则每个比较一个任务
+         */
+        private void submitCompares(final Map<Query<?>, CompletableFuture<RoaringBitmap>> compares) {
+            if (compares.isEmpty()) {
+                return;
+            }
+            if (compares.size() > 1 && bsi instanceof Rbm32BitSliceIndex) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int size = compares.size();
+                        Operation[] operations = new Operation[size];
+                        int[] startOrValues = new int[size];
+                        int[] ends = new int[size];
+                        int i = 0;
+                        for (Query<?> compare : compares.keySet()) {
+                            operations[i] = compare.operation;
+                            startOrValues[i] = compare.startOrValue;
+                            ends[i] = compare.end;
+                            i++;
+                        }
+                        try {
+                            RoaringBitmap[] results = ((Rbm32BitSliceIndex) bsi).compareFused(operations, startOrValues, ends, null);
+                            i = 0;
+                            for (CompletableFuture<RoaringBitmap> future : compares.values()) {
+                                future.complete(results[i++]);
+                            }
+                        } catch (RuntimeException e) {
+                            for (CompletableFuture<RoaringBitmap> future : compares.values()) {
+                                future.completeExceptionally(e);
+                            }
+                        }
+                    }
+                });
+                return;
+            }
+            for (final Map.Entry<Query<?>, CompletableFuture<RoaringBitmap>> entry : compares.entrySet()) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            entry.getValue().complete(compare(entry.getKey()));
+                        } catch (RuntimeException e) {
+                            entry.getValue().completeExceptionally(e);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * 把共享的结果分发给相同查询的每个调用方
+         *      RoaringBitmap 结果除第一个外都是克隆，同时被 SUM_WHERE 读取时全部是克隆
+         */
+        private void complete(CompletableFuture<?> result, final List<CompletableFuture<Object>> futures,
+                              final boolean bitmap, final boolean summed) {
+            result.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object value, Throwable throwable) {
+                    for (int i = 0; i < futures.size(); i++) {
+                        if (null != throwable) {
+                            futures.get(i).completeExceptionally(throwable);
+                        } else if (bitmap && (i > 0 || summed)) {
+                            futures.get(i).complete(((RoaringBitmap) value).clone());
+                        } else {
+                            futures.get(i).complete(value);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private RoaringBitmap compare(Query<?> query) {
+        int value = query.startOrValue;
+        switch (query.operation) {
+            case EQ:
+                return bsi.eq(value);
+            case NEQ:
+                return bsi.neq(value);
+            case LE:
+                return bsi.le(value);
+            case LT:
+                return bsi.lt(value);
+            case GE:
+                return bsi.ge(value);
+            case GT:
+                return bsi.gt(value);
+            case RANGE:
+                return bsi.between(value, query.end);
+            default:
+                throw new IllegalArgumentException("");
+        }
+    }
+
+    /**
+     * 异步查询
+     * @param <T> 查询结果类型
+     */
+    public static final class Query<T> {
+        enum Kind {
+            // 比较，结果为 Key 集合
+            COMPARE,
+            // 满足比较的 Key 的 Value 求和
+            SUM_WHERE,
+            // 指定 Key 集合的 Value 求和
+            SUM
+        }
+
+        private final Kind kind;
+        private final Operation operation;
+        private final int startOrValue;
+        private final int end;
+        private final RoaringBitmap keys;
+
+        private Query(Kind kind, Operation operation, int startOrValue, int end, RoaringBitmap keys) {
+            this.kind = kind;
+            this.operation = operation;
+            this.startOrValue = startOrValue;
+            this.end = end;
+            this.keys = keys;
+        }
+
+        /**
+         * 比较
+         * @param operation 比较操作
+         * @param startOrValue 比较值，RANGE 时为下限
+         * @param end RANGE 时为上限，其他操作忽略
+         */
+        public static Query<RoaringBitmap> compare(Operation operation, int startOrValue, int end) {
+            if (null == operation) {
+                throw new IllegalArgumentException("Operation should not be null");
+            }
+            return new Query<>(Kind.COMPARE, operation, startOrValue, operation == Operation.RANGE ? end : 0, null);
+        }
+
+        public static Query<RoaringBitmap> eq(int value) {
+            return compare(Operation.EQ, value, 0);
+        }
+
+        public static Query<RoaringBitmap> neq(int value) {
+            return compare(Operation.NEQ, value, 0);
+        }
+
+        public static Query<RoaringBitmap> le(int value) {
+            return compare(Operation.LE, value, 0);
+        }
+
+        public static Query<RoaringBitmap> lt(int value) {
+            return compare(Operation.LT, value, 0);
+        }
+
+        public static Query<RoaringBitmap> ge(int value) {
+            return compare(Operation.GE, value, 0);
+        }
+
+        public static Query<RoaringBitmap> gt(int value) {
+            return compare(Operation.GT, value, 0);
+        }
+
+        public static Query<RoaringBitmap> between(int lower, int upper) {
+            return compare(Operation.RANGE, lower, upper);
+        }
+
+        /**
+         * 满足比较的 Key 的 Value 求和
+         */
+        public static Query<Long> sumWhere(Operation operation, int startOrValue, int end) {
+            Query<RoaringBitmap> compare = compare(operation, startOrValue, end);
+            return new Query<>(Kind.SUM_WHERE, operation, compare.startOrValue, compare.end, null);
+        }
+
+        /**
+         * 指定 Key 集合的 Value 求和，查询期间 keys 不能被修改
+         */
+        public static Query<Long> sum(RoaringBitmap keys) {
+            if (null == keys) {
+                throw new IllegalArgumentException("Keys should not be null");
+            }
+            return new Query<>(Kind.SUM, null, 0, 0, keys);
+        }
+
+        Query<RoaringBitmap> compareQuery() {
+            return new Query<>(Kind.COMPARE, operation, startOrValue, end, null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Query)) {
+                return false;
+            }
+            Query<?> query = (Query<?>) o;
+            return kind == query.kind && operation == query.operation && startOrValue == query.startOrValue
+                    && end == query.end && Objects.equals(keys, query.keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, operation, startOrValue, end, keys);
+        }
+    }
+
+    /**
+     * 延迟创建的默认 Executor
+     *      编译目标为 Java 8，通过反射调用 Java 21 的 Executors.newVirtualThreadPerTaskExecutor
+     *      INSTANCE 只转发任务，不暴露 shutdown
+     */
+    private static final class DefaultExecutor {
+        private static final ExecutorService POOL = create();
+        private static final Executor INSTANCE = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                POOL.execute(command);
+            }
+        };
+
+        private static ExecutorService create() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return ForkJoinPool.commonPool();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.Operation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 功能：BsiTable 查询谓词
+ *         叶子节点为单列比较，例如 age between 18 and 30、spend > 100
+ *         非叶子节点为多个子谓词的 AND / OR 组合
+ */
+public class BsiPredicate {
+    /**
+     * 谓词类型
+     */
+    public enum Type {
+        // 单列比较
+        COMPARE,
+        // 所有子谓词同时满足
+        AND,
+        // 任意子谓词满足
+        OR
+    }
+
+    private final Type type;
+    private final String column;
+    private final Operation operation;
+    private final int startOrValue;
+    private final int end;
+    private final List<BsiPredicate> children;
+
+    private BsiPredicate(Type type, String column, Operation operation, int startOrValue, int end,
+                         List<BsiPredicate> children) {
+        this.type = type;
+        this.column = column;
+        this.operation = operation;
+        this.startOrValue = startOrValue;
+        this.end = end;
+        this.children = children;
+    }
+
+    /**
+     * 单列比较
+     * @param column 列名
+     * @param operation 比较操作
+     * @param startOrValue 比较值，RANGE 时为下限
+     * @param end RANGE 时为上限，其他操作忽略
+     * @return
+     */
+    public static BsiPredicate compare(String column, Operation operation, int startOrValue, int end) {
+        if (null == column || null == operation) {
+            throw new IllegalArgumentException("Column and operation should not be null");
+        }
+        return new BsiPredicate(Type.COMPARE, column, operation, startOrValue, end,
+                Collections.<BsiPredicate>emptyList());
+    }
+
+    public static BsiPredicate eq(String column, int value) {
+        return compare(column, Operation.EQ, value, 0);
+    }
+
+    public static BsiPredicate neq(String column, int value) {
+        return compare(column, Operation.NEQ, value, 0);
+    }
+
+    public static BsiPredicate le(String column, int value) {
+        return compare(column, Operation.LE, value, 0);
+    }
+
+    public static BsiPredicate lt(String column, int value) {
+        return compare(column, Operation.LT, value, 0);
+    }
+
+    public static BsiPredicate ge(String column, int value) {
+        return compare(column, Operation.GE, value, 0);
+    }
+
+    public static BsiPredicate gt(String column, int value) {
+        return compare(column, Operation.GT, value, 0);
+    }
+
+    public static BsiPredicate between(String column, int lower, int upper) {
+        return compare(column, Operation.RANGE, lower, upper);
+    }
+
+    /**
+     * 所有子谓词同时满足
+     */
+    public static BsiPredicate and(BsiPredicate... predicates) {
+        return combine(Type.AND, predicates);
+    }
+
+    /**
+     * 任意子谓词满足
+     */
+    public static BsiPredicate or(BsiPredicate... predicates) {
+        return combine(Type.OR, predicates);
+    }
+
+    private static BsiPredicate combine(Type type, BsiPredicate... predicates) {
+        if (null == predicates || predicates.length == 0) {
+            throw new IllegalArgumentException("Predicates should not be empty");
+        }
+        List<BsiPredicate> children = new ArrayList<>(Arrays.asList(predicates));
+        return new BsiPredicate(type, null, null, 0, 0, Collections.unmodifiableList(children));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public int getStartOrValue() {
+        return startOrValue;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public List<BsiPredicate> getChildren() {
+        return children;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.COMPARE) {
+            switch (operation) {
+                case EQ:
+                    return column + " = " + startOrValue;
+                case NEQ:
+                    return column + " != " + startOrValue;
+                case LE:
+                    return column + " <= " + startOrValue;
+                case LT:
+                    return column + " < " + startOrValue;
+                case GE:
+                    return column + " >= " + startOrValue;
+                case GT:
+                    return column + " > " + startOrValue;
+                case RANGE:
+                    return column + " between " + startOrValue + " and " + end;
+                default:
+                    throw new IllegalArgumentException("");
+            }
+        }
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0) {
+                builder.append(' ').append(type.name()).append(' ');
+            }
+            builder.append(children.get(i));
+        }
+        return builder.append(')').toString();
+    }
+}
@@ -0,0 +1,419 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.bitmap.core.Operation;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 功能：惰性查询
+ *         先绑定列名与 BitSliceIndex、设置查询谓词，调用 execute/count/sum 时才生成执行计划并计算
+ *         同一个 AND/OR 下作用于同一个 Rbm32BitSliceIndex 的多个比较合并为一次切片遍历
+ *         AND 按估算选择率从小到大依次计算，前一个子节点的结果作为下一个子节点的候选集合
+ *         OR 按估算选择率从大到小依次计算，已满足的 Key 不再参与后续子节点；没有候选集合时通过 FastAggregation 一次性求并
+ *         explain 输出执行计划，可以查看哪些比较被合并以及计算顺序
+ *         BsiTable 的查询同样由 BsiQuery 生成执行计划
+ */
+public class BsiQuery {
+    private final BsiPredicate predicate;
+    private final Map<String, BitSliceIndex<Integer, Integer>> columns = new LinkedHashMap<>();
+    private RoaringBitmap foundSet;
+
+    private BsiQuery(BsiPredicate predicate) {
+        this.predicate = predicate;
+    }
+
+    /**
+     * 创建查询
+     * @param predicate 查询谓词
+     * @return
+     */
+    public static BsiQuery where(BsiPredicate predicate) {
+        if (null == predicate) {
+            throw new IllegalArgumentException("Predicate should not be null");
+        }
+        return new BsiQuery(predicate);
+    }
+
+    /**
+     * 绑定谓词中的列名
+     * @param column 列名
+     * @param bsi 列对应的 BitSliceIndex
+     * @return
+     */
+    public BsiQuery bind(String column, BitSliceIndex<Integer, Integer> bsi) {
+        columns.put(column, bsi);
+        return this;
+    }
+
+    /**
+     * 限定查询的 Key 集合
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return
+     */
+    public BsiQuery within(RoaringBitmap foundSet) {
+        this.foundSet = foundSet;
+        return this;
+    }
+
+    /**
+     * 执行查询
+     * @return 满足谓词的 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap execute() {
+        return plan(predicate).evaluate(foundSet);
+    }
+
+    /**
+     * 满足谓词的 Key 个数
+     */
+    public long count() {
+        return execute().getLongCardinality();
+    }
+
+    /**
+     * 满足谓词的 Key 在指定列上的 Value 求和
+     * @param column 列名
+     * @return
+     */
+    public long sum(String column) {
+        return resolve(column).sum(execute());
+    }
+
+    /**
+     * 估算满足谓词的 Key 占比
+     *      Rbm32BitSliceIndex 上的比较根据切片基数估算，其他 BitSliceIndex 无法估算，按全部满足处理
+     *      AND 按独立事件相乘，OR 按独立事件求并
+     * @return [0, 1] 之间的估算占比
+     */
+    public double selectivity() {
+        return plan(predicate).selectivity();
+    }
+
+    /**
+     * 执行计划
+     * @return 每行一个计划节点，按计算顺序排列，FUSED 节点表示合并为一次切片遍历的比较
+     */
+    public String explain() {
+        StringBuilder builder = new StringBuilder();
+        plan(predicate).explain(builder, 0);
+        return builder.toString();
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    private BitSliceIndex<Integer, Integer> resolve(String column) {
+        BitSliceIndex<Integer, Integer> bsi = columns.get(column);
+        if (null == bsi) {
+            throw new IllegalArgumentException("Column " + column + " is not bound");
+        }
+        return bsi;
+    }
+
+    /**
+     * 生成执行计划
+     *      AND/OR 的子比较按 BitSliceIndex 分组，同一个 Rbm32BitSliceIndex 上的多个比较合并为 FusedNode
+     *      子节点的计算顺序由 CombineNode 按估算选择率确定
+     */
+    private PlanNode plan(BsiPredicate predicate) {
+        if (predicate.getType() == BsiPredicate.Type.COMPARE) {
+            return new CompareNode(predicate, resolve(predicate.getColumn()));
+        }
+        boolean conjunction = predicate.getType() == BsiPredicate.Type.AND;
+        List<PlanNode> children = new ArrayList<>();
+        Map<BitSliceIndex<Integer, Integer>, List<BsiPredicate>> groups = new IdentityHashMap<>();
+        List<BitSliceIndex<Integer, Integer>> order = new ArrayList<>();
+        for (BsiPredicate child : predicate.getChildren()) {
+            if (child.getType() != BsiPredicate.Type.COMPARE) {
+                children.add(plan(child));
+                continue;
+            }
+            BitSliceIndex<Integer, Integer> bsi = resolve(child.getColumn());
+            List<BsiPredicate> group = groups.get(bsi);
+            if (null == group) {
+                group = new ArrayList<>();
+                groups.put(bsi, group);
+                order.add(bsi);
+            }
+            group.add(child);
+        }
+        List<PlanNode> compares = new ArrayList<>();
+        for (BitSliceIndex<Integer, Integer> bsi : order) {
+            List<BsiPredicate> group = groups.get(bsi);
+            if (group.size() > 1 && bsi instanceof Rbm32BitSliceIndex) {
+                compares.add(new FusedNode(group, (Rbm32BitSliceIndex) bsi, conjunction));
+            } else {
+                for (BsiPredicate child : group) {
+                    compares.add(new CompareNode(child, bsi));
+                }
+            }
+        }
+        // 选择率相同时比较先于嵌套的 AND/OR 计算
+        compares.addAll(children);
+        return new CombineNode(compares, conjunction);
+    }
+
+    /**
+     * 单个比较的估算选择率
+     */
+    private static double selectivity(BsiPredicate predicate, BitSliceIndex<Integer, Integer> bsi) {
+        if (bsi instanceof Rbm32BitSliceIndex) {
+            return ((Rbm32BitSliceIndex) bsi).selectivity(predicate.getOperation(),
+                    predicate.getStartOrValue(), predicate.getEnd());
+        }
+        return 1.0;
+    }
+
+    /**
+     * 组合子节点的估算选择率，AND 按独立事件相乘，OR 按独立事件求并
+     */
+    private static double combine(double[] selectivities, boolean conjunction) {
+        double result = 1.0;
+        for (double selectivity : selectivities) {
+            result *= conjunction ? selectivity : 1 - selectivity;
+        }
+        return conjunction ? result : 1 - result;
+    }
+
+    private static void indent(StringBuilder builder, int depth) {
+        for (int i = 0; i < depth; i++) {
+            builder.append("  ");
+        }
+    }
+
+    private static void appendSelectivity(StringBuilder builder, double selectivity) {
+        builder.append(" selectivity=").append(String.format("%.4f", selectivity)).append('\n');
+    }
+
+    /**
+     * 执行计划节点
+     */
+    private interface PlanNode {
+        /**
+         * 在候选集合内计算
+         * @param foundSet 候选集合，为 null 时表示所有 Key
+         */
+        RoaringBitmap evaluate(RoaringBitmap foundSet);
+
+        /**
+         * 估算满足的 Key 占比
+         */
+        double selectivity();
+
+        void explain(StringBuilder builder, int depth);
+    }
+
+    /**
+     * 单个比较
+     */
+    private static class CompareNode implements PlanNode {
+        private final BsiPredicate predicate;
+        private final BitSliceIndex<Integer, Integer> bsi;
+        private final double selectivity;
+
+        CompareNode(BsiPredicate predicate, BitSliceIndex<Integer, Integer> bsi) {
+            this.predicate = predicate;
+            this.bsi = bsi;
+            this.selectivity = BsiQuery.selectivity(predicate, bsi);
+        }
+
+        @Override
+        public RoaringBitmap evaluate(RoaringBitmap foundSet) {
+            if (bsi instanceof Rbm32BitSliceIndex) {
+                return ((Rbm32BitSliceIndex) bsi).compare(predicate.getOperation(),
+                        predicate.getStartOrValue(), predicate.getEnd(), foundSet);
+            }
+            RoaringBitmap result;
+            int value = predicate.getStartOrValue();
+            switch (predicate.getOperation()) {
+                case EQ:
+                    result = bsi.eq(value);
+                    break;
+                case NEQ:
+                    result = bsi.neq(value);
+                    break;
+                case LE:
+                    result = bsi.le(value);
+                    break;
+                case LT:
+                    result = bsi.lt(value);
+                    break;
+                case GE:
+                    result = bsi.ge(value);
+                    break;
+                case GT:
+                    result = bsi.gt(value);
+                    break;
+                case RANGE:
+                    result = bsi.between(value, predicate.getEnd());
+                    break;
+                default:
+                    throw new IllegalArgumentException("");
+            }
+            if (null != foundSet) {
+                result.and(foundSet);
+            }
+            return result;
+        }
+
+        @Override
+        public double selectivity() {
+            return selectivity;
+        }
+
+        @Override
+        public void explain(StringBuilder builder, int depth) {
+            indent(builder, depth);
+            builder.append("COMPARE ").append(predicate);
+            appendSelectivity(builder, selectivity);
+        }
+    }
+
+    /**
+     * 同一个 Rbm32BitSliceIndex 上合并为一次切片遍历的多个比较
+     */
+    private static class FusedNode implements PlanNode {
+        private final List<BsiPredicate> predicates;
+        private final Rbm32BitSliceIndex bsi;
+        private final boolean conjunction;
+        private final double selectivity;
+
+        FusedNode(List<BsiPredicate> predicates, Rbm32BitSliceIndex bsi, boolean conjunction) {
+            this.predicates = predicates;
+            this.bsi = bsi;
+            this.conjunction = conjunction;
+            double[] selectivities = new double[predicates.size()];
+            for (int i = 0; i < selectivities.length; i++) {
+                selectivities[i] = BsiQuery.selectivity(predicates.get(i), bsi);
+            }
+            this.selectivity = combine(selectivities, conjunction);
+        }
+
+        @Override
+        public RoaringBitmap evaluate(RoaringBitmap foundSet) {
+            int size = predicates.size();
+            Operation[] operations = new Operation[size];
+            int[] startOrValues = new int[size];
+            int[] ends = new int[size];
+            for (int i = 0; i < size; i++) {
+                BsiPredicate predicate = predicates.get(i);
+                operations[i] = predicate.getOperation();
+                startOrValues[i] = predicate.getStartOrValue();
+                ends[i] = predicate.getEnd();
+            }
+            RoaringBitmap[] results = bsi.compareFused(operations, startOrValues, ends, foundSet);
+            if (!conjunction) {
+                return FastAggregation.or(results);
+            }
+            RoaringBitmap result = results[0];
+            for (int i = 1; i < size && !result.isEmpty(); i++) {
+                result.and(results[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void explain(StringBuilder builder, int depth) {
+            indent(builder, depth);
+            builder.append("FUSED ").append(conjunction ? "AND" : "OR").append(" [");
+            for (int i = 0; i < predicates.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(predicates.get(i));
+            }
+            builder.append("] (1 pass over ").append(bsi.sliceSize()).append(" slices)");
+            appendSelectivity(builder, selectivity);
+        }
+
+        @Override
+        public double selectivity() {
+            return selectivity;
+        }
+    }
+
+    /**
+     * AND/OR 组合
+     *      AND 选择率最小的子节点先计算，依次把前一个子节点的结果作为下一个子节点的候选集合
+     *      OR 选择率最大的子节点先计算，已满足的 Key 从候选集合中排除；没有候选集合时在所有 Key 上计算后通过 FastAggregation 求并
+     */
+    private static class CombineNode implements PlanNode {
+        private final List<PlanNode> children;
+        private final boolean conjunction;
+        private final double selectivity;
+
+        CombineNode(List<PlanNode> children, boolean conjunction) {
+            final boolean descending = !conjunction;
+            this.children = new ArrayList<>(children);
+            Collections.sort(this.children, new Comparator<PlanNode>() {
+                @Override
+                public int compare(PlanNode left, PlanNode right) {
+                    int result = Double.compare(left.selectivity(), right.selectivity());
+                    return descending ? -result : result;
+                }
+            });
+            this.conjunction = conjunction;
+            double[] selectivities = new double[children.size()];
+            for (int i = 0; i < selectivities.length; i++) {
+                selectivities[i] = children.get(i).selectivity();
+            }
+            this.selectivity = combine(selectivities, conjunction);
+        }
+
+        @Override
+        public RoaringBitmap evaluate(RoaringBitmap foundSet) {
+            if (conjunction) {
+                RoaringBitmap result = foundSet;
+                for (PlanNode child : children) {
+                    result = child.evaluate(result);
+                    if (result.isEmpty()) {
+                        break;
+                    }
+                }
+                return result;
+            }
+            if (null == foundSet) {
+                List<RoaringBitmap> results = new ArrayList<>(children.size());
+                for (PlanNode child : children) {
+                    results.add(child.evaluate(null));
+                }
+                return FastAggregation.or(results.iterator());
+            }
+            RoaringBitmap result = new RoaringBitmap();
+            RoaringBitmap remaining = foundSet;
+            for (PlanNode child : children) {
+                if (remaining.isEmpty()) {
+                    break;
+                }
+                RoaringBitmap matched = child.evaluate(remaining);
+                result.or(matched);
+                remaining = RoaringBitmap.andNot(remaining, matched);
+            }
+            return result;
+        }
+
+        @Override
+        public double selectivity() {
+            return selectivity;
+        }
+
+        @Override
+        public void explain(StringBuilder builder, int depth) {
+            indent(builder, depth);
+            builder.append(conjunction ? "AND" : "OR");
+            appendSelectivity(builder, selectivity);
+            for (PlanNode child : children) {
+                child.explain(builder, depth + 1);
+            }
+        }
+    }
+}
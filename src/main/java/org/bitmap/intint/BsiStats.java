@@ -0,0 +1,128 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.math.BigInteger;
+
+/**
+ * 功能：BSI 聚合统计结果
+ *         包含 Key 个数、求和、平方和、均值、方差以及最小值/最大值及其对应的 Key 集合
+ */
+public class BsiStats {
+    private final long count;
+    private final long sum;
+    private final BigInteger sumOfSquares;
+    private final int minValue;
+    private final int maxValue;
+    private final RoaringBitmap minKeys;
+    private final RoaringBitmap maxKeys;
+
+    public BsiStats(long count, long sum, BigInteger sumOfSquares, int minValue, int maxValue,
+                    RoaringBitmap minKeys, RoaringBitmap maxKeys) {
+        this.count = count;
+        this.sum = sum;
+        this.sumOfSquares = sumOfSquares;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.minKeys = minKeys;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * 空集合的统计结果
+     *      最小值与最大值与 BitSliceIndex 保持一致返回 -1
+     */
+    public static BsiStats empty() {
+        return new BsiStats(0L, 0L, BigInteger.ZERO, -1, -1, new RoaringBitmap(), new RoaringBitmap());
+    }
+
+    /**
+     * Key 个数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Value 求和
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Value 平方和
+     */
+    public BigInteger getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    /**
+     * 均值，空集合返回 0
+     */
+    public double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * 总体方差，空集合返回 0
+     *      (count * sumOfSquares - sum^2) / count^2，分子使用 BigInteger 精确计算
+     */
+    public double getVariance() {
+        if (count == 0) {
+            return 0.0;
+        }
+        BigInteger n = BigInteger.valueOf(count);
+        BigInteger s = BigInteger.valueOf(sum);
+        BigInteger numerator = n.multiply(sumOfSquares).subtract(s.multiply(s));
+        return numerator.doubleValue() / ((double) count * count);
+    }
+
+    /**
+     * 总体标准差
+     */
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * 最小值，空集合返回 -1
+     */
+    public int getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * 最大值，空集合返回 -1
+     */
+    public int getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * 取得最小值的 Key 集合
+     */
+    public RoaringBitmap getMinKeys() {
+        return minKeys;
+    }
+
+    /**
+     * 取得最大值的 Key 集合
+     */
+    public RoaringBitmap getMaxKeys() {
+        return maxKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "BsiStats{" +
+                "count=" + count +
+                ", sum=" + sum +
+                ", sumOfSquares=" + sumOfSquares +
+                ", mean=" + getMean() +
+                ", variance=" + getVariance() +
+                ", minValue=" + minValue +
+                ", maxValue=" + maxValue +
+                '}';
+    }
+}
@@ -0,0 +1,210 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 功能：多列 BSI 表
+ *         所有列共享同一个存在位图 ebm，每个 Key 对应一行，没有写入的列取值为 0
+ *         查询由 BsiQuery 生成执行计划：同一列上的多个比较合并为一次切片遍历，AND/OR 的子谓词按估算选择率排序
+ *         列只能通过 BsiTable 修改，直接调用列的 put/remove/clear/deserialize 等方法会抛出 IllegalStateException
+ */
+public class BsiTable {
+    private final RoaringBitmap ebm = new RoaringBitmap();
+    private final Map<String, Rbm32BitSliceIndex> columns = new LinkedHashMap<>();
+
+    /**
+     * 新增列，表中已有 Key 在该列的取值为 0
+     * @param name 列名
+     * @return 新增的列
+     */
+    public Rbm32BitSliceIndex addColumn(String name) {
+        if (null == name || columns.containsKey(name)) {
+            throw new IllegalArgumentException("Column " + name + " already exists");
+        }
+        Rbm32BitSliceIndex column = new Rbm32BitSliceIndex(ebm);
+        columns.put(name, column);
+        return column;
+    }
+
+    /**
+     * 获取指定列，用于 sum/histogram 等单列查询
+     *      列是只读的，修改方法抛出 IllegalStateException
+     * @param name 列名
+     * @return
+     */
+    public Rbm32BitSliceIndex column(String name) {
+        Rbm32BitSliceIndex column = columns.get(name);
+        if (null == column) {
+            throw new IllegalArgumentException("Column " + name + " does not exist");
+        }
+        return column;
+    }
+
+    /**
+     * 所有列名
+     */
+    public Set<String> columnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * Key 的个数
+     */
+    public long getLongCardinality() {
+        return ebm.getLongCardinality();
+    }
+
+    public boolean containsKey(int key) {
+        return ebm.contains(key);
+    }
+
+    /**
+     * 返回所有 key 的 RoaringBitmap
+     */
+    public RoaringBitmap keys() {
+        return ebm.clone();
+    }
+
+    /**
+     * 为指定 Key 的指定列设置 Value
+     *      新 Key 的其他列取值为 0
+     * @param key
+     * @param column 列名
+     * @param value
+     */
+    public void put(int key, String column, int value) {
+        Rbm32BitSliceIndex target = column(column);
+        checkValue(value);
+        if (ebm.contains(key)) {
+            target.putShared(key, value, false);
+            return;
+        }
+        boolean firstKey = ebm.isEmpty();
+        for (Rbm32BitSliceIndex bsi : columns.values()) {
+            bsi.putShared(key, bsi == target ? value : 0, firstKey);
+        }
+    }
+
+    /**
+     * 为指定 Key 设置一行数据
+     *      新 Key 中没有指定的列取值为 0
+     *      写入前校验所有列名与 Value，校验失败时不修改任何列
+     * @param key
+     * @param values 列名与 Value
+     */
+    public void putRow(int key, Map<String, Integer> values) {
+        if (null == values) {
+            throw new IllegalArgumentException("Values should not be null");
+        }
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            column(entry.getKey());
+            if (null == entry.getValue()) {
+                throw new IllegalArgumentException("Value of column " + entry.getKey() + " should not be null");
+            }
+            checkValue(entry.getValue());
+        }
+        boolean newKey = !ebm.contains(key);
+        boolean firstKey = ebm.isEmpty();
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            column(entry.getKey()).putShared(key, entry.getValue(), firstKey);
+        }
+        if (newKey) {
+            for (Map.Entry<String, Rbm32BitSliceIndex> entry : columns.entrySet()) {
+                if (!values.containsKey(entry.getKey())) {
+                    entry.getValue().putShared(key, 0, firstKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取指定 Key 指定列的 Value
+     * @return Key 不存在返回 -1
+     */
+    public int get(int key, String column) {
+        return column(column).get(key);
+    }
+
+    /**
+     * 删除指定 Key 的整行数据
+     *      每一列同步更新 Zone Map，删除的 Value 等于列的最小值/最大值时根据切片重新计算
+     * @param key
+     */
+    public void remove(int key) {
+        if (!ebm.contains(key)) {
+            return;
+        }
+        // 先从共享 ebm 中删除，列根据 ebm 判断块是否已经为空
+        ebm.remove(key);
+        for (Rbm32BitSliceIndex bsi : columns.values()) {
+            bsi.removeShared(key);
+        }
+    }
+
+    /**
+     * 查询满足谓词的 Key
+     * @param predicate 查询谓词
+     * @return 满足谓词的 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap query(BsiPredicate predicate) {
+        return query(predicate, null);
+    }
+
+    /**
+     * 在指定 Key 集合内查询满足谓词的 Key
+     * @param predicate 查询谓词
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 满足谓词的 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap query(BsiPredicate predicate, RoaringBitmap foundSet) {
+        RoaringBitmap keys = null == foundSet ? ebm.clone() : RoaringBitmap.and(foundSet, ebm);
+        return bind(predicate).within(keys).execute();
+    }
+
+    /**
+     * 估算满足谓词的 Key 占比
+     *      单列比较根据切片基数估算，AND 按独立事件相乘，OR 按独立事件求并
+     * @param predicate 查询谓词
+     * @return [0, 1] 之间的估算占比
+     */
+    public double selectivity(BsiPredicate predicate) {
+        return bind(predicate).selectivity();
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+    }
+
+    /**
+     * 绑定所有列的查询
+     *      谓词中的列名必须是表中的列
+     */
+    private BsiQuery bind(BsiPredicate predicate) {
+        BsiQuery query = BsiQuery.where(predicate);
+        checkColumns(predicate);
+        for (Map.Entry<String, Rbm32BitSliceIndex> entry : columns.entrySet()) {
+            query.bind(entry.getKey(), entry.getValue());
+        }
+        return query;
+    }
+
+    private void checkColumns(BsiPredicate predicate) {
+        if (predicate.getType() == BsiPredicate.Type.COMPARE) {
+            column(predicate.getColumn());
+            return;
+        }
+        for (BsiPredicate child : predicate.getChildren()) {
+            checkColumns(child);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.bitmap.intint;
+
+import java.util.Arrays;
+
+/**
+ * 功能：按块记录的修改版本
+ *         块与 ZoneMap 一致，按 Key 的高 16 位划分，对应 ebm 与每个切片中的同一个 container
+ *         每次修改 Key 时把所在块的版本更新为当前版本，增量序列化时只输出版本大于指定版本的块
+ *         块内 Key 全部删除后仍然保留版本，增量中表现为清空该块
+ */
+class ChunkVersions {
+    private char[] chunks = new char[4];
+    private long[] versions = new long[4];
+    private int size = 0;
+
+    /**
+     * 记录 key 所在块在 version 被修改
+     */
+    void touch(int key, long version) {
+        touchChunk((char) (key >>> 16), version);
+    }
+
+    /**
+     * 记录块在 version 被修改
+     */
+    void touchChunk(char chunk, long version) {
+        int index = Arrays.binarySearch(chunks, 0, size, chunk);
+        if (index >= 0) {
+            versions[index] = version;
+            return;
+        }
+        index = -index - 1;
+        if (size == chunks.length) {
+            chunks = Arrays.copyOf(chunks, size * 2);
+            versions = Arrays.copyOf(versions, size * 2);
+        }
+        System.arraycopy(chunks, index, chunks, index + 1, size - index);
+        System.arraycopy(versions, index, versions, index + 1, size - index);
+        chunks[index] = chunk;
+        versions[index] = version;
+        size++;
+    }
+
+    /**
+     * 版本大于 since 的块，按高 16 位递增
+     */
+    char[] changedSince(long since) {
+        char[] changed = new char[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (versions[i] > since) {
+                changed[count++] = chunks[i];
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    ChunkVersions copy() {
+        ChunkVersions chunkVersions = new ChunkVersions();
+        chunkVersions.chunks = chunks.clone();
+        chunkVersions.versions = versions.clone();
+        chunkVersions.size = size;
+        return chunkVersions;
+    }
+}
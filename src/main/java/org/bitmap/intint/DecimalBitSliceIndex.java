@@ -0,0 +1,477 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.bitmap.core.Operation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * 功能：DecimalBitSliceIndex 定点小数
+ *         Value 按固定的小数位数 scale 保存：编码值 = round(value * 10^scale) - minValue * 10^scale
+ *         编码保序且非负，范围查询、最小值/最大值、求和都直接在 Rbm32BitSliceIndex 的切片上计算，结果再换算回原始单位
+ *           范围查询的边界按方向取整，例如 scale = 2 时 le(1.005) 等价于编码值 le(100)，ge(1.005) 等价于 ge(101)
+ *           求和 = 编码值求和 + Key 个数 * minValue * 10^scale
+ *         double 通过 BigDecimal.valueOf(double) 转换(即 Double.toString 的十进制表示)，避免 0.1 等二进制误差
+ *         编码值需要在 int 范围内，例如 scale = 4、minValue = 0 时最大可以保存 214748.3647
+ */
+public class DecimalBitSliceIndex implements BitSliceIndex<Integer, BigDecimal> {
+    private static final int MAX_SCALE = 9;
+
+    private final int scale;
+    // minValue * 10^scale
+    private final int offset;
+    private final RoundingMode roundingMode;
+    private Rbm32BitSliceIndex bsi;
+
+    /**
+     * 构造器
+     * @param scale 小数位数，0 ~ 9
+     * @param minValue 可以保存的最小值
+     * @param roundingMode 写入时超出 scale 的舍入方式
+     */
+    public DecimalBitSliceIndex(int scale, BigDecimal minValue, RoundingMode roundingMode) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale should be between 0 and " + MAX_SCALE);
+        }
+        if (null == minValue || null == roundingMode) {
+            throw new IllegalArgumentException("Min value and rounding mode should not be null");
+        }
+        BigInteger unscaled = minValue.setScale(scale, roundingMode).unscaledValue();
+        if (unscaled.bitLength() > 31) {
+            throw new IllegalArgumentException("Min value " + minValue + " is out of range");
+        }
+        this.scale = scale;
+        this.offset = unscaled.intValue();
+        this.roundingMode = roundingMode;
+        this.bsi = new Rbm32BitSliceIndex();
+    }
+
+    public DecimalBitSliceIndex(int scale, BigDecimal minValue) {
+        this(scale, minValue, RoundingMode.HALF_UP);
+    }
+
+    public DecimalBitSliceIndex(int scale) {
+        this(scale, BigDecimal.ZERO);
+    }
+
+    /**
+     * 小数位数
+     */
+    public int scale() {
+        return scale;
+    }
+
+    @Override
+    public int sliceSize() {
+        return bsi.sliceSize();
+    }
+
+    @Override
+    public long getLongCardinality() {
+        return bsi.getLongCardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bsi.isEmpty();
+    }
+
+    @Override
+    public DecimalBitSliceIndex clone() {
+        DecimalBitSliceIndex bitSliceIndex = new DecimalBitSliceIndex(scale, decode(0), roundingMode);
+        bitSliceIndex.bsi = this.bsi.clone();
+        return bitSliceIndex;
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 Value，超出 scale 的部分按 roundingMode 舍入
+     * @param key
+     * @param value
+     */
+    @Override
+    public void put(Integer key, BigDecimal value) {
+        bsi.put(key, encodeValue(value));
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 double Value
+     */
+    public void put(int key, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Value " + value + " is out of range");
+        }
+        put(key, BigDecimal.valueOf(value));
+    }
+
+    /**
+     * 逐个 Key 写入，已存在的 Key 被覆盖
+     * @param otherBsi
+     */
+    @Override
+    public void putAll(BitSliceIndex otherBsi) {
+        if (null == otherBsi || otherBsi.isEmpty()) {
+            return;
+        }
+        IntIterator iterator = otherBsi.keys().getIntIterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            Object value = otherBsi.get(key);
+            if (value instanceof BigDecimal) {
+                put(key, (BigDecimal) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                put(key, ((Number) value).doubleValue());
+            } else {
+                put(key, BigDecimal.valueOf(((Number) value).longValue()));
+            }
+        }
+    }
+
+    /**
+     * 为指定的 Key 集合关联同一个 Value，超出 scale 的部分按 roundingMode 舍入
+     * @param keys Key 集合
+     * @param value 关联的 Value
+     */
+    @Override
+    public void setValue(RoaringBitmap keys, BigDecimal value) {
+        bsi.setValue(keys, encodeValue(value));
+    }
+
+    @Override
+    public void clear() {
+        bsi.clear();
+    }
+
+    /**
+     * 删除指定 key 的 value
+     * @return 如果指定 key 关联的 value 不存在返回 null，否则返回 value
+     */
+    @Override
+    public BigDecimal remove(Integer key) {
+        if (!bsi.containsKey(key)) {
+            return null;
+        }
+        return decode(bsi.remove(key));
+    }
+
+    @Override
+    public void removeAll(RoaringBitmap keys) {
+        bsi.removeAll(keys);
+    }
+
+    @Override
+    public void retainAll(RoaringBitmap keys) {
+        bsi.retainAll(keys);
+    }
+
+    @Override
+    public boolean containsKey(Integer key) {
+        return bsi.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(BigDecimal value) {
+        return !eq(value).isEmpty();
+    }
+
+    /**
+     * 获取指定 key 关联的 value
+     * @return 不存在时返回 null
+     */
+    @Override
+    public BigDecimal get(Integer key) {
+        if (!bsi.containsKey(key)) {
+            return null;
+        }
+        return decode(bsi.get(key));
+    }
+
+    @Override
+    public RoaringBitmap keys() {
+        return bsi.keys();
+    }
+
+    @Override
+    public Collection<Integer> values() {
+        throw new RuntimeException("dont support keys");
+    }
+
+    /**
+     * 最大值，BSI 为空时返回 null
+     */
+    @Override
+    public BigDecimal maxValue() {
+        return isEmpty() ? null : decode(bsi.maxValue());
+    }
+
+    /**
+     * 指定 Key 集合中的最大值，没有 Key 时返回 null
+     */
+    @Override
+    public BigDecimal maxValue(RoaringBitmap rbm) {
+        int value = bsi.maxValue(rbm);
+        return value < 0 ? null : decode(value);
+    }
+
+    /**
+     * 最小值，BSI 为空时返回 null
+     */
+    @Override
+    public BigDecimal minValue() {
+        return isEmpty() ? null : decode(bsi.minValue());
+    }
+
+    /**
+     * 指定 Key 集合中的最小值，没有 Key 时返回 null
+     */
+    @Override
+    public BigDecimal minValue(RoaringBitmap rbm) {
+        int value = bsi.minValue(rbm);
+        return value < 0 ? null : decode(value);
+    }
+
+    @Override
+    public RoaringBitmap eq(BigDecimal value) {
+        return compare(Operation.EQ, value, null, null);
+    }
+
+    @Override
+    public RoaringBitmap neq(BigDecimal value) {
+        return compare(Operation.NEQ, value, null, null);
+    }
+
+    @Override
+    public RoaringBitmap le(BigDecimal value) {
+        return compare(Operation.LE, value, null, null);
+    }
+
+    @Override
+    public RoaringBitmap lt(BigDecimal value) {
+        return compare(Operation.LT, value, null, null);
+    }
+
+    @Override
+    public RoaringBitmap ge(BigDecimal value) {
+        return compare(Operation.GE, value, null, null);
+    }
+
+    @Override
+    public RoaringBitmap gt(BigDecimal value) {
+        return compare(Operation.GT, value, null, null);
+    }
+
+    @Override
+    public RoaringBitmap between(BigDecimal lower, BigDecimal upper) {
+        return compare(Operation.RANGE, lower, upper, null);
+    }
+
+    /**
+     * 范围查询
+     *      边界按方向取整为编码值后在切片上计算，不满足 scale 的 EQ 查询结果为空
+     * @param operation 比较操作
+     * @param startOrValue 比较值，RANGE 时为下限
+     * @param end RANGE 时为上限，其他操作忽略
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 满足条件的 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap compare(Operation operation, BigDecimal startOrValue, BigDecimal end, RoaringBitmap foundSet) {
+        if (null == operation || null == startOrValue || (operation == Operation.RANGE && null == end)) {
+            throw new IllegalArgumentException("Operation and values should not be null");
+        }
+        BigDecimal unscaled = startOrValue.movePointRight(scale);
+        switch (operation) {
+            case EQ:
+            case NEQ:
+                boolean exact = unscaled.signum() == 0 || unscaled.stripTrailingZeros().scale() <= 0;
+                // 不能精确表示的值不等于任何 Value
+                return compareEncoded(operation, exact ? encode(unscaled) : -1L, foundSet);
+            case LE:
+            case GT:
+                return compareEncoded(operation, encode(unscaled.setScale(0, RoundingMode.FLOOR)), foundSet);
+            case LT:
+            case GE:
+                return compareEncoded(operation, encode(unscaled.setScale(0, RoundingMode.CEILING)), foundSet);
+            case RANGE:
+                RoaringBitmap resultBitmap = compareEncoded(Operation.GE,
+                        encode(unscaled.setScale(0, RoundingMode.CEILING)), foundSet);
+                if (resultBitmap.isEmpty()) {
+                    return resultBitmap;
+                }
+                return compareEncoded(Operation.LE,
+                        encode(end.movePointRight(scale).setScale(0, RoundingMode.FLOOR)), resultBitmap);
+            default:
+                throw new IllegalArgumentException("");
+        }
+    }
+
+    /**
+     * 指定 Key 的 Value 求和，以 10^-scale 为单位
+     *      BitSliceIndex 接口要求返回 Long，原始单位的结果见 sumDecimal
+     * @param rbm Key 集合的 RoaringBitmap
+     * @return Value 的 SUM 值乘以 10^scale
+     */
+    @Override
+    public Long sum(RoaringBitmap rbm) {
+        if (null == rbm || rbm.isEmpty()) {
+            return 0L;
+        }
+        return bsi.sum(rbm) + bsi.andCardinality(rbm) * offset;
+    }
+
+    /**
+     * 指定 Key 的 Value 求和
+     * @param rbm Key 集合的 RoaringBitmap
+     * @return 原始单位的 SUM 值
+     */
+    public BigDecimal sumDecimal(RoaringBitmap rbm) {
+        return BigDecimal.valueOf(sum(rbm), scale);
+    }
+
+    /**
+     * 序列化该 BSI 所需的字节大小
+     * @return 以字节为单位的大小
+     */
+    @Override
+    public int serializedSizeInBytes() {
+        // scale(4)、offset(4)、roundingMode(1)、bsi
+        return 4 + 4 + 1 + bsi.serializedSizeInBytes();
+    }
+
+    /**
+     * 序列化
+     *      scale、minValue 与 roundingMode 在构造时确定，反序列化时校验是否一致
+     */
+    @Override
+    public void serialize(ByteBuffer buffer) throws IOException {
+        buffer.putInt(scale);
+        buffer.putInt(offset);
+        buffer.put((byte) roundingMode.ordinal());
+        bsi.serialize(buffer);
+    }
+
+    @Override
+    public void deserialize(ByteBuffer buffer) throws IOException {
+        checkHeader(buffer.getInt(), buffer.getInt(), buffer.get());
+        bsi.deserialize(buffer);
+    }
+
+    @Override
+    public void serialize(DataOutput output) throws IOException {
+        output.writeInt(scale);
+        output.writeInt(offset);
+        output.writeByte(roundingMode.ordinal());
+        bsi.serialize(output);
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        checkHeader(in.readInt(), in.readInt(), in.readByte());
+        bsi.deserialize(in);
+    }
+
+    @Override
+    public byte[] serialize() throws IOException {
+        byte[] bytes = new byte[this.serializedSizeInBytes()];
+        this.serialize(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    @Override
+    public void deserialize(byte[] bytes) throws IOException {
+        this.deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void runOptimize() {
+        bsi.runOptimize();
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    /**
+     * 写入的 Value 舍入到 scale 后转换为编码值
+     */
+    private int encodeValue(BigDecimal value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value should not be null");
+        }
+        long encoded = encode(new BigDecimal(value.setScale(scale, roundingMode).unscaledValue()));
+        if (encoded < 0 || encoded > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value " + value + " is out of range");
+        }
+        return (int) encoded;
+    }
+
+    private BigDecimal decode(int encoded) {
+        return BigDecimal.valueOf((long) encoded + offset, scale);
+    }
+
+    /**
+     * 已取整的 unscaled 值转换为编码值(unscaled - offset)
+     *      先减去 offset 再截断到 [-1, Integer.MAX_VALUE + 1]，超出编码范围的值由 compareEncoded 处理
+     */
+    private long encode(BigDecimal unscaled) {
+        BigDecimal encoded = unscaled.subtract(BigDecimal.valueOf(offset));
+        if (encoded.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0) {
+            return (long) Integer.MAX_VALUE + 1;
+        }
+        if (encoded.signum() < 0) {
+            return -1L;
+        }
+        return encoded.longValueExact();
+    }
+
+    /**
+     * 编码值上的比较
+     *      编码值超出 [0, Integer.MAX_VALUE] 时所有 Value 都大于(或都小于)编码值
+     */
+    private RoaringBitmap compareEncoded(Operation operation, long encoded, RoaringBitmap foundSet) {
+        if (encoded < 0 || encoded > Integer.MAX_VALUE) {
+            boolean allGreater = encoded < 0;
+            boolean all;
+            switch (operation) {
+                case EQ:
+                    all = false;
+                    break;
+                case NEQ:
+                    all = true;
+                    break;
+                case LT:
+                case LE:
+                    all = !allGreater;
+                    break;
+                case GT:
+                case GE:
+                    all = allGreater;
+                    break;
+                default:
+                    throw new IllegalArgumentException("");
+            }
+            if (!all) {
+                return new RoaringBitmap();
+            }
+            RoaringBitmap keys = bsi.keys();
+            if (null != foundSet) {
+                keys.and(foundSet);
+            }
+            return keys;
+        }
+        return bsi.compare(operation, (int) encoded, 0, foundSet);
+    }
+
+    private void checkHeader(int scale, int offset, byte roundingMode) throws IOException {
+        if (scale != this.scale || offset != this.offset || roundingMode != this.roundingMode.ordinal()) {
+            throw new IOException("Scale " + scale + ", min value " + BigDecimal.valueOf(offset, scale)
+                    + " and rounding mode do not match this DecimalBitSliceIndex");
+        }
+    }
+}
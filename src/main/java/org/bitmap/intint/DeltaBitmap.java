@@ -0,0 +1,580 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.PeekableCharIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MappeableBitmapContainer;
+import org.roaringbitmap.buffer.MappeableContainer;
+import org.roaringbitmap.buffer.MappeableContainerPointer;
+import org.roaringbitmap.buffer.MappeableRunContainer;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.bitmap.intint.Rbm32BitSliceIndex.ARRAY_CONTAINER_MAX_SIZE;
+import static org.bitmap.intint.Rbm32BitSliceIndex.BITMAP_CONTAINER_SIZE;
+import static org.bitmap.intint.Rbm32BitSliceIndex.NO_OFFSET_THRESHOLD;
+import static org.bitmap.intint.Rbm32BitSliceIndex.SERIAL_COOKIE;
+import static org.bitmap.intint.Rbm32BitSliceIndex.SERIAL_COOKIE_NO_RUNCONTAINER;
+
+/**
+ * 功能：序列化数据映射的只读位图及其堆上增量，供 OffHeapRbm32BitSliceIndex 使用
+ *         added 为不在 base 中的新增 Key，removed 为 base 中被删除的 Key，两者互不相交
+ *         实际内容为 (base - removed) | added，位图运算逐项合并，不拷贝 base
+ *         序列化按容器合并：没有增量时直接拷贝 source，否则只有增量所在的块在堆上合并，其余容器从 source 按字节拷贝
+ */
+final class DeltaBitmap {
+    // 空位图的序列化数据：cookie(12346)、容器个数(0)
+    private static final byte[] EMPTY = new byte[]{0x3A, 0x30, 0, 0, 0, 0, 0, 0};
+
+    // base 的序列化数据，小端序，limit 为序列化数据末尾
+    private final ByteBuffer source;
+    private final ImmutableRoaringBitmap base;
+    private final MutableRoaringBitmap added = new MutableRoaringBitmap();
+    private final MutableRoaringBitmap removed = new MutableRoaringBitmap();
+
+    private DeltaBitmap(ByteBuffer source) {
+        this.source = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.base = new ImmutableRoaringBitmap(this.source.duplicate());
+    }
+
+    /**
+     * 空位图
+     */
+    static DeltaBitmap empty() {
+        return new DeltaBitmap(ByteBuffer.wrap(EMPTY));
+    }
+
+    /**
+     * 映射 buffer 当前位置的序列化位图，不拷贝
+     *      读取完成后 buffer 的 position 位于该位图末尾
+     */
+    static DeltaBitmap map(ByteBuffer buffer) {
+        int size = new ImmutableRoaringBitmap(buffer.duplicate()).serializedSizeInBytes();
+        ByteBuffer source = buffer.slice();
+        source.limit(size);
+        buffer.position(buffer.position() + size);
+        return new DeltaBitmap(source);
+    }
+
+    boolean hasDelta() {
+        return !added.isEmpty() || !removed.isEmpty();
+    }
+
+    long deltaSizeInBytes() {
+        if (!hasDelta()) {
+            return 0L;
+        }
+        return (long) added.getSizeInBytes() + removed.getSizeInBytes();
+    }
+
+    boolean contains(int key) {
+        if (base.contains(key)) {
+            return !removed.contains(key);
+        }
+        return added.contains(key);
+    }
+
+    boolean isEmpty() {
+        return getLongCardinality() == 0;
+    }
+
+    long getLongCardinality() {
+        return base.getLongCardinality() - removed.getLongCardinality() + added.getLongCardinality();
+    }
+
+    void add(int key) {
+        if (base.contains(key)) {
+            removed.remove(key);
+        } else {
+            added.add(key);
+        }
+    }
+
+    void remove(int key) {
+        if (base.contains(key)) {
+            removed.add(key);
+        } else {
+            added.remove(key);
+        }
+    }
+
+    void addAll(ImmutableRoaringBitmap keys) {
+        added.or(ImmutableRoaringBitmap.andNot(keys, base));
+        removed.andNot(keys);
+    }
+
+    void removeAll(ImmutableRoaringBitmap keys) {
+        removed.or(ImmutableRoaringBitmap.and(keys, base));
+        added.andNot(keys);
+    }
+
+    /**
+     * 当前位图与 keys 的交集
+     */
+    MutableRoaringBitmap and(ImmutableRoaringBitmap keys) {
+        MutableRoaringBitmap result = ImmutableRoaringBitmap.and(keys, base);
+        if (!removed.isEmpty()) {
+            result.andNot(removed);
+        }
+        if (!added.isEmpty()) {
+            result.or(ImmutableRoaringBitmap.and(keys, added));
+        }
+        return result;
+    }
+
+    /**
+     * 当前位图与另一个带增量的位图的交集，两者都不合并
+     */
+    MutableRoaringBitmap and(DeltaBitmap other) {
+        MutableRoaringBitmap result = ImmutableRoaringBitmap.and(base, other.base);
+        if (!removed.isEmpty()) {
+            result.andNot(removed);
+        }
+        if (!other.removed.isEmpty()) {
+            result.andNot(other.removed);
+        }
+        if (!added.isEmpty()) {
+            result.or(other.and(added));
+        }
+        if (!other.added.isEmpty()) {
+            result.or(this.and(other.added));
+        }
+        return result;
+    }
+
+    /**
+     * 当前位图减去 keys
+     */
+    MutableRoaringBitmap andNot(ImmutableRoaringBitmap keys) {
+        MutableRoaringBitmap result = ImmutableRoaringBitmap.andNot(base, keys);
+        if (!removed.isEmpty()) {
+            result.andNot(removed);
+        }
+        if (!added.isEmpty()) {
+            result.or(ImmutableRoaringBitmap.andNot(added, keys));
+        }
+        return result;
+    }
+
+    /**
+     * 当前位图减去另一个带增量的位图，两者都不合并
+     */
+    MutableRoaringBitmap andNot(DeltaBitmap other) {
+        MutableRoaringBitmap result = ImmutableRoaringBitmap.andNot(base, other.base);
+        if (!removed.isEmpty()) {
+            result.andNot(removed);
+        }
+        if (!other.added.isEmpty()) {
+            result.andNot(other.added);
+        }
+        // other 中被删除的 Key 不再属于 other
+        if (!other.removed.isEmpty()) {
+            result.or(this.and(other.removed));
+        }
+        if (!added.isEmpty()) {
+            result.or(other.andNotFrom(added));
+        }
+        return result;
+    }
+
+    /**
+     * keys 减去当前位图
+     */
+    MutableRoaringBitmap andNotFrom(ImmutableRoaringBitmap keys) {
+        MutableRoaringBitmap result = ImmutableRoaringBitmap.andNot(keys, base);
+        if (!added.isEmpty()) {
+            result.andNot(added);
+        }
+        if (!removed.isEmpty()) {
+            result.or(ImmutableRoaringBitmap.and(keys, removed));
+        }
+        return result;
+    }
+
+    long andCardinality(ImmutableRoaringBitmap keys) {
+        long cardinality = ImmutableRoaringBitmap.andCardinality(base, keys);
+        if (!removed.isEmpty()) {
+            cardinality -= ImmutableRoaringBitmap.andCardinality(removed, keys);
+        }
+        if (!added.isEmpty()) {
+            cardinality += ImmutableRoaringBitmap.andCardinality(added, keys);
+        }
+        return cardinality;
+    }
+
+    /**
+     * 合并增量后拷贝到堆上
+     */
+    RoaringBitmap toRoaringBitmap() {
+        RoaringBitmap bitmap = base.toRoaringBitmap();
+        if (!removed.isEmpty()) {
+            bitmap.andNot(removed.toRoaringBitmap());
+        }
+        if (!added.isEmpty()) {
+            bitmap.or(added.toRoaringBitmap());
+        }
+        return bitmap;
+    }
+
+    /**
+     * 合并增量后拷贝到堆上
+     */
+    MutableRoaringBitmap toMutableRoaringBitmap() {
+        MutableRoaringBitmap bitmap = base.toMutableRoaringBitmap();
+        bitmap.andNot(removed);
+        bitmap.or(added);
+        return bitmap;
+    }
+
+    /**
+     * 合并增量后序列化的字节数，与 RoaringBitmap 的序列化格式相同
+     *      只在堆上合并增量所在的块，不构建完整的位图
+     */
+    int serializedSizeInBytes() {
+        if (!hasDelta()) {
+            return source.limit();
+        }
+        Containers containers = new Containers();
+        int count = 0;
+        boolean hasRun = false;
+        int dataSize = 0;
+        while (containers.next()) {
+            count++;
+            hasRun |= containers.run;
+            dataSize += containers.sizeInBytes;
+        }
+        return headerSize(count, hasRun) + dataSize;
+    }
+
+    void serialize(ByteBuffer buffer) {
+        ByteBuffer out = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            serialize(new BufferSink(out));
+        } catch (IOException e) {
+            // 写入 ByteBuffer 不会抛出 IOException
+            throw new IllegalStateException(e);
+        }
+        buffer.position(buffer.position() + out.position());
+    }
+
+    void serialize(DataOutput output) throws IOException {
+        serialize(new OutputSink(output));
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    /**
+     * 按 RoaringBitmap 的格式逐个容器写出合并增量后的位图
+     *      头部、偏移量与容器数据分别遍历一次容器，不缓存容器列表
+     */
+    private void serialize(Sink sink) throws IOException {
+        if (!hasDelta()) {
+            sink.write(source.duplicate());
+            return;
+        }
+        MutableRoaringBitmap patch = patch();
+        int count = 0;
+        boolean hasRun = false;
+        for (Containers containers = new Containers(patch); containers.next(); ) {
+            count++;
+            hasRun |= containers.run;
+        }
+        if (hasRun) {
+            sink.writeInt(SERIAL_COOKIE | ((count - 1) << 16));
+            // Run 容器标记位
+            int flags = 0;
+            int index = 0;
+            for (Containers containers = new Containers(patch); containers.next(); index++) {
+                if (containers.run) {
+                    flags |= 1 << (index % 8);
+                }
+                if (index % 8 == 7) {
+                    sink.writeByte(flags);
+                    flags = 0;
+                }
+            }
+            if (index % 8 != 0) {
+                sink.writeByte(flags);
+            }
+        } else {
+            sink.writeInt(SERIAL_COOKIE_NO_RUNCONTAINER);
+            sink.writeInt(count);
+        }
+        for (Containers containers = new Containers(patch); containers.next(); ) {
+            sink.writeChar(containers.key);
+            sink.writeChar((char) (containers.cardinality - 1));
+        }
+        if (!hasRun || count >= NO_OFFSET_THRESHOLD) {
+            int offset = headerSize(count, hasRun);
+            for (Containers containers = new Containers(patch); containers.next(); ) {
+                sink.writeInt(offset);
+                offset += containers.sizeInBytes;
+            }
+        }
+        for (Containers containers = new Containers(patch); containers.next(); ) {
+            if (containers.container == null) {
+                ByteBuffer bytes = source.duplicate();
+                bytes.limit(containers.dataPosition + containers.sizeInBytes);
+                bytes.position(containers.dataPosition);
+                sink.write(bytes);
+            } else {
+                writeContainer(sink, containers.container);
+            }
+        }
+    }
+
+    /**
+     * 增量所在的块合并后的容器
+     *      只包含 added/removed 涉及的块，合并结果为空的块不包含容器
+     */
+    private MutableRoaringBitmap patch() {
+        MutableRoaringBitmap chunks = new MutableRoaringBitmap();
+        addChunks(chunks, added);
+        addChunks(chunks, removed);
+        MutableRoaringBitmap patch = ImmutableRoaringBitmap.and(base, chunks);
+        patch.andNot(removed);
+        patch.or(added);
+        return patch;
+    }
+
+    private static void addChunks(MutableRoaringBitmap chunks, MutableRoaringBitmap bitmap) {
+        MappeableContainerPointer pointer = bitmap.getContainerPointer();
+        while (pointer.hasContainer()) {
+            long start = (long) pointer.key() << 16;
+            chunks.add(start, start + 0x10000);
+            pointer.advance();
+        }
+    }
+
+    /**
+     * 增量涉及的块，块内的 base 容器被 patch 中的容器替换
+     */
+    private boolean touched(char key) {
+        return added.getMappeableRoaringArray().getIndex(key) >= 0
+                || removed.getMappeableRoaringArray().getIndex(key) >= 0;
+    }
+
+    private static int headerSize(int count, boolean hasRun) {
+        if (hasRun) {
+            return 4 + (count + 7) / 8 + 4 * count + (count >= NO_OFFSET_THRESHOLD ? 4 * count : 0);
+        }
+        return 8 + 8 * count;
+    }
+
+    private static int containerSize(MappeableContainer container, int cardinality) {
+        if (container instanceof MappeableRunContainer) {
+            return 2 + 4 * ((MappeableRunContainer) container).numberOfRuns();
+        }
+        return container instanceof MappeableBitmapContainer ? BITMAP_CONTAINER_SIZE : 2 * cardinality;
+    }
+
+    private static void writeContainer(Sink sink, MappeableContainer container) throws IOException {
+        if (container instanceof MappeableRunContainer) {
+            MappeableRunContainer run = (MappeableRunContainer) container;
+            int runs = run.numberOfRuns();
+            sink.writeChar((char) runs);
+            for (int i = 0; i < runs; i++) {
+                sink.writeChar(run.getValue(i));
+                sink.writeChar(run.getLength(i));
+            }
+        } else if (container instanceof MappeableBitmapContainer) {
+            for (long word : ((MappeableBitmapContainer) container).toLongArray()) {
+                sink.writeLong(word);
+            }
+        } else {
+            PeekableCharIterator iterator = container.getCharIterator();
+            while (iterator.hasNext()) {
+                sink.writeChar(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * 按 key 升序遍历合并后的容器
+     *      增量未涉及的块来自 source(container 为 null，数据位于 dataPosition)，其余来自 patch
+     */
+    private final class Containers {
+        private final MappeableContainerPointer patchPointer;
+        // source 的头部
+        private final int baseCount;
+        private final int runFlagsPosition;
+        private final int descriptivePosition;
+        private int baseIndex = 0;
+        private int basePosition;
+
+        // 当前容器
+        private char key;
+        private int cardinality;
+        private boolean run;
+        private int sizeInBytes;
+        private MappeableContainer container;
+        private int dataPosition;
+
+        Containers() {
+            this(patch());
+        }
+
+        Containers(MutableRoaringBitmap patch) {
+            this.patchPointer = patch.getContainerPointer();
+            int cookie = source.getInt(0);
+            boolean hasOffsets;
+            if ((cookie & 0xFFFF) == SERIAL_COOKIE) {
+                baseCount = (cookie >>> 16) + 1;
+                runFlagsPosition = 4;
+                descriptivePosition = 4 + (baseCount + 7) / 8;
+                hasOffsets = baseCount >= NO_OFFSET_THRESHOLD;
+            } else {
+                baseCount = source.getInt(4);
+                runFlagsPosition = -1;
+                descriptivePosition = 8;
+                hasOffsets = true;
+            }
+            basePosition = descriptivePosition + 4 * baseCount + (hasOffsets ? 4 * baseCount : 0);
+        }
+
+        boolean next() {
+            // 跳过增量涉及的块
+            while (baseIndex < baseCount && touched(baseKey())) {
+                basePosition += baseSize();
+                baseIndex++;
+            }
+            boolean hasBase = baseIndex < baseCount;
+            if (!hasBase && !patchPointer.hasContainer()) {
+                return false;
+            }
+            if (hasBase && (!patchPointer.hasContainer() || baseKey() < patchPointer.key())) {
+                key = baseKey();
+                cardinality = source.getChar(descriptivePosition + 4 * baseIndex + 2) + 1;
+                run = baseRun();
+                sizeInBytes = baseSize();
+                container = null;
+                dataPosition = basePosition;
+                basePosition += sizeInBytes;
+                baseIndex++;
+            } else {
+                key = patchPointer.key();
+                cardinality = patchPointer.getCardinality();
+                container = patchPointer.getContainer();
+                run = container instanceof MappeableRunContainer;
+                sizeInBytes = containerSize(container, cardinality);
+                patchPointer.advance();
+            }
+            return true;
+        }
+
+        private char baseKey() {
+            return source.getChar(descriptivePosition + 4 * baseIndex);
+        }
+
+        private boolean baseRun() {
+            return runFlagsPosition >= 0 && (source.get(runFlagsPosition + baseIndex / 8) & (1 << (baseIndex % 8))) != 0;
+        }
+
+        private int baseSize() {
+            if (baseRun()) {
+                return 2 + 4 * source.getChar(basePosition);
+            }
+            int baseCardinality = source.getChar(descriptivePosition + 4 * baseIndex + 2) + 1;
+            return baseCardinality <= ARRAY_CONTAINER_MAX_SIZE ? 2 * baseCardinality : BITMAP_CONTAINER_SIZE;
+        }
+    }
+
+    /**
+     * 小端序写入目标
+     */
+    private interface Sink {
+        void writeByte(int value) throws IOException;
+
+        void writeChar(char value) throws IOException;
+
+        void writeInt(int value) throws IOException;
+
+        void writeLong(long value) throws IOException;
+
+        void write(ByteBuffer bytes) throws IOException;
+    }
+
+    private static final class BufferSink implements Sink {
+        private final ByteBuffer out;
+
+        BufferSink(ByteBuffer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void writeByte(int value) {
+            out.put((byte) value);
+        }
+
+        @Override
+        public void writeChar(char value) {
+            out.putChar(value);
+        }
+
+        @Override
+        public void writeInt(int value) {
+            out.putInt(value);
+        }
+
+        @Override
+        public void writeLong(long value) {
+            out.putLong(value);
+        }
+
+        @Override
+        public void write(ByteBuffer bytes) {
+            out.put(bytes);
+        }
+    }
+
+    private static final class OutputSink implements Sink {
+        private final DataOutput out;
+        private byte[] chunk;
+
+        OutputSink(DataOutput out) {
+            this.out = out;
+        }
+
+        @Override
+        public void writeByte(int value) throws IOException {
+            out.writeByte(value);
+        }
+
+        @Override
+        public void writeChar(char value) throws IOException {
+            out.writeShort(Character.reverseBytes(value));
+        }
+
+        @Override
+        public void writeInt(int value) throws IOException {
+            out.writeInt(Integer.reverseBytes(value));
+        }
+
+        @Override
+        public void writeLong(long value) throws IOException {
+            out.writeLong(Long.reverseBytes(value));
+        }
+
+        @Override
+        public void write(ByteBuffer bytes) throws IOException {
+            if (bytes.hasArray()) {
+                out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                return;
+            }
+            // 堆外数据分段拷贝
+            if (chunk == null) {
+                chunk = new byte[BITMAP_CONTAINER_SIZE];
+            }
+            while (bytes.hasRemaining()) {
+                int length = Math.min(chunk.length, bytes.remaining());
+                bytes.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.Operation;
+import org.roaringbitmap.BitSetUtil;
+import org.roaringbitmap.ContainerPointer;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.nio.LongBuffer;
+
+/**
+ * 功能：稠密切片
+ *         Key 空间稠密时(例如 0..N 中超过 90% 的 Key 存在)，切片基本都是满的 bitmap container
+ *         把 ebm 与每个切片展开为覆盖 [base, base + 64 * words) 的 long[]，范围查询、求和、解码都变为紧凑的按字循环
+ *         按切片逐字处理的循环结构简单，可以被 JIT 自动向量化
+ *         展开结果是切片之外的一份完整拷贝，只有 Rbm32BitSliceIndex 开启 setDenseSlices(true) 且 Key 空间稠密时才创建
+ *         RoaringBitmap 切片仍然是数据的唯一来源
+ */
+class DenseSlices {
+    // 稠密模式的最小 Key 个数
+    static final long MIN_CARDINALITY = 1L << 16;
+    // 稠密模式的最小 Key 占比
+    static final double MIN_DENSITY = 0.9;
+
+    // 起始 Key(无符号)，按 65536 对齐，结果转换回 RoaringBitmap 时只需平移 container
+    private final long base;
+    private final int words;
+    private final long[] ebm;
+    private long[][] slices;
+
+    private DenseSlices(long base, int words, long[] ebm, long[][] slices) {
+        this.base = base;
+        this.words = words;
+        this.ebm = ebm;
+        this.slices = slices;
+    }
+
+    /**
+     * Key 空间是否足够稠密
+     */
+    static boolean isDense(RoaringBitmap ebm) {
+        long cardinality = ebm.getLongCardinality();
+        if (cardinality < MIN_CARDINALITY) {
+            return false;
+        }
+        long span = Integer.toUnsignedLong(ebm.last()) - Integer.toUnsignedLong(ebm.first()) + 1;
+        return cardinality >= MIN_DENSITY * span;
+    }
+
+    /**
+     * 把 ebm 与切片展开为 long[]
+     */
+    static DenseSlices build(RoaringBitmap ebm, RoaringBitmap[] slices, int sliceSize) {
+        long base = Integer.toUnsignedLong(ebm.first()) & ~0xFFFFL;
+        long last = Integer.toUnsignedLong(ebm.last());
+        int words = (int) ((last - base) / 64 + 1);
+        long[][] denseSlices = new long[sliceSize][];
+        for (int i = 0; i < sliceSize; i++) {
+            denseSlices[i] = toWords(slices[i], base, words);
+        }
+        return new DenseSlices(base, words, toWords(ebm, base, words), denseSlices);
+    }
+
+    /**
+     * key 是否位于展开范围内
+     */
+    boolean covers(int key) {
+        long offset = Integer.toUnsignedLong(key) - base;
+        return offset >= 0 && offset < 64L * words;
+    }
+
+    /**
+     * 增加切片
+     */
+    void resize(int newSliceSize) {
+        if (newSliceSize <= slices.length) {
+            return;
+        }
+        long[][] newSlices = new long[newSliceSize][];
+        System.arraycopy(slices, 0, newSlices, 0, slices.length);
+        for (int i = slices.length; i < newSliceSize; i++) {
+            newSlices[i] = new long[words];
+        }
+        slices = newSlices;
+    }
+
+    /**
+     * 设置 key 的 value，key 必须位于展开范围内
+     */
+    void put(int key, int value) {
+        int offset = (int) (Integer.toUnsignedLong(key) - base);
+        int word = offset >>> 6;
+        long mask = 1L << offset;
+        for (int i = 0; i < slices.length; i++) {
+            if ((value & (1 << i)) != 0) {
+                slices[i][word] |= mask;
+            } else {
+                slices[i][word] &= ~mask;
+            }
+        }
+        ebm[word] |= mask;
+    }
+
+    /**
+     * 删除 key，key 必须位于展开范围内
+     */
+    void remove(int key) {
+        int offset = (int) (Integer.toUnsignedLong(key) - base);
+        int word = offset >>> 6;
+        long mask = ~(1L << offset);
+        for (long[] slice : slices) {
+            slice[word] &= mask;
+        }
+        ebm[word] &= mask;
+    }
+
+    /**
+     * 解码 key 的 value，key 必须位于展开范围内
+     */
+    int get(int key) {
+        int offset = (int) (Integer.toUnsignedLong(key) - base);
+        int word = offset >>> 6;
+        int value = 0;
+        for (int i = 0; i < slices.length; i++) {
+            value |= (int) ((slices[i][word] >>> offset) & 1L) << i;
+        }
+        return value;
+    }
+
+    /**
+     * oNeil 范围查询 按字计算
+     * @param operation 比较操作
+     * @param value 比较值，必须位于切片表示范围内
+     * @param lowestSlice 最低遍历的切片
+     * @return
+     */
+    RoaringBitmap range(Operation operation, int value, int lowestSlice) {
+        long[] eq = ebm.clone();
+        long[] lt = new long[words];
+        long[] gt = new long[words];
+        for (int i = slices.length - 1; i >= lowestSlice; i--) {
+            long[] slice = slices[i];
+            if (((value >> i) & 1) == 1) {
+                for (int w = 0; w < words; w++) {
+                    lt[w] |= eq[w] & ~slice[w];
+                    eq[w] &= slice[w];
+                }
+            } else {
+                for (int w = 0; w < words; w++) {
+                    gt[w] |= eq[w] & slice[w];
+                    eq[w] &= ~slice[w];
+                }
+            }
+        }
+        long[] result;
+        switch (operation) {
+            case EQ:
+                result = eq;
+                break;
+            case NEQ:
+                result = lt;
+                for (int w = 0; w < words; w++) {
+                    result[w] = ebm[w] & ~eq[w];
+                }
+                break;
+            case GT:
+                result = gt;
+                break;
+            case LT:
+                result = lt;
+                break;
+            case LE:
+                result = lt;
+                for (int w = 0; w < words; w++) {
+                    result[w] |= eq[w];
+                }
+                break;
+            case GE:
+                result = gt;
+                for (int w = 0; w < words; w++) {
+                    result[w] |= eq[w];
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("");
+        }
+        return toBitmap(result);
+    }
+
+    /**
+     * 指定 Key 的 Value 求和 按字 popcount
+     *      Key 集合较小时(少于字数)展开的代价高于收益，返回 -1 交给 RoaringBitmap 计算
+     * @param rbm Key 集合
+     * @return Value 的 SUM 值，不适合按字计算时返回 -1
+     */
+    long sum(RoaringBitmap rbm) {
+        if (rbm.getLongCardinality() < words) {
+            return -1;
+        }
+        long[] keys = new long[words];
+        long end = base + 64L * words;
+        PeekableIntIterator iterator = rbm.getIntIterator();
+        iterator.advanceIfNeeded((int) base);
+        while (iterator.hasNext()) {
+            long key = Integer.toUnsignedLong(iterator.next());
+            if (key >= end) {
+                break;
+            }
+            int offset = (int) (key - base);
+            keys[offset >>> 6] |= 1L << offset;
+        }
+        long sum = 0;
+        for (int i = 0; i < slices.length; i++) {
+            long[] slice = slices[i];
+            long cardinality = 0;
+            for (int w = 0; w < words; w++) {
+                cardinality += Long.bitCount(slice[w] & keys[w]);
+            }
+            sum += cardinality << i;
+        }
+        return sum;
+    }
+
+    private RoaringBitmap toBitmap(long[] result) {
+        return RoaringBitmap.addOffset(BitSetUtil.bitmapOf(result), base);
+    }
+
+    /**
+     * 按 container 展开为 long[]
+     *      每个 container 转换为 bitmap container 后整体复制 1024 个字，不逐个 Key 设置
+     */
+    private static long[] toWords(RoaringBitmap bitmap, long base, int words) {
+        long[] result = new long[words];
+        ContainerPointer pointer = bitmap.getContainerPointer();
+        for (; pointer.getContainer() != null; pointer.advance()) {
+            long start = ((long) pointer.key() << 16) - base;
+            if (start < 0) {
+                continue;
+            }
+            int word = (int) (start >>> 6);
+            if (word >= words) {
+                break;
+            }
+            // toLongBuffer 写入后 position 位于末尾
+            LongBuffer container = pointer.getContainer().toBitmapContainer().toLongBuffer();
+            container.rewind();
+            container.get(result, word, Math.min(container.remaining(), words - word));
+        }
+        return result;
+    }
+}
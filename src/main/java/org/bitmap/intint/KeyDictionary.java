@@ -0,0 +1,173 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+
+/**
+ * 功能：Key 字典
+ *         把外部 Key 映射为从 0 开始连续分配的内部序号，内部序号再反查外部 Key
+ *         正向使用开放寻址(线性探测)的 int -> int 哈希表，反向使用序号下标的 int 数组，不装箱
+ *         序号只增不减，删除 Key 后序号仍然保留，再次写入时复用
+ */
+class KeyDictionary {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // 哈希表：tableKeys 存外部 Key，tableOrdinals 存序号 + 1，0 表示空槽
+    private int[] tableKeys;
+    private int[] tableOrdinals;
+    // 反向数组：序号 -> 外部 Key
+    private int[] reverse;
+    private int size;
+
+    KeyDictionary() {
+        this(16);
+    }
+
+    KeyDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.tableKeys = new int[capacity];
+        this.tableOrdinals = new int[capacity];
+        this.reverse = new int[Math.max(16, expectedSize)];
+        this.size = 0;
+    }
+
+    /**
+     * 已分配的序号个数
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 获取外部 Key 的序号
+     * @param key 外部 Key
+     * @return 没有分配序号时返回 -1
+     */
+    int ordinal(int key) {
+        int mask = tableKeys.length - 1;
+        for (int slot = mix(key) & mask; tableOrdinals[slot] != 0; slot = (slot + 1) & mask) {
+            if (tableKeys[slot] == key) {
+                return tableOrdinals[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取外部 Key 的序号，没有时分配新序号
+     * @param key 外部 Key
+     * @return 序号
+     */
+    int getOrAdd(int key) {
+        int mask = tableKeys.length - 1;
+        int slot = mix(key) & mask;
+        for (; tableOrdinals[slot] != 0; slot = (slot + 1) & mask) {
+            if (tableKeys[slot] == key) {
+                return tableOrdinals[slot] - 1;
+            }
+        }
+        int ordinal = size++;
+        tableKeys[slot] = key;
+        tableOrdinals[slot] = ordinal + 1;
+        if (ordinal == reverse.length) {
+            reverse = Arrays.copyOf(reverse, reverse.length * 2);
+        }
+        reverse[ordinal] = key;
+        if (size > tableKeys.length * LOAD_FACTOR) {
+            rehash(tableKeys.length * 2);
+        }
+        return ordinal;
+    }
+
+    /**
+     * 序号对应的外部 Key
+     */
+    int key(int ordinal) {
+        return reverse[ordinal];
+    }
+
+    /**
+     * 外部 Key 集合转换为序号集合，没有分配序号的 Key 忽略
+     */
+    RoaringBitmap toOrdinals(RoaringBitmap keys) {
+        int[] ordinals = new int[keys.getCardinality()];
+        int count = 0;
+        IntIterator iterator = keys.getIntIterator();
+        while (iterator.hasNext()) {
+            int ordinal = ordinal(iterator.next());
+            if (ordinal >= 0) {
+                ordinals[count++] = ordinal;
+            }
+        }
+        Arrays.sort(ordinals, 0, count);
+        RoaringBitmap result = new RoaringBitmap();
+        result.addN(ordinals, 0, count);
+        return result;
+    }
+
+    /**
+     * 序号集合转换为外部 Key 集合
+     */
+    RoaringBitmap toKeys(RoaringBitmap ordinals) {
+        int[] keys = new int[ordinals.getCardinality()];
+        int count = 0;
+        IntIterator iterator = ordinals.getIntIterator();
+        while (iterator.hasNext()) {
+            keys[count++] = reverse[iterator.next()];
+        }
+        // 外部 Key 按无符号排序后批量写入
+        for (int i = 0; i < count; i++) {
+            keys[i] ^= Integer.MIN_VALUE;
+        }
+        Arrays.sort(keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            keys[i] ^= Integer.MIN_VALUE;
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        result.addN(keys, 0, count);
+        return result;
+    }
+
+    KeyDictionary copy() {
+        KeyDictionary dictionary = new KeyDictionary(0);
+        dictionary.tableKeys = tableKeys.clone();
+        dictionary.tableOrdinals = tableOrdinals.clone();
+        dictionary.reverse = reverse.clone();
+        dictionary.size = size;
+        return dictionary;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = tableKeys;
+        int[] oldOrdinals = tableOrdinals;
+        tableKeys = new int[capacity];
+        tableOrdinals = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldOrdinals[i] == 0) {
+                continue;
+            }
+            int slot = mix(oldKeys[i]) & mask;
+            while (tableOrdinals[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            tableKeys[slot] = oldKeys[i];
+            tableOrdinals[slot] = oldOrdinals[i];
+        }
+    }
+
+    /**
+     * murmur3 fmix32，外部 Key 已经是哈希值时同样适用
+     */
+    private static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
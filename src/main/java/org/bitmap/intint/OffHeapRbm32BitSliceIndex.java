@@ -0,0 +1,1001 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.bitmap.core.Operation;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * 功能：OffHeapRbm32BitSliceIndex 整数 堆外存储
+ *         ebm 与切片序列化在同一块堆外内存(direct ByteBuffer)中，通过 ImmutableRoaringBitmap 直接映射读取
+ *         写入不拷贝堆外切片，只在堆上记录每个切片新增/删除的 Key(增量位图，见 DeltaBitmap)，查询时与堆外切片合并计算，
+ *         增量超过 flushThresholdBytes 时自动 flush，把增量合并写回堆外内存，堆上内存不超过该阈值，与索引大小无关
+ *         序列化按容器合并增量，不在堆上构建完整的位图
+ *         序列化格式与 Rbm32BitSliceIndex 默认格式相同，可以互相反序列化；Rbm32BitSliceIndex 写入的 Zone Map 读取时跳过
+ *         使用完毕需要调用 close 释放堆外内存，关闭后不能再访问
+ *         flush(包括写入时的自动 flush)与 close 通过 Unsafe.invokeCleaner 立即释放旧的堆外内存，
+ *         之后仍在读取旧内存的查询会访问已释放的内存并导致 JVM 崩溃，因此写入、flush、close 不能与查询并发
+ */
+public class OffHeapRbm32BitSliceIndex implements BitSliceIndex<Integer, Integer>, Closeable {
+    // 默认自动 flush 阈值：堆上增量 16MB
+    public static final long DEFAULT_FLUSH_THRESHOLD_BYTES = 16L << 20;
+    // 单个 Key 的写入每隔多少次检查一次增量大小
+    private static final int FLUSH_CHECK_INTERVAL = 1024;
+
+    private int maxValue = -1;
+    private int minValue = -1;
+    private int sliceSize = 0;
+    // 映射到堆外内存的只读视图以及堆上尚未 flush 的增量
+    private DeltaBitmap[] slices;
+    private DeltaBitmap ebm;
+    private Boolean runOptimized = false;
+    // 切片所在的堆外内存
+    private ByteBuffer buffer;
+    // 堆外内存是否由当前 BSI 分配，只有自己分配的内存才会在 close 时释放
+    private boolean ownsBuffer = false;
+    private boolean closed = false;
+    // 增量超过该字节数时自动 flush，小于等于 0 时不自动 flush
+    private long flushThresholdBytes = DEFAULT_FLUSH_THRESHOLD_BYTES;
+    // 上次检查增量大小之后单个 Key 的写入次数
+    private int writesSinceCheck = 0;
+
+    /**
+     * 构造器
+     * @param minValue 最小值
+     * @param maxValue 最大值
+     */
+    public OffHeapRbm32BitSliceIndex(Integer minValue, Integer maxValue) {
+        if (minValue < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+        // 索引切片个数等于最大整数二进制位数，即32减去最大整数二进制填充0个数
+        sliceSize = 32 - Integer.numberOfLeadingZeros(maxValue);
+        this.slices = new DeltaBitmap[sliceSize];
+        for (int i = 0; i < slices.length; i++) {
+            this.slices[i] = DeltaBitmap.empty();
+        }
+        this.ebm = DeltaBitmap.empty();
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    public OffHeapRbm32BitSliceIndex() {
+        this(0, 0);
+    }
+
+    /**
+     * 直接映射已序列化的 BSI，不拷贝数据
+     *      适用于 mmap 文件等由调用方管理生命周期的 ByteBuffer，close 时不会释放该 buffer
+     * @param buffer Rbm32BitSliceIndex/OffHeapRbm32BitSliceIndex 序列化后的数据，从 position 处开始读取
+     * @return 映射后的 BSI
+     */
+    public static OffHeapRbm32BitSliceIndex map(ByteBuffer buffer) {
+        OffHeapRbm32BitSliceIndex bitSliceIndex = new OffHeapRbm32BitSliceIndex();
+        bitSliceIndex.mapInternal(buffer.duplicate());
+        bitSliceIndex.buffer = buffer;
+        bitSliceIndex.ownsBuffer = false;
+        return bitSliceIndex;
+    }
+
+    /**
+     * 切片个数
+     *      最大值二进制位数
+     * @return
+     */
+    @Override
+    public int sliceSize() {
+        return sliceSize;
+    }
+
+    /**
+     * BSI 基数,即 Key 的个数
+     * @return
+     */
+    @Override
+    public long getLongCardinality() {
+        ensureOpen();
+        return this.ebm.getLongCardinality();
+    }
+
+    /**
+     * 如果 BSI 不包含 key-value 映射，返回 true
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.getLongCardinality() == 0;
+    }
+
+    /**
+     * 从 BSI 中删除所有的映射，BSI 变空
+     * 清空所有的 Key 并释放堆外内存
+     */
+    @Override
+    public void clear() {
+        ensureOpen();
+        releaseBuffer();
+        this.maxValue = -1;
+        this.minValue = -1;
+        this.ebm = DeltaBitmap.empty();
+        this.slices = new DeltaBitmap[0];
+        this.sliceSize = 0;
+    }
+
+    /**
+     * 指定的 key 是否有对应的 value
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean containsKey(Integer key) {
+        ensureOpen();
+        return this.ebm.contains(key);
+    }
+
+    /**
+     * 指定的 value 是否关联指定的 key
+     * @param value
+     * @return
+     */
+    @Override
+    public boolean containsValue(Integer value) {
+        RoaringBitmap bitmap = eq(value);
+        return !bitmap.isEmpty();
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 Value
+     *      修改记录在堆上的增量中，调用 flush 后写回堆外内存
+     * @param key
+     * @param value
+     */
+    @Override
+    public void put(Integer key, Integer value) {
+        ensureOpen();
+        // 更新最大值和最小值
+        if (this.isEmpty()) {
+            this.minValue = value;
+            this.maxValue = value;
+        } else if (this.minValue > value) {
+            this.minValue = value;
+        } else if (this.maxValue < value) {
+            this.maxValue = value;
+        }
+        // 调整切片个数
+        int newSliceSize = Integer.toBinaryString(value).length();
+        resize(newSliceSize);
+        // 为指定的 Key 设置 Value
+        putValueInternal(key, value);
+        flushIfNeeded(false);
+    }
+
+    /**
+     * 写入另一个 BSI 的全部映射，相同 Key 的旧值会被覆盖
+     * @param otherBsi
+     */
+    @Override
+    public void putAll(BitSliceIndex otherBsi) {
+        if (null == otherBsi || otherBsi.isEmpty()) {
+            return;
+        }
+        for (int key : otherBsi.keys()) {
+            this.put(key, (Integer) otherBsi.get(key));
+        }
+    }
+
+    /**
+     * 获取指定 key 关联的 value
+     * @param key
+     * @return
+     */
+    @Override
+    public Integer get(Integer key) {
+        if (!this.containsKey(key)) {
+            return -1;
+        }
+        return getValueInternal(key);
+    }
+
+    /**
+     * 删除指定 key 的 value
+     * @param key 删除指定的 key
+     * @return 如果指定 key 关联的 value 不存在返回 -1，否则返回 value
+     */
+    @Override
+    public Integer remove(Integer key) {
+        // 不存在返回 -1
+        if (!this.containsKey(key)) {
+            return -1;
+        }
+        int value = removeValueInternal(key);
+        flushIfNeeded(false);
+        return value;
+    }
+
+    /**
+     * 为指定的 Key 集合关联同一个 Value
+     *      每个切片的增量一次 or/andNot，最小值/最大值根据切片重新计算
+     * @param keys Key 集合
+     * @param value 关联的 Value
+     */
+    @Override
+    public void setValue(RoaringBitmap keys, Integer value) {
+        ensureOpen();
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        resize(32 - Integer.numberOfLeadingZeros(value));
+        MutableRoaringBitmap mutableKeys = keys.toMutableRoaringBitmap();
+        for (int i = 0; i < this.sliceSize; i++) {
+            if ((value & (1 << i)) != 0) {
+                this.slices[i].addAll(mutableKeys);
+            } else {
+                this.slices[i].removeAll(mutableKeys);
+            }
+        }
+        this.ebm.addAll(mutableKeys);
+        refreshMinMax();
+        flushIfNeeded(true);
+    }
+
+    /**
+     * 删除指定 Key 集合的 value
+     *      每个切片一次 andNot，最小值/最大值根据切片重新计算
+     * @param keys 删除的 Key 集合
+     */
+    @Override
+    public void removeAll(RoaringBitmap keys) {
+        ensureOpen();
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        removeAllInternal(this.ebm.and(keys.toMutableRoaringBitmap()));
+    }
+
+    /**
+     * 只保留指定 Key 集合的 value，其余 Key 全部删除
+     * @param keys 保留的 Key 集合
+     */
+    @Override
+    public void retainAll(RoaringBitmap keys) {
+        ensureOpen();
+        if (null == keys) {
+            throw new IllegalArgumentException("Keys should not be null");
+        }
+        removeAllInternal(this.ebm.andNot(keys.toMutableRoaringBitmap()));
+    }
+
+    /**
+     * 返回所有 key 的 RoaringBitmap
+     *      拷贝到堆上
+     * @return
+     */
+    @Override
+    public RoaringBitmap keys() {
+        ensureOpen();
+        return this.ebm.toRoaringBitmap();
+    }
+
+    @Override
+    public Collection<Integer> values() {
+        throw new RuntimeException("dont support keys");
+    }
+
+    /**
+     * 最小值
+     * @return
+     */
+    @Override
+    public Integer minValue() {
+        return minValue;
+    }
+
+    /**
+     * 查询指定 Key 集合中的最小值
+     * @param rbm Key 集合
+     * @return
+     */
+    @Override
+    public Integer minValue(RoaringBitmap rbm) {
+        if (this.isEmpty() || Objects.equals(rbm, null) || rbm.getLongCardinality() == 0) {
+            return -1;
+        }
+        // 指定 Key 与 BSI 中 Key 的交集
+        ImmutableRoaringBitmap keys = this.ebm.and(rbm.toMutableRoaringBitmap());
+        if (keys.isEmpty()) {
+            return -1;
+        }
+        return minValueInternal(keys);
+    }
+
+    @Override
+    public Integer maxValue() {
+        return maxValue;
+    }
+
+    /**
+     * 查询指定 Key 集合中的最大值
+     * @return
+     */
+    @Override
+    public Integer maxValue(RoaringBitmap rbm) {
+        if (this.isEmpty() || Objects.equals(rbm, null) || rbm.getLongCardinality() == 0) {
+            return -1;
+        }
+        // 指定 Key 与 BSI 中 Key 的交集
+        ImmutableRoaringBitmap keys = this.ebm.and(rbm.toMutableRoaringBitmap());
+        if (keys.isEmpty()) {
+            return -1;
+        }
+        return maxValueInternal(keys);
+    }
+
+    /**
+     * 克隆
+     *      克隆结果拥有独立的堆外内存，需要单独 close
+     * @return
+     */
+    @Override
+    public OffHeapRbm32BitSliceIndex clone() {
+        ensureOpen();
+        OffHeapRbm32BitSliceIndex bitSliceIndex = new OffHeapRbm32BitSliceIndex();
+        // 克隆属性
+        bitSliceIndex.minValue = this.minValue;
+        bitSliceIndex.maxValue = this.maxValue;
+        bitSliceIndex.sliceSize = this.sliceSize;
+        bitSliceIndex.runOptimized = this.runOptimized;
+        bitSliceIndex.flushThresholdBytes = this.flushThresholdBytes;
+        bitSliceIndex.ebm = this.ebm;
+        bitSliceIndex.slices = this.slices.clone();
+        // 克隆切片 拷贝到新的堆外内存
+        bitSliceIndex.flush();
+        return bitSliceIndex;
+    }
+
+    /**
+     * 范围查询 等于 value 的 key
+     * @param value 查找值
+     * @return 返回由等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap eq(Integer value) {
+        return oNeilRange(Operation.EQ, value);
+    }
+
+    /**
+     * 范围查询 不等于 value 的 key
+     * @param value 查找值
+     * @return 返回由不等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap neq(Integer value) {
+        return oNeilRange(Operation.NEQ, value);
+    }
+
+    /**
+     * 范围查询 小于等于 value 的 key
+     * @param value 查找值
+     * @return 返回由小于等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap le(Integer value) {
+        return oNeilRange(Operation.LE, value);
+    }
+
+    /**
+     * 范围查询 小于 value 的 key
+     * @param value 查找值
+     * @return 返回由小于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap lt(Integer value) {
+        return oNeilRange(Operation.LT, value);
+    }
+
+    /**
+     * 范围查询 大于等于 value 的 key
+     * @param value 查找值
+     * @return 返回由大于等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap ge(Integer value) {
+        return oNeilRange(Operation.GE, value);
+    }
+
+    /**
+     * 范围查询 大于 value 的 key
+     * @param value 查找值
+     * @return 返回由大于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap gt(Integer value) {
+        return oNeilRange(Operation.GT, value);
+    }
+
+    /**
+     * 范围查询 [lower, upper] 区间内的 key
+     * @param lower 下限
+     * @param upper 上限
+     * @return 返回由[lower, upper] 区间内的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap between(Integer lower, Integer upper) {
+        RoaringBitmap lowerBitmap = oNeilRange(Operation.GE, lower);
+        RoaringBitmap upperBitmap = oNeilRange(Operation.LE, upper);
+        RoaringBitmap resultBitmap = lowerBitmap;
+        resultBitmap.and(upperBitmap);
+        return resultBitmap;
+    }
+
+    /**
+     * 指定 Key 的 Value 求和
+     * @param rbm Key 集合的 RoaringBitmap
+     * @return Value 的 SUM 值
+     */
+    @Override
+    public Long sum(RoaringBitmap rbm) {
+        ensureOpen();
+        if (null == rbm || rbm.isEmpty()) {
+            return 0L;
+        }
+        MutableRoaringBitmap keys = rbm.toMutableRoaringBitmap();
+        long sum = 0;
+        for (int i = 0; i < this.sliceSize; i ++) {
+            long sliceValue = 1L << i;
+            sum += sliceValue * this.slices[i].andCardinality(keys);
+        }
+        return sum;
+    }
+
+    /**
+     * 序列化该 BSI 所需的字节大小
+     *   这是使用 serialize 方法时写入的字节数。
+     * @return 以字节为单位的大小
+     */
+    @Override
+    public int serializedSizeInBytes() {
+        ensureOpen();
+        int size = 0;
+        for (DeltaBitmap rbm : this.slices) {
+            size += rbm.serializedSizeInBytes();
+        }
+        // minValue(4)、maxValue(4)、sliceSize(4)、runOptimized(1)、ebm(ebm.serializedSizeInBytes)、slices(4+size)
+        // 与 serialize 方法一一对应
+        return 4 + 4 + 4 + 1 + this.ebm.serializedSizeInBytes() + 4 + size;
+    }
+
+    /**
+     * 序列化
+     * @param buffer
+     * @throws IOException
+     */
+    @Override
+    public void serialize(ByteBuffer buffer) throws IOException {
+        ensureOpen();
+        // 属性
+        buffer.putInt(this.minValue);
+        buffer.putInt(this.maxValue);
+        buffer.putInt(this.sliceSize);
+        buffer.put(this.runOptimized ? (byte) 1 : (byte) 0);
+        // ebm
+        this.ebm.serialize(buffer);
+        // 切片数组(切片个数、切片)
+        buffer.putInt(this.sliceSize);
+        for (DeltaBitmap rbm : this.slices) {
+            rbm.serialize(buffer);
+        }
+    }
+
+    /**
+     * 反序列化
+     *      数据拷贝到当前 BSI 自己分配的堆外内存中
+     * @param buffer
+     * @throws IOException
+     */
+    @Override
+    public void deserialize(ByteBuffer buffer) throws IOException {
+        this.clear();
+        mapInternal(buffer);
+        // 拷贝到堆外内存
+        flush();
+    }
+
+    /**
+     * 序列化
+     * @param output
+     * @throws IOException
+     */
+    @Override
+    public void serialize(DataOutput output) throws IOException {
+        ensureOpen();
+        // 属性
+        output.writeInt(this.minValue);
+        output.writeInt(this.maxValue);
+        output.writeInt(this.sliceSize);
+        output.writeInt(this.runOptimized ? (byte) 1 : (byte) 0);
+        // ebm
+        this.ebm.serialize(output);
+        // 切片
+        output.writeInt(this.sliceSize);
+        for (DeltaBitmap rbm : this.slices) {
+            rbm.serialize(output);
+        }
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        this.clear();
+        // 属性
+        this.minValue = in.readInt();
+        this.maxValue = in.readInt();
+        this.sliceSize = in.readInt();
+        int flags = in.readInt();
+        this.runOptimized = (flags & Rbm32BitSliceIndex.FLAG_RUN_OPTIMIZED) != 0;
+        // ebm
+        MutableRoaringBitmap ebm = new MutableRoaringBitmap();
+        ebm.deserialize(in);
+        // 切片
+        this.sliceSize = in.readInt();
+        MutableRoaringBitmap[] slices = new MutableRoaringBitmap[this.sliceSize];
+        for (int i = 0; i < this.sliceSize; i++) {
+            slices[i] = new MutableRoaringBitmap();
+            slices[i].deserialize(in);
+        }
+        // Rbm32BitSliceIndex 序列化的 Zone Map
+        if ((flags & Rbm32BitSliceIndex.FLAG_ZONE_MAP) != 0) {
+            ZoneMap.skip(in);
+        }
+        // 拷贝到堆外内存
+        writeBuffer(ebm, slices);
+    }
+
+    /**
+     * 序列化为字节数组
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public byte[] serialize() throws IOException {
+        byte[] bytes = new byte[this.serializedSizeInBytes()];
+        this.serialize(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * 字节数组反序列化为 BSI
+     * @param bytes
+     * @throws IOException
+     */
+    @Override
+    public void deserialize(byte[] bytes) throws IOException {
+        this.deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * BSI 压缩优化
+     *      优化后写回堆外内存
+     */
+    @Override
+    public void runOptimize() {
+        ensureOpen();
+        // ebm 压缩优化
+        MutableRoaringBitmap ebm = this.ebm.toMutableRoaringBitmap();
+        ebm.runOptimize();
+        // 切片压缩优化
+        MutableRoaringBitmap[] slices = new MutableRoaringBitmap[this.sliceSize];
+        for (int i = 0; i < this.sliceSize; i++) {
+            slices[i] = this.slices[i].toMutableRoaringBitmap();
+            slices[i].runOptimize();
+        }
+        this.runOptimized = true;
+        writeBuffer(ebm, slices);
+    }
+
+    /**
+     * 把堆上的增量合并到 ebm 和切片并写回堆外内存
+     *      重新分配一块 direct ByteBuffer，按容器合并增量后写入(没有增量的位图直接拷贝)，并释放之前持有的堆外内存
+     *      旧的堆外内存通过 Unsafe.invokeCleaner 立即释放，不能与查询并发
+     */
+    public void flush() {
+        ensureOpen();
+        long size = this.ebm.serializedSizeInBytes();
+        for (int i = 0; i < this.sliceSize; i++) {
+            size += this.slices[i].serializedSizeInBytes();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Serialized size " + size + " exceeds the limit of a ByteBuffer");
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect((int) size);
+        DeltaBitmap newEbm = writeView(newBuffer, this.ebm);
+        DeltaBitmap[] newSlices = new DeltaBitmap[this.sliceSize];
+        for (int i = 0; i < this.sliceSize; i++) {
+            newSlices[i] = writeView(newBuffer, this.slices[i]);
+        }
+        replaceBuffer(newBuffer, newEbm, newSlices);
+    }
+
+    /**
+     * 设置自动 flush 的阈值
+     *      写入后堆上增量超过该字节数时自动调用 flush，单个 Key 的写入每 1024 次检查一次，批量写入每次检查
+     * @param flushThresholdBytes 阈值，小于等于 0 时不自动 flush
+     */
+    public void setFlushThresholdBytes(long flushThresholdBytes) {
+        this.flushThresholdBytes = flushThresholdBytes;
+    }
+
+    public long getFlushThresholdBytes() {
+        return flushThresholdBytes;
+    }
+
+    /**
+     * 堆上尚未 flush 的增量占用的字节大小
+     *      增量随 flush 之前写入的 Key 个数增长，超过 flushThresholdBytes 时自动 flush
+     * @return
+     */
+    public long deltaSizeInBytes() {
+        ensureOpen();
+        long size = this.ebm.deltaSizeInBytes();
+        for (int i = 0; i < this.sliceSize; i++) {
+            size += this.slices[i].deltaSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * 堆外内存占用的字节大小
+     * @return 尚未分配或映射时返回 0
+     */
+    public long offHeapSizeInBytes() {
+        return this.buffer == null ? 0L : this.buffer.capacity();
+    }
+
+    /**
+     * 释放堆外内存，关闭后不能再访问该 BSI
+     *      堆外内存通过 Unsafe.invokeCleaner 立即释放，不能与查询并发
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        releaseBuffer();
+        this.ebm = null;
+        this.slices = null;
+        this.sliceSize = 0;
+        this.closed = true;
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    /**
+     * 校验 BSI 未关闭
+     */
+    private void ensureOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("BitSliceIndex has been closed");
+        }
+    }
+
+    /**
+     * 映射序列化数据，不拷贝
+     *      ebm 与切片均为指向 buffer 的只读视图，读取完成后 buffer 的 position 位于序列化数据末尾
+     */
+    private void mapInternal(ByteBuffer buffer) {
+        // 属性
+        this.minValue = buffer.getInt();
+        this.maxValue = buffer.getInt();
+        this.sliceSize = buffer.getInt();
+        int flags = buffer.get();
+        this.runOptimized = (flags & Rbm32BitSliceIndex.FLAG_RUN_OPTIMIZED) != 0;
+        // ebm
+        this.ebm = DeltaBitmap.map(buffer);
+        // 切片
+        this.sliceSize = buffer.getInt();
+        DeltaBitmap[] slices = new DeltaBitmap[this.sliceSize];
+        for (int i = 0; i < this.sliceSize; i++) {
+            slices[i] = DeltaBitmap.map(buffer);
+        }
+        this.slices = slices;
+        // Rbm32BitSliceIndex 序列化的 Zone Map
+        if ((flags & Rbm32BitSliceIndex.FLAG_ZONE_MAP) != 0) {
+            ZoneMap.skip(buffer);
+        }
+    }
+
+    /**
+     * 把合并增量后的 bitmap 序列化到 buffer 当前位置，并返回映射该位置的只读视图
+     */
+    private static DeltaBitmap writeView(ByteBuffer buffer, DeltaBitmap bitmap) {
+        ByteBuffer view = buffer.duplicate();
+        bitmap.serialize(buffer);
+        return DeltaBitmap.map(view);
+    }
+
+    /**
+     * 把堆上的 ebm 与切片写入新分配的堆外内存，替换当前的堆外内存
+     */
+    private void writeBuffer(ImmutableRoaringBitmap ebm, ImmutableRoaringBitmap[] slices) {
+        int size = ebm.serializedSizeInBytes();
+        for (ImmutableRoaringBitmap slice : slices) {
+            size += slice.serializedSizeInBytes();
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(size);
+        ByteBuffer view = newBuffer.duplicate();
+        ebm.serialize(newBuffer);
+        DeltaBitmap newEbm = DeltaBitmap.map(view);
+        DeltaBitmap[] newSlices = new DeltaBitmap[slices.length];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i].serialize(newBuffer);
+            newSlices[i] = DeltaBitmap.map(view);
+        }
+        replaceBuffer(newBuffer, newEbm, newSlices);
+    }
+
+    private void replaceBuffer(ByteBuffer newBuffer, DeltaBitmap newEbm, DeltaBitmap[] newSlices) {
+        releaseBuffer();
+        this.buffer = newBuffer;
+        this.ownsBuffer = true;
+        this.ebm = newEbm;
+        this.slices = newSlices;
+        this.sliceSize = newSlices.length;
+        this.writesSinceCheck = 0;
+    }
+
+    /**
+     * 增量超过阈值时 flush
+     * @param bulk 批量写入每次检查，单个 Key 的写入每 FLUSH_CHECK_INTERVAL 次检查一次
+     */
+    private void flushIfNeeded(boolean bulk) {
+        if (this.flushThresholdBytes <= 0) {
+            return;
+        }
+        if (!bulk && ++this.writesSinceCheck < FLUSH_CHECK_INTERVAL) {
+            return;
+        }
+        this.writesSinceCheck = 0;
+        if (deltaSizeInBytes() > this.flushThresholdBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * 释放自己分配的堆外内存
+     *      JDK 9+ 通过 Unsafe.invokeCleaner 立即释放，不支持时交给 GC 回收
+     *      立即释放后任何仍引用旧内存的视图都不能再读取，否则访问已释放的内存会导致 JVM 崩溃
+     */
+    private void releaseBuffer() {
+        ByteBuffer oldBuffer = this.buffer;
+        boolean owned = this.ownsBuffer;
+        this.buffer = null;
+        this.ownsBuffer = false;
+        if (oldBuffer == null || !owned || !oldBuffer.isDirect()) {
+            return;
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), oldBuffer);
+        } catch (Exception e) {
+            // JDK 8 没有 invokeCleaner，等待 GC 回收
+        }
+    }
+
+    /**
+     * 批量删除 BSI 中存在的 Key
+     *      删除记录在每个切片的增量中
+     * @param removed 待删除的 Key，必须是 ebm 的子集
+     */
+    private void removeAllInternal(MutableRoaringBitmap removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < this.sliceSize; i++) {
+            this.slices[i].removeAll(removed);
+        }
+        this.ebm.removeAll(removed);
+        refreshMinMax();
+        flushIfNeeded(true);
+    }
+
+    /**
+     * 根据切片重新计算最小值与最大值，BSI 为空时均为 -1
+     */
+    private void refreshMinMax() {
+        if (this.ebm.isEmpty()) {
+            this.minValue = -1;
+            this.maxValue = -1;
+            return;
+        }
+        // 从带增量的 ebm 开始，不合并出完整的 ebm
+        this.minValue = minValueInternal(null);
+        this.maxValue = maxValueInternal(null);
+    }
+
+    /**
+     * 指定 Key 集合中的最小值
+     *      从高位到低位确定每一位，能取 0 时保留该位为 0 的 Key
+     * @param keys 非空且是 ebm 的子集，为 null 时表示全部 Key
+     */
+    private int minValueInternal(ImmutableRoaringBitmap keys) {
+        int value = 0;
+        for (int i = this.sliceSize - 1; i >= 0; i -= 1) {
+            MutableRoaringBitmap tmp = andNotFrom(this.slices[i], keys);
+            if (!tmp.isEmpty()) {
+                keys = tmp;
+            } else {
+                value |= (1 << i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 指定 Key 集合中的最大值
+     *      从高位到低位确定每一位，能取 1 时保留该位为 1 的 Key
+     * @param keys 非空且是 ebm 的子集，为 null 时表示全部 Key
+     */
+    private int maxValueInternal(ImmutableRoaringBitmap keys) {
+        int value = 0;
+        for (int i = this.sliceSize - 1; i >= 0; i -= 1) {
+            MutableRoaringBitmap tmp = and(this.slices[i], keys);
+            if (!tmp.isEmpty()) {
+                keys = tmp;
+                value |= (1 << i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 切片与 Key 集合的交集，keys 为 null 时表示全部 Key(带增量的 ebm)
+     */
+    private MutableRoaringBitmap and(DeltaBitmap slice, ImmutableRoaringBitmap keys) {
+        return keys == null ? slice.and(this.ebm) : slice.and(keys);
+    }
+
+    /**
+     * Key 集合减去切片，keys 为 null 时表示全部 Key(带增量的 ebm)
+     */
+    private MutableRoaringBitmap andNotFrom(DeltaBitmap slice, ImmutableRoaringBitmap keys) {
+        return keys == null ? this.ebm.andNot(slice) : slice.andNotFrom(keys);
+    }
+
+    /**
+     * 调整切片个数
+     */
+    private void resize(int newSliceSize) {
+        if (newSliceSize <= this.sliceSize) {
+            // 小于等于之前切片个数不需要调整
+            return;
+        }
+        DeltaBitmap[] newSlices = new DeltaBitmap[newSliceSize];
+        // 复制旧切片
+        if (this.sliceSize != 0) {
+            System.arraycopy(this.slices, 0, newSlices, 0, this.sliceSize);
+        }
+        // 增加新切片
+        for (int i = newSliceSize - 1; i >= this.sliceSize; i--) {
+            newSlices[i] = DeltaBitmap.empty();
+        }
+        this.slices = newSlices;
+        this.sliceSize = newSliceSize;
+    }
+
+    /**
+     * 为指定的 Key 设置 Value
+     * @param key
+     * @param value
+     */
+    private void putValueInternal(Integer key, Integer value) {
+        // 从低位到高位切片 Bitmap 遍历，如果 value 二进制位对应的 bit 为 1 则对应的切片 Bitmap 添加 key
+        for (int i = 0; i < this.sliceSize(); i += 1) {
+            if ((value & (1 << i)) > 0) {
+                this.slices[i].add(key);
+            } else {
+                // 一个 Key 只能设置一个 Value，旧值会被新值覆盖
+                this.slices[i].remove(key);
+            }
+        }
+        this.ebm.add(key);
+    }
+
+    /**
+     * 获取指定 key 的 value
+     * @param key
+     * @return
+     */
+    private Integer getValueInternal(Integer key) {
+        int value = 0;
+        for (int i = 0; i < this.sliceSize; i += 1) {
+            if (this.slices[i].contains(key)) {
+                // 通过位图反向重建原始值
+                value |= (1 << i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 删除指定 key
+     * @param key
+     * @return
+     */
+    private Integer removeValueInternal(Integer key) {
+        int value = 0;
+        // 从低位到高位遍历切片 Bitmap
+        for (int i = 0; i < this.sliceSize; i += 1) {
+            // 切片包含指定的 key 则从切片中移除该 Key 并重建原始值
+            if (this.slices[i].contains(key)) {
+                value |= (1 << i);
+                this.slices[i].remove(key);
+            }
+        }
+        // 存在位图移除对应的 Key
+        this.ebm.remove(key);
+        return value;
+    }
+
+    /**
+     * oNeil 范围查询算法实现
+     *      中间结果在堆上，切片与 ebm 的增量在每一步 and/andNot 中合并，不合并出完整的 ebm，最终结果转换为 RoaringBitmap
+     * @param operation
+     * @param value
+     * @return
+     */
+    private RoaringBitmap oNeilRange(Operation operation, Integer value) {
+        ensureOpen();
+        ImmutableRoaringBitmap GT = new MutableRoaringBitmap();
+        ImmutableRoaringBitmap LT = new MutableRoaringBitmap();
+        // null 表示全部 Key，第一步直接与带增量的 ebm 计算
+        ImmutableRoaringBitmap EQ = null;
+        // 从高位到低位开始遍历
+        for (int i = this.sliceSize - 1; i >= 0; i--) {
+            // 第 i 位的值 1或者0
+            int bit = (value >> i) & 1;
+            if (bit == 1) {
+                LT = ImmutableRoaringBitmap.or(LT, andNotFrom(this.slices[i], EQ));
+                EQ = and(this.slices[i], EQ);
+            } else {
+                GT = ImmutableRoaringBitmap.or(GT, and(this.slices[i], EQ));
+                EQ = andNotFrom(this.slices[i], EQ);
+            }
+        }
+        if (EQ == null) {
+            // 没有切片，所有 Key 的 Value 都是 0
+            EQ = this.ebm.toMutableRoaringBitmap();
+        }
+
+        switch (operation) {
+            case EQ:
+                return EQ.toRoaringBitmap();
+            case NEQ:
+                return this.ebm.andNot(EQ).toRoaringBitmap();
+            case GT:
+                return GT.toRoaringBitmap();
+            case LT:
+                return LT.toRoaringBitmap();
+            case LE:
+                return ImmutableRoaringBitmap.or(LT, EQ).toRoaringBitmap();
+            case GE:
+                return ImmutableRoaringBitmap.or(GT, EQ).toRoaringBitmap();
+            default:
+                throw new IllegalArgumentException("");
+        }
+    }
+}
@@ -0,0 +1,765 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * 功能：RangeEncodedBitSliceIndex 整数 基数为 base 的范围编码
+ *         Value 按 base 进制拆分为若干分量(component)，第 c 个分量的取值为 d_c
+ *         每个分量保存 base - 1 个范围编码位图 R[c][j] = {key | d_c <= j}，j = base - 1 时即为 ebm，不需要保存
+ *         范围查询每个分量最多访问 2 个位图：{v <= x} 在第 c 个分量上为 R[c][x_c - 1] ∪ (R[c][x_c] ∩ 低位结果)
+ *
+ *         内存与速度的权衡(n 个分量，n = ceil(log_base(maxValue + 1)))：
+ *           位图个数       n * (base - 1)，base = 2 时与 Rbm32BitSliceIndex 切片个数相同
+ *           范围查询       每个分量 1~2 次位图运算，共约 2n 次；Rbm32BitSliceIndex 约 2 * 切片个数 次
+ *           写入一个 Key   每个分量修改 base - 1 个位图
+ *         取值只有几百种的列可以取 base > maxValue，只有一个分量，任意范围查询只访问 1~2 个位图
+ */
+public class RangeEncodedBitSliceIndex implements BitSliceIndex<Integer, Integer> {
+    private static final int DEFAULT_BASE = 16;
+
+    private int maxValue = -1;
+    private int minValue = -1;
+    private int base;
+    private int componentSize = 0;
+    // bitmaps[c][j] 第 c 个分量取值小于等于 j 的 Key
+    private RoaringBitmap[][] bitmaps;
+    private RoaringBitmap ebm;
+    private Boolean runOptimized = false;
+
+    /**
+     * 构造器
+     * @param base 基数，不小于 2
+     * @param maxValue 预分配分量时使用的最大值
+     */
+    public RangeEncodedBitSliceIndex(int base, int maxValue) {
+        if (base < 2) {
+            throw new IllegalArgumentException("Base should be at least 2");
+        }
+        if (maxValue < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+        this.base = base;
+        this.bitmaps = new RoaringBitmap[0][];
+        this.ebm = new RoaringBitmap();
+        resize(componentsOf(maxValue));
+    }
+
+    public RangeEncodedBitSliceIndex(int base) {
+        this(base, 0);
+    }
+
+    public RangeEncodedBitSliceIndex() {
+        this(DEFAULT_BASE);
+    }
+
+    /**
+     * 基数
+     */
+    public int base() {
+        return base;
+    }
+
+    /**
+     * 分量个数
+     */
+    public int componentSize() {
+        return componentSize;
+    }
+
+    /**
+     * 切片个数
+     *      即保存的范围编码位图个数 componentSize * (base - 1)
+     * @return
+     */
+    @Override
+    public int sliceSize() {
+        return componentSize * (base - 1);
+    }
+
+    /**
+     * BSI 基数,即 Key 的个数
+     * @return
+     */
+    @Override
+    public long getLongCardinality() {
+        return this.ebm.getLongCardinality();
+    }
+
+    /**
+     * 如果 BSI 不包含 key-value 映射，返回 true
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.getLongCardinality() == 0;
+    }
+
+    /**
+     * 从 BSI 中删除所有的映射，BSI 变空
+     */
+    @Override
+    public void clear() {
+        this.maxValue = -1;
+        this.minValue = -1;
+        this.ebm = new RoaringBitmap();
+        this.bitmaps = new RoaringBitmap[0][];
+        this.componentSize = 0;
+    }
+
+    /**
+     * 指定的 key 是否有对应的 value
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean containsKey(Integer key) {
+        return this.ebm.contains(key);
+    }
+
+    /**
+     * 指定的 value 是否关联指定的 key
+     * @param value
+     * @return
+     */
+    @Override
+    public boolean containsValue(Integer value) {
+        return !eq(value).isEmpty();
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 Value
+     * @param key
+     * @param value
+     */
+    @Override
+    public void put(Integer key, Integer value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+        // 更新最大值和最小值
+        if (this.isEmpty()) {
+            this.minValue = value;
+            this.maxValue = value;
+        } else if (this.minValue > value) {
+            this.minValue = value;
+        } else if (this.maxValue < value) {
+            this.maxValue = value;
+        }
+        // 调整分量个数
+        resize(componentsOf(value));
+        // 第 c 个分量取值为 d 时，Key 属于 R[c][d..base-2]，不属于 R[c][0..d-1]
+        int remaining = value;
+        for (int c = 0; c < this.componentSize; c++) {
+            int digit = remaining % base;
+            remaining /= base;
+            for (int j = 0; j < base - 1; j++) {
+                if (j >= digit) {
+                    this.bitmaps[c][j].add(key);
+                } else {
+                    this.bitmaps[c][j].remove(key);
+                }
+            }
+        }
+        this.ebm.add(key);
+    }
+
+    /**
+     * 写入另一个 BSI 的全部映射，相同 Key 的旧值会被覆盖
+     * @param otherBsi
+     */
+    @Override
+    public void putAll(BitSliceIndex otherBsi) {
+        if (null == otherBsi || otherBsi.isEmpty()) {
+            return;
+        }
+        for (int key : otherBsi.keys()) {
+            this.put(key, (Integer) otherBsi.get(key));
+        }
+    }
+
+    /**
+     * 获取指定 key 关联的 value
+     * @param key
+     * @return Key 不存在返回 -1
+     */
+    @Override
+    public Integer get(Integer key) {
+        if (!this.containsKey(key)) {
+            return -1;
+        }
+        int value = 0;
+        for (int c = this.componentSize - 1; c >= 0; c--) {
+            // R[c][j] 随 j 单调递增，二分查找第一个包含 key 的位图即为分量取值
+            int low = 0;
+            int high = base - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.bitmaps[c][mid].contains(key)) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            value = value * base + low;
+        }
+        return value;
+    }
+
+    /**
+     * 删除指定 key 的 value
+     * @param key 删除指定的 key
+     * @return 如果指定 key 关联的 value 不存在返回 -1，否则返回 value
+     */
+    @Override
+    public Integer remove(Integer key) {
+        if (!this.containsKey(key)) {
+            return -1;
+        }
+        int value = get(key);
+        for (RoaringBitmap[] component : this.bitmaps) {
+            for (RoaringBitmap bitmap : component) {
+                bitmap.remove(key);
+            }
+        }
+        this.ebm.remove(key);
+        return value;
+    }
+
+    /**
+     * 为指定的 Key 集合关联同一个 Value
+     *      每个范围编码位图一次 or/andNot，最小值/最大值根据位图重新计算
+     * @param keys Key 集合
+     * @param value 关联的 Value
+     */
+    @Override
+    public void setValue(RoaringBitmap keys, Integer value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        resize(componentsOf(value));
+        int remaining = value;
+        for (int c = 0; c < this.componentSize; c++) {
+            int digit = remaining % base;
+            remaining /= base;
+            for (int j = 0; j < base - 1; j++) {
+                if (j >= digit) {
+                    this.bitmaps[c][j].or(keys);
+                } else {
+                    this.bitmaps[c][j].andNot(keys);
+                }
+            }
+        }
+        this.ebm.or(keys);
+        refreshMinMax();
+    }
+
+    /**
+     * 删除指定 Key 集合的 value
+     *      每个范围编码位图一次 andNot，最小值/最大值根据位图重新计算
+     * @param keys 删除的 Key 集合
+     */
+    @Override
+    public void removeAll(RoaringBitmap keys) {
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        removeAllInternal(RoaringBitmap.and(this.ebm, keys));
+    }
+
+    /**
+     * 只保留指定 Key 集合的 value，其余 Key 全部删除
+     * @param keys 保留的 Key 集合
+     */
+    @Override
+    public void retainAll(RoaringBitmap keys) {
+        if (null == keys) {
+            throw new IllegalArgumentException("Keys should not be null");
+        }
+        removeAllInternal(RoaringBitmap.andNot(this.ebm, keys));
+    }
+
+    /**
+     * 返回所有 key 的 RoaringBitmap
+     * @return
+     */
+    @Override
+    public RoaringBitmap keys() {
+        return this.ebm.clone();
+    }
+
+    @Override
+    public Collection<Integer> values() {
+        throw new RuntimeException("dont support keys");
+    }
+
+    @Override
+    public Integer minValue() {
+        return minValue;
+    }
+
+    /**
+     * 查询指定 Key 集合中的最小值
+     *      自高位分量到低位分量，每个分量取候选集合中最小的取值
+     * @param rbm Key 集合
+     * @return
+     */
+    @Override
+    public Integer minValue(RoaringBitmap rbm) {
+        if (this.isEmpty() || Objects.equals(rbm, null) || rbm.isEmpty()) {
+            return -1;
+        }
+        RoaringBitmap keys = RoaringBitmap.and(rbm, this.ebm);
+        if (keys.isEmpty()) {
+            return -1;
+        }
+        int value = 0;
+        for (int c = this.componentSize - 1; c >= 0; c--) {
+            int digit = base - 1;
+            for (int j = 0; j < base - 1; j++) {
+                RoaringBitmap tmp = RoaringBitmap.and(keys, this.bitmaps[c][j]);
+                if (!tmp.isEmpty()) {
+                    keys = tmp;
+                    digit = j;
+                    break;
+                }
+            }
+            value = value * base + digit;
+        }
+        return value;
+    }
+
+    @Override
+    public Integer maxValue() {
+        return maxValue;
+    }
+
+    /**
+     * 查询指定 Key 集合中的最大值
+     *      自高位分量到低位分量，每个分量取候选集合中最大的取值
+     * @param rbm Key 集合
+     * @return
+     */
+    @Override
+    public Integer maxValue(RoaringBitmap rbm) {
+        if (this.isEmpty() || Objects.equals(rbm, null) || rbm.isEmpty()) {
+            return -1;
+        }
+        RoaringBitmap keys = RoaringBitmap.and(rbm, this.ebm);
+        if (keys.isEmpty()) {
+            return -1;
+        }
+        int value = 0;
+        for (int c = this.componentSize - 1; c >= 0; c--) {
+            int digit = 0;
+            for (int j = base - 2; j >= 0; j--) {
+                RoaringBitmap tmp = RoaringBitmap.andNot(keys, this.bitmaps[c][j]);
+                if (!tmp.isEmpty()) {
+                    keys = tmp;
+                    digit = j + 1;
+                    break;
+                }
+            }
+            value = value * base + digit;
+        }
+        return value;
+    }
+
+    /**
+     * 克隆
+     * @return
+     */
+    @Override
+    public RangeEncodedBitSliceIndex clone() {
+        RangeEncodedBitSliceIndex bitSliceIndex = new RangeEncodedBitSliceIndex(this.base);
+        bitSliceIndex.minValue = this.minValue;
+        bitSliceIndex.maxValue = this.maxValue;
+        bitSliceIndex.componentSize = this.componentSize;
+        bitSliceIndex.runOptimized = this.runOptimized;
+        bitSliceIndex.ebm = this.ebm.clone();
+        RoaringBitmap[][] cloneBitmaps = new RoaringBitmap[this.componentSize][base - 1];
+        for (int c = 0; c < this.componentSize; c++) {
+            for (int j = 0; j < base - 1; j++) {
+                cloneBitmaps[c][j] = this.bitmaps[c][j].clone();
+            }
+        }
+        bitSliceIndex.bitmaps = cloneBitmaps;
+        return bitSliceIndex;
+    }
+
+    /**
+     * 范围查询 等于 value 的 key
+     *      每个分量访问 R[c][x_c] 与 R[c][x_c - 1] 两个位图
+     * @param value 查找值
+     * @return 返回由等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap eq(Integer value) {
+        if (value < 0 || componentsOf(value) > this.componentSize) {
+            return new RoaringBitmap();
+        }
+        RoaringBitmap resultBitmap = this.ebm.clone();
+        int remaining = value;
+        for (int c = 0; c < this.componentSize && !resultBitmap.isEmpty(); c++) {
+            int digit = remaining % base;
+            remaining /= base;
+            if (digit < base - 1) {
+                resultBitmap.and(this.bitmaps[c][digit]);
+            }
+            if (digit > 0) {
+                resultBitmap.andNot(this.bitmaps[c][digit - 1]);
+            }
+        }
+        return resultBitmap;
+    }
+
+    /**
+     * 范围查询 不等于 value 的 key
+     * @param value 查找值
+     * @return 返回由不等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap neq(Integer value) {
+        return RoaringBitmap.andNot(this.ebm, eq(value));
+    }
+
+    /**
+     * 范围查询 小于等于 value 的 key
+     * @param value 查找值
+     * @return 返回由小于等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap le(Integer value) {
+        if (value < 0) {
+            return new RoaringBitmap();
+        }
+        if (componentsOf(value) > this.componentSize) {
+            return this.ebm.clone();
+        }
+        // 自低位分量到高位分量：B_c = R[c][x_c - 1] ∪ (R[c][x_c] ∩ B_{c-1})
+        RoaringBitmap resultBitmap = null;
+        int remaining = value;
+        for (int c = 0; c < this.componentSize; c++) {
+            int digit = remaining % base;
+            remaining /= base;
+            RoaringBitmap equalOrLess = digit == base - 1 ? this.ebm : this.bitmaps[c][digit];
+            if (resultBitmap == null) {
+                resultBitmap = equalOrLess.clone();
+            } else {
+                resultBitmap.and(equalOrLess);
+            }
+            if (c > 0 && digit > 0) {
+                resultBitmap.or(this.bitmaps[c][digit - 1]);
+            }
+        }
+        return resultBitmap == null ? this.ebm.clone() : resultBitmap;
+    }
+
+    /**
+     * 范围查询 小于 value 的 key
+     * @param value 查找值
+     * @return 返回由小于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap lt(Integer value) {
+        if (value <= 0) {
+            return new RoaringBitmap();
+        }
+        return le(value - 1);
+    }
+
+    /**
+     * 范围查询 大于等于 value 的 key
+     * @param value 查找值
+     * @return 返回由大于等于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap ge(Integer value) {
+        return RoaringBitmap.andNot(this.ebm, lt(value));
+    }
+
+    /**
+     * 范围查询 大于 value 的 key
+     * @param value 查找值
+     * @return 返回由大于 value 的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap gt(Integer value) {
+        return RoaringBitmap.andNot(this.ebm, le(value));
+    }
+
+    /**
+     * 范围查询 [lower, upper] 区间内的 key
+     * @param lower 下限
+     * @param upper 上限
+     * @return 返回由[lower, upper] 区间内的 key 构成的 RoaringBitmap
+     */
+    @Override
+    public RoaringBitmap between(Integer lower, Integer upper) {
+        RoaringBitmap resultBitmap = le(upper);
+        resultBitmap.andNot(lt(lower));
+        return resultBitmap;
+    }
+
+    /**
+     * 指定 Key 的 Value 求和
+     *      分量取值 d = Σ_{j<base-1} [d > j]，因此分量之和 = Σ_j (N - |R[c][j] ∩ rbm|)，N 为 rbm 中存在的 Key 个数
+     * @param rbm Key 集合的 RoaringBitmap
+     * @return Value 的 SUM 值
+     */
+    @Override
+    public Long sum(RoaringBitmap rbm) {
+        if (null == rbm || rbm.isEmpty()) {
+            return 0L;
+        }
+        long count = RoaringBitmap.andCardinality(this.ebm, rbm);
+        long sum = 0;
+        long weight = 1;
+        for (int c = 0; c < this.componentSize; c++) {
+            long componentSum = 0;
+            for (int j = 0; j < base - 1; j++) {
+                componentSum += count - RoaringBitmap.andCardinality(this.bitmaps[c][j], rbm);
+            }
+            sum += weight * componentSum;
+            weight *= base;
+        }
+        return sum;
+    }
+
+    /**
+     * 序列化该 BSI 所需的字节大小
+     * @return 以字节为单位的大小
+     */
+    @Override
+    public int serializedSizeInBytes() {
+        int size = 0;
+        for (RoaringBitmap[] component : this.bitmaps) {
+            for (RoaringBitmap bitmap : component) {
+                size += bitmap.serializedSizeInBytes();
+            }
+        }
+        // minValue(4)、maxValue(4)、base(4)、componentSize(4)、runOptimized(1)、ebm、bitmaps
+        // 与 serialize 方法一一对应
+        return 4 + 4 + 4 + 4 + 1 + this.ebm.serializedSizeInBytes() + size;
+    }
+
+    /**
+     * 序列化
+     * @param buffer
+     * @throws IOException
+     */
+    @Override
+    public void serialize(ByteBuffer buffer) throws IOException {
+        // 属性
+        buffer.putInt(this.minValue);
+        buffer.putInt(this.maxValue);
+        buffer.putInt(this.base);
+        buffer.putInt(this.componentSize);
+        buffer.put(this.runOptimized ? (byte) 1 : (byte) 0);
+        // ebm
+        this.ebm.serialize(buffer);
+        // 范围编码位图
+        for (RoaringBitmap[] component : this.bitmaps) {
+            for (RoaringBitmap bitmap : component) {
+                bitmap.serialize(buffer);
+            }
+        }
+    }
+
+    /**
+     * 反序列化
+     * @param buffer
+     * @throws IOException
+     */
+    @Override
+    public void deserialize(ByteBuffer buffer) throws IOException {
+        this.clear();
+        // 属性
+        this.minValue = buffer.getInt();
+        this.maxValue = buffer.getInt();
+        this.base = buffer.getInt();
+        int componentSize = buffer.getInt();
+        this.runOptimized = buffer.get() == (byte) 1;
+        // ebm
+        RoaringBitmap ebm = new RoaringBitmap();
+        ebm.deserialize(buffer);
+        buffer.position(buffer.position() + ebm.serializedSizeInBytes());
+        this.ebm = ebm;
+        // 范围编码位图
+        RoaringBitmap[][] bitmaps = new RoaringBitmap[componentSize][base - 1];
+        for (int c = 0; c < componentSize; c++) {
+            for (int j = 0; j < base - 1; j++) {
+                RoaringBitmap rbm = new RoaringBitmap();
+                rbm.deserialize(buffer);
+                buffer.position(buffer.position() + rbm.serializedSizeInBytes());
+                bitmaps[c][j] = rbm;
+            }
+        }
+        this.bitmaps = bitmaps;
+        this.componentSize = componentSize;
+    }
+
+    /**
+     * 序列化
+     * @param output
+     * @throws IOException
+     */
+    @Override
+    public void serialize(DataOutput output) throws IOException {
+        // 属性
+        output.writeInt(this.minValue);
+        output.writeInt(this.maxValue);
+        output.writeInt(this.base);
+        output.writeInt(this.componentSize);
+        output.writeByte(this.runOptimized ? (byte) 1 : (byte) 0);
+        // ebm
+        this.ebm.serialize(output);
+        // 范围编码位图
+        for (RoaringBitmap[] component : this.bitmaps) {
+            for (RoaringBitmap bitmap : component) {
+                bitmap.serialize(output);
+            }
+        }
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        this.clear();
+        // 属性
+        this.minValue = in.readInt();
+        this.maxValue = in.readInt();
+        this.base = in.readInt();
+        int componentSize = in.readInt();
+        this.runOptimized = in.readByte() == (byte) 1;
+        // ebm
+        RoaringBitmap ebm = new RoaringBitmap();
+        ebm.deserialize(in);
+        this.ebm = ebm;
+        // 范围编码位图
+        RoaringBitmap[][] bitmaps = new RoaringBitmap[componentSize][base - 1];
+        for (int c = 0; c < componentSize; c++) {
+            for (int j = 0; j < base - 1; j++) {
+                RoaringBitmap rbm = new RoaringBitmap();
+                rbm.deserialize(in);
+                bitmaps[c][j] = rbm;
+            }
+        }
+        this.bitmaps = bitmaps;
+        this.componentSize = componentSize;
+    }
+
+    /**
+     * 序列化为字节数组
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public byte[] serialize() throws IOException {
+        byte[] bytes = new byte[this.serializedSizeInBytes()];
+        this.serialize(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * 字节数组反序列化为 BSI
+     * @param bytes
+     * @throws IOException
+     */
+    @Override
+    public void deserialize(byte[] bytes) throws IOException {
+        this.deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * BSI 压缩优化
+     *      范围编码位图通常由连续的长区间构成，run 压缩效果明显
+     */
+    @Override
+    public void runOptimize() {
+        this.ebm.runOptimize();
+        for (RoaringBitmap[] component : this.bitmaps) {
+            for (RoaringBitmap bitmap : component) {
+                bitmap.runOptimize();
+            }
+        }
+        this.runOptimized = true;
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    /**
+     * 批量删除 BSI 中存在的 Key
+     * @param removed 待删除的 Key，必须是 ebm 的子集
+     */
+    private void removeAllInternal(RoaringBitmap removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (RoaringBitmap[] component : this.bitmaps) {
+            for (RoaringBitmap bitmap : component) {
+                bitmap.andNot(removed);
+            }
+        }
+        this.ebm.andNot(removed);
+        refreshMinMax();
+    }
+
+    /**
+     * 根据位图重新计算最小值与最大值，BSI 为空时均为 -1
+     */
+    private void refreshMinMax() {
+        if (this.ebm.isEmpty()) {
+            this.minValue = -1;
+            this.maxValue = -1;
+            return;
+        }
+        this.minValue = minValue(this.ebm);
+        this.maxValue = maxValue(this.ebm);
+    }
+
+    /**
+     * 表示 value 需要的分量个数
+     */
+    private int componentsOf(int value) {
+        int components = 0;
+        long limit = 1;
+        while (limit <= value) {
+            limit *= base;
+            components++;
+        }
+        return components;
+    }
+
+    /**
+     * 调整分量个数
+     *      已有 Key 在新增高位分量上的取值为 0，属于该分量的所有范围编码位图
+     */
+    private void resize(int newComponentSize) {
+        if (newComponentSize <= this.componentSize) {
+            return;
+        }
+        RoaringBitmap[][] newBitmaps = new RoaringBitmap[newComponentSize][];
+        System.arraycopy(this.bitmaps, 0, newBitmaps, 0, this.componentSize);
+        for (int c = this.componentSize; c < newComponentSize; c++) {
+            newBitmaps[c] = new RoaringBitmap[base - 1];
+            for (int j = 0; j < base - 1; j++) {
+                newBitmaps[c][j] = this.ebm.clone();
+                if (this.runOptimized) {
+                    newBitmaps[c][j].runOptimize();
+                }
+            }
+        }
+        this.bitmaps = newBitmaps;
+        this.componentSize = newComponentSize;
+    }
+}
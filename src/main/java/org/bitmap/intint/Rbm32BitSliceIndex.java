@@ -2,30 +2,92 @@ package org.bitmap.intint;
 
 import org.bitmap.core.BitSliceIndex;
 import org.bitmap.core.Operation;
+import org.roaringbitmap.Container;
+import org.roaringbitmap.ContainerPointer;
+import org.roaringbitmap.PeekableIntIterator;
 import org.roaringbitmap.RoaringBitmap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * 功能：Rbm32BitSliceIndex 整数
  *         每一个切片对应一个 RoaringBitmap
+ *         按 Key 高 16 位分块维护 Value 的 Zone Map(最小值/最大值)，用于跳过范围查询与最小值/最大值中不可能命中的块
+ *         Zone Map 只有在 setSerializeZoneMap(true) 时才写入序列化结果；未写入时反序列化后在第一次使用时根据切片构建
  * 作者：SmartSi
  * CSDN博客：https://smartsi.blog.csdn.net/
  * 公众号：大数据生态
  * 日期：2024/6/16 00:52
  */
 public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
+    private static final int BUCKET_OUTSIDE = -1;
+    private static final int BUCKET_SPAN = -2;
+    // 序列化标记位：runOptimized 以及是否包含 Zone Map
+    //   默认不写 Zone Map，标记位与原格式相同(只有 runOptimized)，旧版本可以读取；写入 Zone Map 需要 setSerializeZoneMap(true)
+    static final int FLAG_RUN_OPTIMIZED = 1;
+    static final int FLAG_ZONE_MAP = 2;
+    // 序列化头部：minValue(4)、maxValue(4)、sliceSize(4)、flags(1)
+    private static final int HEADER_SIZE = 13;
+    // 增量类型：完整序列化、按块增量
+    private static final byte DELTA_FULL = 0;
+    private static final byte DELTA_CHUNKS = 1;
+    // RoaringBitmap 序列化格式常量，用于从头部计算位图长度，OffHeapRbm32BitSliceIndex 按容器合并增量时也使用
+    static final int SERIAL_COOKIE_NO_RUNCONTAINER = 12346;
+    static final int SERIAL_COOKIE = 12347;
+    static final int NO_OFFSET_THRESHOLD = 4;
+    static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+    static final int BITMAP_CONTAINER_SIZE = 8192;
+
     private int maxValue = -1;
     private int minValue = -1;
     private int sliceSize = 0;
     private RoaringBitmap[] slices;
     private RoaringBitmap ebm;
     private Boolean runOptimized = false;
+    // 开启 setDenseSlices(true) 且 Key 空间稠密时展开的 long[] 切片，RoaringBitmap 切片仍然是数据的唯一来源
+    // 只读的 BSI 可能被多个线程同时查询，延迟创建后需要对其他线程可见
+    private volatile DenseSlices dense;
+    // 是否使用稠密切片，展开后内存约为切片的两倍，默认不使用
+    private boolean denseSlicesEnabled = false;
+    // 与其他 BSI 共享 ebm 时 ebm 会被其他 BSI 修改，不能使用稠密切片
+    private boolean sharedEbm = false;
+    // 按 Key 高 16 位分块的 Value 最小值/最大值
+    //   null 表示尚未构建：反序列化、runOptimize 之后在第一次使用 Zone Map 的查询时根据切片构建
+    //   只读的 BSI 可能被多个线程同时查询，延迟构建后需要对其他线程可见
+    private volatile ZoneMap zoneMap = new ZoneMap();
+    // 序列化时是否写入 Zone Map，默认不写以保持与原格式兼容
+    private boolean serializeZoneMap = false;
+    // 修改版本：每次修改 Key 加 1，clear/deserialize 之后早于 baseVersion 的增量只能完整序列化
+    private long version = 0;
+    private long baseVersion = 0;
+    private ChunkVersions chunkVersions = new ChunkVersions();
 
     /**
      * 构造器
@@ -51,6 +113,19 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         this(0, 0);
     }
 
+    /**
+     * 构造器 与其他 BSI 共享存在位图 ebm
+     *      共享 ebm 中存在但没有写入的 Key 取值为 0，只能通过 BsiTable 修改
+     * @param ebm 共享的存在位图
+     */
+    Rbm32BitSliceIndex(RoaringBitmap ebm) {
+        this(0, 0);
+        this.ebm = ebm;
+        this.sharedEbm = true;
+        // 共享 ebm 中已有的 Key 取值为 0，Zone Map 在使用时构建
+        this.zoneMap = null;
+    }
+
     /**
      * 切片个数
      *      最大值二进制位数
@@ -81,13 +156,20 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
     /**
      * 从 BSI 中删除所有的映射，BSI 变空
      * 清空所有的 Key
+     *      BsiTable 的列不能直接修改，deserialize 同样会先调用 clear
      */
     public void clear() {
+        checkNotShared();
         this.maxValue = -1;
         this.minValue = -1;
         this.ebm = new RoaringBitmap();
         this.slices = null;
         this.sliceSize = 0;
+        this.dense = null;
+        this.zoneMap = new ZoneMap();
+        this.version++;
+        this.baseVersion = this.version;
+        this.chunkVersions = new ChunkVersions();
     }
 
     /**
@@ -116,8 +198,21 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
      */
     @Override
     public void put(Integer key, Integer value) {
+        checkNotShared();
+        // 直接判断 ebm，避免稀疏 Key 空间下每次写入都累加所有 container 的基数
+        putShared(key, value, this.ebm.isEmpty());
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 Value
+     *      共享 ebm 时由 BsiTable 判断是否为第一个 Key
+     * @param key
+     * @param value
+     * @param firstKey 是否为第一个 Key，是则直接用 value 作为最大值和最小值
+     */
+    void putShared(int key, int value, boolean firstKey) {
         // 更新最大值和最小值
-        if (this.isEmpty()) {
+        if (firstKey) {
             this.minValue = value;
             this.maxValue = value;
         } else if (this.minValue > value) {
@@ -134,6 +229,7 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
 
     @Override
     public void putAll(BitSliceIndex otherBsi) {
+        checkNotShared();
 //        if (null == otherBsi || otherBsi.isEmpty()) {
 //            return;
 //        }
@@ -173,6 +269,7 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
      */
     @Override
     public Integer remove(Integer key) {
+        checkNotShared();
         // 不存在返回 -1
         if (!this.containsKey(key)) {
             return -1;
@@ -180,6 +277,61 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         return removeValueInternal(key);
     }
 
+    /**
+     * 为指定的 Key 集合关联同一个 Value
+     *      每个切片一次 or/andNot，不存在的 Key 会被添加，最小值/最大值根据切片重新计算
+     * @param keys Key 集合
+     * @param value 关联的 Value
+     */
+    @Override
+    public void setValue(RoaringBitmap keys, Integer value) {
+        checkNotShared();
+        if (value < 0) {
+            throw new IllegalArgumentException("Value should be non-negative");
+        }
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        resize(32 - Integer.numberOfLeadingZeros(value));
+        for (int i = 0; i < this.sliceSize; i++) {
+            if ((value & (1 << i)) != 0) {
+                this.slices[i].or(keys);
+            } else {
+                this.slices[i].andNot(keys);
+            }
+        }
+        this.ebm.or(keys);
+        touchChunks(keys, value);
+        refreshMinMax();
+    }
+
+    /**
+     * 删除指定 Key 集合的 value
+     *      每个切片一次 andNot，最小值/最大值根据切片重新计算
+     * @param keys 删除的 Key 集合
+     */
+    @Override
+    public void removeAll(RoaringBitmap keys) {
+        checkNotShared();
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        removeAllInternal(RoaringBitmap.and(this.ebm, keys));
+    }
+
+    /**
+     * 只保留指定 Key 集合的 value，其余 Key 全部删除
+     * @param keys 保留的 Key 集合
+     */
+    @Override
+    public void retainAll(RoaringBitmap keys) {
+        checkNotShared();
+        if (null == keys) {
+            throw new IllegalArgumentException("Keys should not be null");
+        }
+        removeAllInternal(RoaringBitmap.andNot(this.ebm, keys));
+    }
+
     /**
      * 返回所有 key 的 RoaringBitmap
      * @return
@@ -220,6 +372,11 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         if (keys.getLongCardinality() == 0) {
             return -1;
         }
+        // 通过 Zone Map 跳过不可能包含最小值的块
+        int zoneValue = pruneByZoneMap(zoneMap(), keys, false);
+        if (zoneValue >= 0) {
+            return zoneValue;
+        }
         // 查询最小值
         for (int i = this.sliceSize - 1; i >= 0; i -= 1) {
             RoaringBitmap tmp = RoaringBitmap.andNot(keys, slices[i]);
@@ -250,6 +407,11 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         if (keys.getLongCardinality() == 0) {
             return -1;
         }
+        // 通过 Zone Map 跳过不可能包含最大值的块
+        int zoneValue = pruneByZoneMap(zoneMap(), keys, true);
+        if (zoneValue >= 0) {
+            return zoneValue;
+        }
         for (int i = this.sliceSize - 1; i >= 0; i -= 1) {
             RoaringBitmap tmp = RoaringBitmap.and(keys, slices[i]);
             if (!tmp.isEmpty()) {
@@ -272,7 +434,14 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         bitSliceIndex.maxValue = this.maxValue;
         bitSliceIndex.sliceSize = this.sliceSize;
         bitSliceIndex.runOptimized = this.runOptimized;
+        bitSliceIndex.serializeZoneMap = this.serializeZoneMap;
+        bitSliceIndex.denseSlicesEnabled = this.denseSlicesEnabled;
         bitSliceIndex.ebm = this.ebm.clone();
+        ZoneMap zoneMap = this.zoneMap;
+        bitSliceIndex.zoneMap = zoneMap == null ? null : zoneMap.copy();
+        bitSliceIndex.version = this.version;
+        bitSliceIndex.baseVersion = this.baseVersion;
+        bitSliceIndex.chunkVersions = this.chunkVersions.copy();
         // 克隆切片
         RoaringBitmap[] cloneSlices = new RoaringBitmap[this.sliceSize];
         for (int i = 0; i < cloneSlices.length; i++) {
@@ -357,6 +526,149 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         return resultBitmap;
     }
 
+    /**
+     * 在指定 Key 集合内范围查询
+     *      只遍历 foundSet 与 ebm 的交集，RANGE 的上限只在满足下限的 Key 中查询
+     * @param operation 比较操作
+     * @param startOrValue 比较值，RANGE 时为下限
+     * @param end RANGE 时为上限，其他操作忽略
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 满足条件的 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap compare(Operation operation, int startOrValue, int end, RoaringBitmap foundSet) {
+        RoaringBitmap keys = null == foundSet ? this.ebm : RoaringBitmap.and(foundSet, this.ebm);
+        if (operation == Operation.RANGE) {
+            RoaringBitmap resultBitmap = oNeilRange(Operation.GE, startOrValue, 0, keys);
+            if (resultBitmap.isEmpty()) {
+                return resultBitmap;
+            }
+            return oNeilRange(Operation.LE, end, 0, resultBitmap);
+        }
+        return oNeilRange(operation, startOrValue, 0, keys);
+    }
+
+    /**
+     * 一次切片遍历同时计算多个比较
+     *      所有比较值自高位到低位同时遍历，高位前缀相同的比较值共享同一个 EQ 集合，每个切片只参与一轮运算
+     * @param operations 比较操作
+     * @param startOrValues 比较值，RANGE 时为下限
+     * @param ends RANGE 时为上限，其他操作忽略
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 与 operations 一一对应的查询结果
+     */
+    RoaringBitmap[] compareFused(Operation[] operations, int[] startOrValues, int[] ends, RoaringBitmap foundSet) {
+        RoaringBitmap keys = null == foundSet ? this.ebm : RoaringBitmap.and(foundSet, this.ebm);
+        // 去重排序后的比较值
+        int[] thresholds = new int[operations.length * 2];
+        int size = 0;
+        for (int i = 0; i < operations.length; i++) {
+            thresholds[size++] = startOrValues[i];
+            if (operations[i] == Operation.RANGE) {
+                thresholds[size++] = ends[i];
+            }
+        }
+        Arrays.sort(thresholds, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || thresholds[distinct - 1] != thresholds[i]) {
+                thresholds[distinct++] = thresholds[i];
+            }
+        }
+        thresholds = Arrays.copyOf(thresholds, distinct);
+        RoaringBitmap[] lt = new RoaringBitmap[distinct];
+        RoaringBitmap[] eq = new RoaringBitmap[distinct];
+        RoaringBitmap[] gt = new RoaringBitmap[distinct];
+        oNeilRangeFused(thresholds, keys, lt, eq, gt);
+
+        RoaringBitmap[] results = new RoaringBitmap[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            int index = Arrays.binarySearch(thresholds, startOrValues[i]);
+            RoaringBitmap result;
+            switch (operations[i]) {
+                case EQ:
+                    result = eq[index];
+                    break;
+                case NEQ:
+                    result = RoaringBitmap.andNot(keys, eq[index]);
+                    break;
+                case LT:
+                    result = lt[index];
+                    break;
+                case LE:
+                    result = RoaringBitmap.or(lt[index], eq[index]);
+                    break;
+                case GT:
+                    result = gt[index];
+                    break;
+                case GE:
+                    result = RoaringBitmap.or(gt[index], eq[index]);
+                    break;
+                case RANGE:
+                    int endIndex = Arrays.binarySearch(thresholds, ends[i]);
+                    result = RoaringBitmap.or(gt[index], eq[index]);
+                    result.and(RoaringBitmap.or(lt[endIndex], eq[endIndex]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("");
+            }
+            // 结果之间以及结果与 ebm 之间不能共享同一个 RoaringBitmap
+            boolean shared = result == keys;
+            for (int j = 0; j < i && !shared; j++) {
+                shared = results[j] == result;
+            }
+            results[i] = shared ? result.clone() : result;
+        }
+        return results;
+    }
+
+    /**
+     * 根据切片基数估算满足条件的 Key 占比
+     *      假设各切片取值相互独立，只读取每个切片的基数，不做任何位图运算
+     * @param operation 比较操作
+     * @param startOrValue 比较值，RANGE 时为下限
+     * @param end RANGE 时为上限，其他操作忽略
+     * @return [0, 1] 之间的估算占比
+     */
+    double selectivity(Operation operation, int startOrValue, int end) {
+        long cardinality = this.getLongCardinality();
+        if (cardinality == 0) {
+            return 0.0;
+        }
+        double[] ones = new double[this.sliceSize];
+        for (int i = 0; i < this.sliceSize; i++) {
+            ones[i] = (double) this.slices[i].getLongCardinality() / cardinality;
+        }
+        double ltValue = estimateLessThan(ones, startOrValue);
+        double eqValue = estimateEqual(ones, startOrValue);
+        double result;
+        switch (operation) {
+            case EQ:
+                result = eqValue;
+                break;
+            case NEQ:
+                result = 1 - eqValue;
+                break;
+            case LT:
+                result = ltValue;
+                break;
+            case LE:
+                result = ltValue + eqValue;
+                break;
+            case GT:
+                result = 1 - ltValue - eqValue;
+                break;
+            case GE:
+                result = 1 - ltValue;
+                break;
+            case RANGE:
+                result = estimateLessThan(ones, end) + estimateEqual(ones, end) - ltValue;
+                break;
+            default:
+                throw new IllegalArgumentException("");
+        }
+        return Math.min(1.0, Math.max(0.0, result));
+    }
+
     /**
      * 指定 Key 的 Value 求和
      * @param rbm Key 集合的 RoaringBitmap
@@ -367,14 +679,323 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         if (null == rbm || rbm.isEmpty()) {
             return 0L;
         }
+        DenseSlices denseSlices = denseSlices();
+        if (denseSlices != null) {
+            long sum = denseSlices.sum(rbm);
+            if (sum >= 0) {
+                return sum;
+            }
+        }
+        // Value 恒定的块直接用 Key 个数乘以 Value，不遍历切片
         long sum = 0;
+        ZoneMap zoneMap = zoneMap();
+        RoaringBitmap constantChunks = new RoaringBitmap();
+        for (int i = 0; i < zoneMap.size(); i++) {
+            if (zoneMap.min(i) == zoneMap.max(i) && rbm.intersects(zoneMap.start(i), zoneMap.end(i))) {
+                constantChunks.add(zoneMap.start(i), zoneMap.end(i));
+            }
+        }
+        if (!constantChunks.isEmpty()) {
+            RoaringBitmap constantKeys = RoaringBitmap.and(RoaringBitmap.and(rbm, constantChunks), this.ebm);
+            for (int i = 0; i < zoneMap.size(); i++) {
+                if (zoneMap.min(i) == zoneMap.max(i) && zoneMap.min(i) != 0) {
+                    long count = constantKeys.rangeCardinality(zoneMap.start(i), zoneMap.end(i));
+                    sum += count * zoneMap.min(i);
+                }
+            }
+            rbm = RoaringBitmap.andNot(rbm, constantChunks);
+        }
         for (int i = 0; i < this.sliceSize; i ++) {
-            long sliceValue = 1 << i;
+            long sliceValue = 1L << i;
             sum += sliceValue * RoaringBitmap.andCardinality(this.slices[i], rbm);
         }
         return sum;
     }
 
+    /**
+     * 指定 Key 集合的聚合统计：个数、求和、平方和、均值、方差以及最小值/最大值及其对应的 Key
+     *      所有统计共享与 ebm 的交集，只使用切片基数计算，不解码任何 Value
+     *      平方和 = Σ 2^(2i)·|S_i ∩ F| + Σ_{i<j} 2^(i+j+1)·|S_i ∩ S_j ∩ F|
+     * @param foundSet Key 集合
+     * @return 聚合统计结果
+     */
+    public BsiStats aggregate(RoaringBitmap foundSet) {
+        if (null == foundSet || foundSet.isEmpty()) {
+            return BsiStats.empty();
+        }
+        // 指定 Key 与 BSI 中 Key 的交集
+        RoaringBitmap keys = RoaringBitmap.and(foundSet, this.ebm);
+        long count = keys.getLongCardinality();
+        if (count == 0) {
+            return BsiStats.empty();
+        }
+        // 求和以及平方和中 i == j 的部分
+        RoaringBitmap[] foundSlices = new RoaringBitmap[this.sliceSize];
+        long sum = 0;
+        BigInteger sumOfSquares = BigInteger.ZERO;
+        for (int i = 0; i < this.sliceSize; i++) {
+            foundSlices[i] = RoaringBitmap.and(this.slices[i], keys);
+            long cardinality = foundSlices[i].getLongCardinality();
+            sum += cardinality << i;
+            sumOfSquares = sumOfSquares.add(BigInteger.valueOf(cardinality).shiftLeft(2 * i));
+        }
+        // 平方和中 i < j 的交叉部分
+        for (int i = 0; i < this.sliceSize; i++) {
+            if (foundSlices[i].isEmpty()) {
+                continue;
+            }
+            for (int j = i + 1; j < this.sliceSize; j++) {
+                long cardinality = RoaringBitmap.andCardinality(foundSlices[i], foundSlices[j]);
+                sumOfSquares = sumOfSquares.add(BigInteger.valueOf(cardinality).shiftLeft(i + j + 1));
+            }
+        }
+        // 最小值与最大值 自高位到低位收缩 Key 集合并同时重建取值
+        RoaringBitmap minKeys = keys;
+        RoaringBitmap maxKeys = keys.clone();
+        int min = 0;
+        int max = 0;
+        for (int i = this.sliceSize - 1; i >= 0; i--) {
+            RoaringBitmap zero = RoaringBitmap.andNot(minKeys, this.slices[i]);
+            if (zero.isEmpty()) {
+                min |= 1 << i;
+            } else {
+                minKeys = zero;
+            }
+            RoaringBitmap one = RoaringBitmap.and(maxKeys, foundSlices[i]);
+            if (!one.isEmpty()) {
+                maxKeys = one;
+                max |= 1 << i;
+            }
+        }
+        return new BsiStats(count, sum, sumOfSquares, min, max, minKeys, maxKeys);
+    }
+
+    /**
+     * 按 Value 排序遍历指定 Key 集合 (ORDER BY value)
+     *      Value 相同的 Key 按 Key 升序输出，迭代期间不能修改 BSI
+     * @param foundSet Key 集合
+     * @param descending 是否按 Value 降序
+     * @return 惰性迭代器，可通过 skip 跳过分页之前的 Key
+     */
+    public SortedKeyIterator keysSortedByValue(RoaringBitmap foundSet, boolean descending) {
+        RoaringBitmap keys = null;
+        if (null != foundSet && !foundSet.isEmpty()) {
+            keys = RoaringBitmap.and(foundSet, this.ebm);
+        }
+        return new SortedKeyIterator(this.slices, this.sliceSize, keys, descending);
+    }
+
+    /**
+     * 按 Value 排序分页查询指定 Key 集合 (ORDER BY value LIMIT limit OFFSET offset)
+     * @param foundSet Key 集合
+     * @param descending 是否按 Value 降序
+     * @param offset 跳过的 Key 个数
+     * @param limit 返回的最大 Key 个数
+     * @return 排序后的 Key
+     */
+    public int[] keysSortedByValue(RoaringBitmap foundSet, boolean descending, long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit should be non-negative");
+        }
+        SortedKeyIterator iterator = keysSortedByValue(foundSet, descending);
+        iterator.skip(offset);
+        int[] page = new int[limit];
+        int size = 0;
+        while (size < limit && iterator.hasNext()) {
+            page[size++] = iterator.nextInt();
+        }
+        return size == limit ? page : Arrays.copyOf(page, size);
+    }
+
+    /**
+     * 直方图 统计指定 Key 集合落在每个分桶内的 Key 个数
+     *      分桶由相邻边界构成的左闭右开区间 [bucketBoundaries[i], bucketBoundaries[i+1]) 定义，共 bucketBoundaries.length - 1 个分桶
+     *      所有分桶共享一次自高位到低位的切片遍历，只在跨越分桶边界的前缀处拆分候选集合
+     * @param bucketBoundaries 严格递增的分桶边界
+     * @param foundSet Key 集合
+     * @return 每个分桶内的 Key 个数
+     */
+    public long[] histogram(int[] bucketBoundaries, RoaringBitmap foundSet) {
+        checkBucketBoundaries(bucketBoundaries);
+        long[] counts = new long[bucketBoundaries.length - 1];
+        if (null == foundSet || foundSet.isEmpty()) {
+            return counts;
+        }
+        RoaringBitmap keys = RoaringBitmap.and(foundSet, this.ebm);
+        if (!keys.isEmpty()) {
+            histogramInternal(this.sliceSize - 1, 0L, keys, bucketBoundaries, counts, null, 0, null);
+        }
+        return counts;
+    }
+
+    /**
+     * 直方图 返回指定 Key 集合落在每个分桶内的 Key
+     *      分桶定义与 histogram 相同
+     * @param bucketBoundaries 严格递增的分桶边界
+     * @param foundSet Key 集合
+     * @return 每个分桶内的 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap[] histogramKeys(int[] bucketBoundaries, RoaringBitmap foundSet) {
+        checkBucketBoundaries(bucketBoundaries);
+        RoaringBitmap[] bitmaps = new RoaringBitmap[bucketBoundaries.length - 1];
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = new RoaringBitmap();
+        }
+        if (null == foundSet || foundSet.isEmpty()) {
+            return bitmaps;
+        }
+        RoaringBitmap keys = RoaringBitmap.and(foundSet, this.ebm);
+        if (!keys.isEmpty()) {
+            histogramInternal(this.sliceSize - 1, 0L, keys, bucketBoundaries, null, bitmaps, 0, null);
+        }
+        return bitmaps;
+    }
+
+    /**
+     * 指定 Key 集合中不同 Value 的个数
+     *      自高位切片向低位切片逐层拆分候选集合，通过 andCardinality 跳过空分支，只为每个不同的 Value 前缀分配位图
+     * @param foundSet Key 集合
+     * @return 不同 Value 的个数
+     */
+    public long distinctCount(RoaringBitmap foundSet) {
+        if (null == foundSet || foundSet.isEmpty()) {
+            return 0L;
+        }
+        RoaringBitmap keys = RoaringBitmap.and(foundSet, this.ebm);
+        if (keys.isEmpty()) {
+            return 0L;
+        }
+        return distinctCountInternal(this.sliceSize - 1, keys, keys.getLongCardinality());
+    }
+
+    /**
+     * 指定 Key 集合中出现次数最多的 n 个 Value
+     *      候选集合按 Key 个数从大到小展开，集合的 Key 个数是其中任意 Value 出现次数的上界，
+     *      展开到最低位切片的集合即为一个 Value，取得 n 个 Value 后停止，其余分支不再拆分
+     * @param n Value 个数
+     * @param foundSet Key 集合
+     * @return Value 到出现次数的映射，按出现次数降序、Value 升序排列
+     */
+    public Map<Integer, Long> topFrequentValues(int n, RoaringBitmap foundSet) {
+        if (n < 0) {
+            throw new IllegalArgumentException("N should be non-negative");
+        }
+        Map<Integer, Long> result = new LinkedHashMap<>();
+        if (n == 0 || null == foundSet || foundSet.isEmpty()) {
+            return result;
+        }
+        RoaringBitmap keys = RoaringBitmap.and(foundSet, this.ebm);
+        if (keys.isEmpty()) {
+            return result;
+        }
+        PriorityQueue<ValueGroup> queue = new PriorityQueue<>(11, new Comparator<ValueGroup>() {
+            @Override
+            public int compare(ValueGroup o1, ValueGroup o2) {
+                int order = Long.compare(o2.cardinality, o1.cardinality);
+                return order != 0 ? order : Integer.compare(o1.low, o2.low);
+            }
+        });
+        queue.add(new ValueGroup(this.sliceSize - 1, 0, keys, keys.getLongCardinality()));
+        while (!queue.isEmpty() && result.size() < n) {
+            ValueGroup group = queue.poll();
+            int sliceIndex = group.sliceIndex;
+            if (sliceIndex < 0) {
+                result.put(group.low, group.cardinality);
+                continue;
+            }
+            if (group.cardinality == 1) {
+                // 只有一个 Key 时直接读取 Value
+                queue.add(new ValueGroup(-1, getValueInternal(group.keys.first()), null, 1L));
+                continue;
+            }
+            long ones = RoaringBitmap.andCardinality(group.keys, this.slices[sliceIndex]);
+            if (ones == 0) {
+                queue.add(new ValueGroup(sliceIndex - 1, group.low, group.keys, group.cardinality));
+            } else if (ones == group.cardinality) {
+                queue.add(new ValueGroup(sliceIndex - 1, group.low | (1 << sliceIndex), group.keys, group.cardinality));
+            } else {
+                queue.add(new ValueGroup(sliceIndex - 1, group.low | (1 << sliceIndex),
+                        RoaringBitmap.and(group.keys, this.slices[sliceIndex]), ones));
+                queue.add(new ValueGroup(sliceIndex - 1, group.low,
+                        RoaringBitmap.andNot(group.keys, this.slices[sliceIndex]), group.cardinality - ones));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 近似求和 只计算高 topSlices 个切片
+     *      未计算的低位切片对每个 Key 的贡献介于 0 与 2^lowestSlice - 1 之间
+     * @param rbm Key 集合
+     * @param topSlices 计算的高位切片个数，不小于切片个数时结果精确
+     * @return 求和的取值区间 [lowerBound, upperBound]
+     */
+    public ApproxResult<Long> sumApprox(RoaringBitmap rbm, int topSlices) {
+        int lowestSlice = lowestEvaluatedSlice(topSlices);
+        int evaluatedSlices = this.sliceSize - lowestSlice;
+        if (null == rbm || rbm.isEmpty()) {
+            return new ApproxResult<>(0L, 0L, evaluatedSlices, lowestSlice == 0);
+        }
+        long sum = 0;
+        for (int i = lowestSlice; i < this.sliceSize; i++) {
+            sum += RoaringBitmap.andCardinality(this.slices[i], rbm) << i;
+        }
+        long error = lowestSlice == 0 ? 0L : RoaringBitmap.andCardinality(this.ebm, rbm) * ((1L << lowestSlice) - 1);
+        return new ApproxResult<>(sum, sum + error, evaluatedSlices, lowestSlice == 0);
+    }
+
+    /**
+     * 近似范围查询 [lower, upper] 只计算高 topSlices 个切片
+     * @param lower 下限
+     * @param upper 上限
+     * @param topSlices 计算的高位切片个数，不小于切片个数时结果精确
+     * @return 下界为一定位于区间内的 Key，上界为可能位于区间内的 Key
+     */
+    public ApproxResult<RoaringBitmap> betweenApprox(int lower, int upper, int topSlices) {
+        int lowestSlice = lowestEvaluatedSlice(topSlices);
+        int evaluatedSlices = this.sliceSize - lowestSlice;
+        if (lower > upper || upper < 0) {
+            return new ApproxResult<>(new RoaringBitmap(), new RoaringBitmap(), evaluatedSlices, lowestSlice == 0);
+        }
+        long lowerValue = Math.max(lower, 0);
+        long unit = 1L << lowestSlice;
+        // 前缀区间完全位于 [lower, upper] 内的 Key 一定满足条件
+        RoaringBitmap certain = prefixRange((lowerValue + unit - 1) >> lowestSlice,
+                (((long) upper + 1) >> lowestSlice) - 1, lowestSlice);
+        if (lowestSlice == 0) {
+            return new ApproxResult<>(certain, certain.clone(), evaluatedSlices, true);
+        }
+        // 前缀区间与 [lower, upper] 相交的 Key 可能满足条件
+        RoaringBitmap possible = prefixRange(lowerValue >> lowestSlice, (long) upper >> lowestSlice, lowestSlice);
+        return new ApproxResult<>(certain, possible, evaluatedSlices, false);
+    }
+
+    /**
+     * 近似直方图 只计算高 topSlices 个切片
+     *      分桶定义与 histogram 相同
+     * @param bucketBoundaries 严格递增的分桶边界
+     * @param foundSet Key 集合
+     * @param topSlices 计算的高位切片个数，不小于切片个数时结果精确
+     * @return 下界为每个分桶内一定存在的 Key 个数，上界为每个分桶内可能存在的 Key 个数
+     */
+    public ApproxResult<long[]> histogramApprox(int[] bucketBoundaries, RoaringBitmap foundSet, int topSlices) {
+        checkBucketBoundaries(bucketBoundaries);
+        int lowestSlice = lowestEvaluatedSlice(topSlices);
+        long[] counts = new long[bucketBoundaries.length - 1];
+        long[] possibleCounts = new long[bucketBoundaries.length - 1];
+        if (null != foundSet && !foundSet.isEmpty()) {
+            RoaringBitmap keys = RoaringBitmap.and(foundSet, this.ebm);
+            if (!keys.isEmpty()) {
+                histogramInternal(this.sliceSize - 1, 0L, keys, bucketBoundaries, counts, null,
+                        lowestSlice, possibleCounts);
+            }
+        }
+        for (int i = 0; i < possibleCounts.length; i++) {
+            possibleCounts[i] += counts[i];
+        }
+        return new ApproxResult<>(counts, possibleCounts, this.sliceSize - lowestSlice, lowestSlice == 0);
+    }
+
     /**
      * 序列化该 BSI 所需的字节大小
      *   这是使用 serialize 方法时写入的字节数。
@@ -386,9 +1007,9 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         for (RoaringBitmap rbm : this.slices) {
             size += rbm.serializedSizeInBytes();
         }
-        // minValue(4)、maxValue(4)、sliceSize(4)、runOptimized(1)、ebm(ebm.serializedSizeInBytes)、slices(4+size)
+        // minValue(4)、maxValue(4)、sliceSize(4)、flags(1)、ebm(ebm.serializedSizeInBytes)、slices(4+size)、zoneMap(可选)
         // 与 serialize 方法一一对应
-        return 4 + 4 + 4 + 1 + this.ebm.serializedSizeInBytes() + 4 + size;
+        return 4 + 4 + 4 + 1 + this.ebm.serializedSizeInBytes() + 4 + size + zoneMapSerializedSizeInBytes();
     }
 
     /**
@@ -402,7 +1023,7 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         buffer.putInt(this.minValue);
         buffer.putInt(this.maxValue);
         buffer.putInt(this.sliceSize);
-        buffer.put(this.runOptimized ? (byte) 1 : (byte) 0);
+        buffer.put((byte) serializeFlags());
         // ebm
         this.ebm.serialize(buffer);
         // 切片数组(切片个数、切片)
@@ -410,6 +1031,10 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         for (RoaringBitmap rbm : this.slices) {
             rbm.serialize(buffer);
         }
+        // Zone Map
+        if (this.serializeZoneMap) {
+            zoneMap().serialize(buffer);
+        }
     }
 
     /**
@@ -424,7 +1049,8 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         this.minValue = buffer.getInt();
         this.maxValue = buffer.getInt();
         this.sliceSize = buffer.getInt();
-        this.runOptimized = buffer.get() == (byte) 1;
+        int flags = buffer.get();
+        this.runOptimized = (flags & FLAG_RUN_OPTIMIZED) != 0;
         // ebm
         RoaringBitmap ebm = new RoaringBitmap();
         ebm.deserialize(buffer);
@@ -440,6 +1066,8 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
             buffer.position(buffer.position() + rbm.serializedSizeInBytes());
         }
         this.slices = slices;
+        // Zone Map，没有写入 Zone Map 时在第一次使用时根据切片构建
+        this.zoneMap = (flags & FLAG_ZONE_MAP) != 0 ? ZoneMap.deserialize(buffer) : null;
     }
 
     /**
@@ -453,7 +1081,7 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         output.writeInt(this.minValue);
         output.writeInt(this.maxValue);
         output.writeInt(this.sliceSize);
-        output.writeInt(this.runOptimized ? (byte) 1 : (byte) 0);
+        output.writeInt(serializeFlags());
         // ebm
         this.ebm.serialize(output);
         // 切片
@@ -461,6 +1089,10 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         for (RoaringBitmap rbm : this.slices) {
             rbm.serialize(output);
         }
+        // Zone Map
+        if (this.serializeZoneMap) {
+            zoneMap().serialize(output);
+        }
     }
 
     @Override
@@ -470,7 +1102,8 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         this.minValue = in.readInt();
         this.maxValue = in.readInt();
         this.sliceSize = in.readInt();
-        this.runOptimized = in.readInt() == (byte) 1;
+        int flags = in.readInt();
+        this.runOptimized = (flags & FLAG_RUN_OPTIMIZED) != 0;
         // ebm
         RoaringBitmap ebm = new RoaringBitmap();
         ebm.deserialize(in);
@@ -484,6 +1117,8 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
             slices[i] = rbm;
         }
         this.slices = slices;
+        // Zone Map，没有写入 Zone Map 时在第一次使用时根据切片构建
+        this.zoneMap = (flags & FLAG_ZONE_MAP) != 0 ? ZoneMap.deserialize(in) : null;
     }
 
     /**
@@ -509,103 +1144,528 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
     }
 
     /**
-     * BSI 压缩优化
+     * 并行序列化到 FileChannel
+     *      与 serialize(ByteBuffer) 格式相同，按 serializedSizeInBytes 预先计算 ebm 与每个切片的位置，
+     *      每个位图在 executor 中独立序列化并写入对应位置，峰值内存为并发个数个位图而不是整个 BSI
+     * @param channel 目标文件
+     * @param position 写入的起始位置
+     * @param executor 序列化与写入使用的线程池
+     * @return 写入的字节数
+     * @throws IOException
      */
-    @Override
-    public void runOptimize() {
-        // ebm 压缩优化
-        this.ebm.runOptimize();
-        // 切片压缩优化
-        for (RoaringBitmap slice : this.slices) {
-            slice.runOptimize();
+    public long serialize(final FileChannel channel, long position, ExecutorService executor) throws IOException {
+        RoaringBitmap[] bitmaps = bitmapsInOrder();
+        // 每个位图的起始位置，切片个数位于 ebm 之后
+        long[] offsets = new long[bitmaps.length];
+        long offset = position + HEADER_SIZE;
+        for (int i = 0; i < bitmaps.length; i++) {
+            offsets[i] = offset;
+            offset += bitmaps[i].serializedSizeInBytes() + (i == 0 ? 4 : 0);
         }
-        this.runOptimized = true;
+        // 头部、切片个数与 Zone Map(可选)在当前线程写入
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(this.minValue);
+        header.putInt(this.maxValue);
+        header.putInt(this.sliceSize);
+        header.put((byte) serializeFlags());
+        header.flip();
+        writeFully(channel, header, position);
+        ByteBuffer sliceCount = ByteBuffer.allocate(4);
+        sliceCount.putInt(this.sliceSize);
+        sliceCount.flip();
+        writeFully(channel, sliceCount, offsets[0] + this.ebm.serializedSizeInBytes());
+        if (this.serializeZoneMap) {
+            ByteBuffer zone = ByteBuffer.allocate(zoneMap().serializedSizeInBytes());
+            zoneMap().serialize(zone);
+            zone.flip();
+            writeFully(channel, zone, offset);
+        }
+        // 位图并行序列化并写入
+        List<Future<?>> futures = new ArrayList<>(bitmaps.length);
+        for (int i = 0; i < bitmaps.length; i++) {
+            final RoaringBitmap bitmap = bitmaps[i];
+            final long bitmapOffset = offsets[i];
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    writeFully(channel, serializeBitmap(bitmap), bitmapOffset);
+                    return null;
+                }
+            }));
+        }
+        awaitAll(futures);
+        return offset + zoneMapSerializedSizeInBytes() - position;
     }
 
-    //------------------------------------------------------------------------------------------
-    // 内部方法
+    /**
+     * 使用 ForkJoinPool.commonPool() 并行序列化到 FileChannel
+     */
+    public long serialize(FileChannel channel, long position) throws IOException {
+        return serialize(channel, position, ForkJoinPool.commonPool());
+    }
 
     /**
-     * 调整切片个数
+     * 流式序列化到 WritableByteChannel
+     *      与 serialize(ByteBuffer) 格式相同，目标不支持随机写入，位图在 executor 中提前并行序列化，按顺序写入，
+     *      同时最多有 window 个位图已序列化但未写入
+     * @param channel 目标通道，例如 Channels.newChannel(OutputStream)、SocketChannel
+     * @param executor 序列化使用的线程池
+     * @param window 提前序列化的位图个数
+     * @return 写入的字节数
+     * @throws IOException
      */
-    private void resize(int newSliceSize) {
-        if (newSliceSize <= this.sliceSize) {
-            // 小于等于之前切片个数不需要调整
-            return;
-        }
-        RoaringBitmap[] newSlices = new RoaringBitmap[newSliceSize];
-        // 复制旧切片
-        if (this.sliceSize != 0) {
-            System.arraycopy(this.slices, 0, newSlices, 0, this.sliceSize);
+    public long serialize(WritableByteChannel channel, ExecutorService executor, int window) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window should be positive");
         }
-        // 增加新切片
-        for (int i = newSliceSize - 1; i >= this.sliceSize; i--) {
-            newSlices[i] = new RoaringBitmap();
-            if (this.runOptimized) {
-                newSlices[i].runOptimize();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(this.minValue);
+        header.putInt(this.maxValue);
+        header.putInt(this.sliceSize);
+        header.put((byte) serializeFlags());
+        header.flip();
+        long written = writeFully(channel, header);
+        RoaringBitmap[] bitmaps = bitmapsInOrder();
+        Queue<Future<ByteBuffer>> pending = new ArrayDeque<>(window);
+        int next = 0;
+        try {
+            for (int i = 0; i < bitmaps.length; i++) {
+                while (next < bitmaps.length && pending.size() < window) {
+                    final RoaringBitmap bitmap = bitmaps[next++];
+                    pending.add(executor.submit(new Callable<ByteBuffer>() {
+                        @Override
+                        public ByteBuffer call() {
+                            return serializeBitmap(bitmap);
+                        }
+                    }));
+                }
+                written += writeFully(channel, await(pending.poll()));
+                if (i == 0) {
+                    // 切片个数位于 ebm 之后
+                    ByteBuffer sliceCount = ByteBuffer.allocate(4);
+                    sliceCount.putInt(this.sliceSize);
+                    sliceCount.flip();
+                    written += writeFully(channel, sliceCount);
+                }
+            }
+        } finally {
+            for (Future<ByteBuffer> future : pending) {
+                future.cancel(true);
             }
         }
-        this.slices = newSlices;
-        this.sliceSize = newSliceSize;
+        if (!this.serializeZoneMap) {
+            return written;
+        }
+        ZoneMap zoneMap = zoneMap();
+        ByteBuffer zone = ByteBuffer.allocate(zoneMap.serializedSizeInBytes());
+        zoneMap.serialize(zone);
+        zone.flip();
+        return written + writeFully(channel, zone);
     }
 
     /**
-     * 为指定的 Key 设置 Value
-     * @param key
-     * @param value
+     * 从 FileChannel 并行反序列化
+     *      依次映射每个位图并只读取其头部得到长度，位图内容的反序列化在 executor 中并行执行
+     *      单个位图不超过 2GB 即可，整个文件可以超过 2GB
+     * @param channel 源文件
+     * @param position 序列化数据的起始位置
+     * @param executor 反序列化使用的线程池
+     * @return 读取的字节数
+     * @throws IOException
      */
-    private void putValueInternal(Integer key, Integer value) {
-        // 在 value 二进制位对应切片 Bitmap 中添加 key
-        // 从低位到高位切片 Bitmap 遍历，如果 value 二进制位对应的 bit 为 1 则对应的切片 Bitmap 添加 key
-        for (int i = 0; i < this.sliceSize(); i += 1) {
-            if ((value & (1 << i)) > 0) {
-                this.slices[i].add(key);
-            } else {
-                // 一个 Key 只能设置一个 Value，旧值会被新值覆盖
-                this.slices[i].remove(key);
-            }
+    public long deserialize(FileChannel channel, long position, ExecutorService executor) throws IOException {
+        this.clear();
+        ByteBuffer header = readFully(channel, position, HEADER_SIZE);
+        this.minValue = header.getInt();
+        this.maxValue = header.getInt();
+        int flags = header.get(12);
+        this.runOptimized = (flags & FLAG_RUN_OPTIMIZED) != 0;
+        long offset = position + HEADER_SIZE;
+        // ebm
+        final RoaringBitmap ebm = new RoaringBitmap();
+        List<Future<?>> futures = new ArrayList<>();
+        offset += submitDeserialize(channel, offset, ebm, executor, futures);
+        // 切片
+        int sliceSize = readFully(channel, offset, 4).getInt();
+        offset += 4;
+        RoaringBitmap[] slices = new RoaringBitmap[sliceSize];
+        for (int i = 0; i < sliceSize; i++) {
+            slices[i] = new RoaringBitmap();
+            offset += submitDeserialize(channel, offset, slices[i], executor, futures);
         }
-        this.ebm.add(key);
+        // Zone Map，没有写入 Zone Map 时在第一次使用时根据切片构建
+        ZoneMap zoneMap = null;
+        if ((flags & FLAG_ZONE_MAP) != 0) {
+            int zoneSize = readFully(channel, offset, 4).getInt();
+            ByteBuffer zone = readFully(channel, offset, 4 + zoneSize * 10);
+            zoneMap = ZoneMap.deserialize(zone);
+            offset += zone.capacity();
+        }
+        awaitAll(futures);
+        this.ebm = ebm;
+        this.slices = slices;
+        this.sliceSize = sliceSize;
+        this.zoneMap = zoneMap;
+        return offset - position;
     }
 
     /**
-     * 获取指定 key 的 value
-     * @param key
-     * @return
+     * 使用 ForkJoinPool.commonPool() 从 FileChannel 并行反序列化
      */
-    private Integer getValueInternal(Integer key) {
-        int value = 0;
-        for (int i = 0; i < this.sliceSize; i += 1) {
-            if (this.slices[i].contains(key)) {
-                // 通过位图反向重建原始值
-                value |= (1 << i);
-            }
-        }
-        return value;
+    public long deserialize(FileChannel channel, long position) throws IOException {
+        return deserialize(channel, position, ForkJoinPool.commonPool());
     }
 
     /**
-     * 删除指定 key
-     * @param key
-     * @return
+     * 序列化时是否写入 Zone Map
+     *      默认不写入，输出与原格式相同，反序列化时根据切片逐块重建 Zone Map
+     *      写入后 flags 包含 FLAG_ZONE_MAP，并在切片之后追加 Zone Map，只有支持 Zone Map 的版本可以读取
+     * @param serializeZoneMap 是否写入 Zone Map
      */
-    private Integer removeValueInternal(Integer key) {
-        int value = 0;
-        // 从低位到高位遍历切片 Bitmap
-        for (int i = 0; i < this.sliceSize; i += 1) {
-            // 切片包含指定的 key 则从切片中移除该 Key 并重建原始值
-            if (this.slices[i].contains(key)) {
-                // 通过位移操作反向重建原始值
-                value |= (1 << i);
+    public void setSerializeZoneMap(boolean serializeZoneMap) {
+        this.serializeZoneMap = serializeZoneMap;
+    }
+
+    public boolean isSerializeZoneMap() {
+        return serializeZoneMap;
+    }
+
+    /**
+     * 是否使用稠密切片
+     *      Key 空间稠密时把 ebm 与切片展开为 long[]，范围查询与求和按字计算
+     *      展开结果是 RoaringBitmap 切片之外的一份完整拷贝，内存约为原来的两倍，默认不使用
+     *      关闭时立即释放已展开的切片；共享 ebm 的 BSI 不使用稠密切片
+     * @param denseSlices 是否使用稠密切片
+     */
+    public void setDenseSlices(boolean denseSlices) {
+        this.denseSlicesEnabled = denseSlices;
+        if (!denseSlices) {
+            this.dense = null;
+        }
+    }
+
+    public boolean isDenseSlices() {
+        return denseSlicesEnabled;
+    }
+
+    /**
+     * 当前修改版本
+     *      副本应用增量后为增量的版本，下次以该版本请求增量
+     * @return
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * 增量序列化
+     *      只输出 sinceVersion 之后修改过的块：块内 ebm 与每个切片的 container 以及块的 Zone Map
+     *      sinceVersion 早于最近一次 clear/deserialize 时输出完整序列化
+     * @param sinceVersion 副本当前的版本
+     * @return 增量字节数组，由 applyDelta 应用
+     * @throws IOException
+     */
+    public byte[] serializeDelta(long sinceVersion) throws IOException {
+        if (sinceVersion > this.version) {
+            throw new IllegalArgumentException("Version " + sinceVersion + " is newer than current version " + this.version);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bos);
+        if (sinceVersion < this.baseVersion) {
+            output.writeByte(DELTA_FULL);
+            output.writeLong(this.version);
+            this.serialize(output);
+            output.flush();
+            return bos.toByteArray();
+        }
+        char[] chunks = this.chunkVersions.changedSince(sinceVersion);
+        RoaringBitmap changed = chunksOf(chunks);
+        // 属性
+        output.writeByte(DELTA_CHUNKS);
+        output.writeLong(this.version);
+        output.writeLong(sinceVersion);
+        output.writeInt(this.minValue);
+        output.writeInt(this.maxValue);
+        // 修改过的块以及块的 Zone Map，块内 Key 全部删除时没有 Zone Map
+        ZoneMap zoneMap = zoneMap();
+        output.writeInt(chunks.length);
+        for (char chunk : chunks) {
+            output.writeChar(chunk);
+            int index = zoneMap.indexOf(chunk);
+            output.writeBoolean(index >= 0);
+            if (index >= 0) {
+                output.writeInt(zoneMap.min(index));
+                output.writeInt(zoneMap.max(index));
+            }
+        }
+        // 修改过的块内的 ebm 与切片
+        RoaringBitmap.and(this.ebm, changed).serialize(output);
+        output.writeInt(this.sliceSize);
+        for (RoaringBitmap slice : this.slices) {
+            RoaringBitmap.and(slice, changed).serialize(output);
+        }
+        output.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * 应用增量
+     *      修改过的块整体替换为增量中的 container，其他块不变；副本应只通过增量修改
+     *      副本的版本早于增量的起始版本时抛出 IllegalStateException，需要以副本的版本重新请求增量
+     * @param delta serializeDelta 的输出
+     * @return 应用后的版本
+     * @throws IOException
+     */
+    public long applyDelta(byte[] delta) throws IOException {
+        if (this.sharedEbm) {
+            throw new IllegalStateException("Delta can not be applied to a column of BsiTable");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        byte type = in.readByte();
+        long deltaVersion = in.readLong();
+        if (type == DELTA_FULL) {
+            this.deserialize((DataInput) in);
+            this.version = deltaVersion;
+            this.baseVersion = deltaVersion;
+            return deltaVersion;
+        }
+        if (type != DELTA_CHUNKS) {
+            throw new IllegalArgumentException("Unknown delta type " + type);
+        }
+        // 副本落后于增量的起始版本时缺少中间的修改
+        long sinceVersion = in.readLong();
+        if (this.version < sinceVersion) {
+            throw new IllegalStateException("Delta since version " + sinceVersion + " can not be applied to version " + this.version);
+        }
+        // 属性
+        int minValue = in.readInt();
+        int maxValue = in.readInt();
+        // 修改过的块以及块的 Zone Map，副本尚未构建 Zone Map 时跳过，使用时根据切片构建
+        ZoneMap zoneMap = this.zoneMap;
+        char[] chunks = new char[in.readInt()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = in.readChar();
+            if (in.readBoolean()) {
+                int min = in.readInt();
+                int max = in.readInt();
+                if (zoneMap != null) {
+                    zoneMap.set(chunks[i], min, max);
+                }
+            } else if (zoneMap != null) {
+                zoneMap.removeAt(zoneMap.indexOf(chunks[i]));
+            }
+        }
+        RoaringBitmap changed = chunksOf(chunks);
+        // 替换修改过的块内的 ebm 与切片
+        RoaringBitmap ebmDelta = new RoaringBitmap();
+        ebmDelta.deserialize(in);
+        this.ebm.andNot(changed);
+        this.ebm.or(ebmDelta);
+        int deltaSliceSize = in.readInt();
+        resize(deltaSliceSize);
+        for (int i = 0; i < this.sliceSize; i++) {
+            this.slices[i].andNot(changed);
+            if (i < deltaSliceSize) {
+                RoaringBitmap sliceDelta = new RoaringBitmap();
+                sliceDelta.deserialize(in);
+                this.slices[i].or(sliceDelta);
+            }
+        }
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.dense = null;
+        // 副本可以继续作为其他副本的增量来源
+        this.version = deltaVersion;
+        for (char chunk : chunks) {
+            this.chunkVersions.touchChunk(chunk, deltaVersion);
+        }
+        return deltaVersion;
+    }
+
+    /**
+     * BSI 压缩优化
+     */
+    @Override
+    public void runOptimize() {
+        // ebm 压缩优化
+        this.ebm.runOptimize();
+        // 切片压缩优化
+        for (RoaringBitmap slice : this.slices) {
+            slice.runOptimize();
+        }
+        this.runOptimized = true;
+        // 丢弃被覆盖写入与删除放宽的 Zone Map 边界，下次使用时根据切片重新构建
+        this.zoneMap = null;
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    /**
+     * 调整切片个数
+     */
+    private void resize(int newSliceSize) {
+        if (newSliceSize <= this.sliceSize) {
+            // 小于等于之前切片个数不需要调整
+            return;
+        }
+        RoaringBitmap[] newSlices = new RoaringBitmap[newSliceSize];
+        // 复制旧切片
+        if (this.sliceSize != 0) {
+            System.arraycopy(this.slices, 0, newSlices, 0, this.sliceSize);
+        }
+        // 增加新切片
+        for (int i = newSliceSize - 1; i >= this.sliceSize; i--) {
+            newSlices[i] = new RoaringBitmap();
+            if (this.runOptimized) {
+                newSlices[i].runOptimize();
+            }
+        }
+        this.slices = newSlices;
+        this.sliceSize = newSliceSize;
+        if (this.dense != null) {
+            this.dense.resize(newSliceSize);
+        }
+    }
+
+    /**
+     * 为指定的 Key 设置 Value
+     * @param key
+     * @param value
+     */
+    private void putValueInternal(Integer key, Integer value) {
+        // 在 value 二进制位对应切片 Bitmap 中添加 key
+        // 从低位到高位切片 Bitmap 遍历，如果 value 二进制位对应的 bit 为 1 则对应的切片 Bitmap 添加 key
+        for (int i = 0; i < this.sliceSize(); i += 1) {
+            if ((value & (1 << i)) > 0) {
+                this.slices[i].add(key);
+            } else {
+                // 一个 Key 只能设置一个 Value，旧值会被新值覆盖
+                this.slices[i].remove(key);
+            }
+        }
+        this.ebm.add(key);
+        if (this.zoneMap != null) {
+            this.zoneMap.put(key, value);
+        }
+        this.chunkVersions.touch(key, ++this.version);
+        // 同步稠密切片，超出展开范围时放弃稠密切片，下次查询时重新判断
+        if (this.dense != null) {
+            if (this.dense.covers(key)) {
+                this.dense.put(key, value);
+            } else {
+                this.dense = null;
+            }
+        }
+    }
+
+    /**
+     * 获取指定 key 的 value
+     * @param key
+     * @return
+     */
+    private Integer getValueInternal(Integer key) {
+        if (this.dense != null && this.dense.covers(key)) {
+            return this.dense.get(key);
+        }
+        int value = 0;
+        for (int i = 0; i < this.sliceSize; i += 1) {
+            if (this.slices[i].contains(key)) {
+                // 通过位图反向重建原始值
+                value |= (1 << i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 删除指定 key
+     * @param key
+     * @return
+     */
+    private Integer removeValueInternal(Integer key) {
+        int value = 0;
+        // 从低位到高位遍历切片 Bitmap
+        for (int i = 0; i < this.sliceSize; i += 1) {
+            // 切片包含指定的 key 则从切片中移除该 Key 并重建原始值
+            if (this.slices[i].contains(key)) {
+                // 通过位移操作反向重建原始值
+                value |= (1 << i);
                 // 移除对应的 Key
                 this.slices[i].remove(key);
             }
         }
         // 存在位图移除对应的 Key
         this.ebm.remove(key);
+        long chunkStart = Integer.toUnsignedLong(key) & ~0xFFFFL;
+        if (this.zoneMap != null && !this.ebm.intersects(chunkStart, chunkStart + 0x10000L)) {
+            this.zoneMap.removeChunk(key);
+        }
+        this.chunkVersions.touch(key, ++this.version);
+        if (this.dense != null) {
+            this.dense.remove(key);
+        }
         return value;
     }
 
+    /**
+     * 批量删除 BSI 中存在的 Key
+     * @param removed 待删除的 Key，必须是 ebm 的子集
+     */
+    private void removeAllInternal(RoaringBitmap removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < this.sliceSize; i++) {
+            this.slices[i].andNot(removed);
+        }
+        this.ebm.andNot(removed);
+        touchChunks(removed, -1);
+        refreshMinMax();
+    }
+
+    /**
+     * 批量修改后按块更新 Zone Map 与修改版本
+     *      每个块只处理一次，稠密切片在下次查询时按需重建
+     * @param keys 被修改的 Key
+     * @param value 写入的 Value，删除时为 -1
+     */
+    private void touchChunks(RoaringBitmap keys, int value) {
+        long version = ++this.version;
+        ZoneMap zoneMap = this.zoneMap;
+        PeekableIntIterator iterator = keys.getIntIterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            long chunkStart = Integer.toUnsignedLong(key) & ~0xFFFFL;
+            if (zoneMap == null) {
+                // 尚未构建，使用时根据切片构建
+            } else if (value >= 0) {
+                zoneMap.put(key, value);
+            } else if (!this.ebm.intersects(chunkStart, chunkStart + 0x10000L)) {
+                zoneMap.removeChunk(key);
+            }
+            this.chunkVersions.touch(key, version);
+            if (chunkStart == 0xFFFF0000L) {
+                break;
+            }
+            iterator.advanceIfNeeded((int) (chunkStart + 0x10000L));
+        }
+        this.dense = null;
+    }
+
+    /**
+     * 根据切片重新计算最小值与最大值，BSI 为空时均为 -1
+     */
+    private void refreshMinMax() {
+        if (this.ebm.isEmpty()) {
+            this.minValue = -1;
+            this.maxValue = -1;
+            return;
+        }
+        this.minValue = minValue(this.ebm);
+        this.maxValue = maxValue(this.ebm);
+    }
+
     /**
      * 合并切片
      * @param slice
@@ -622,6 +1682,636 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
         }
     }
 
+    /**
+     * 多个比较值的 oNeil 范围查询
+     *      比较值升序排列时，高位前缀相同的比较值连续分布，每组共享一个 EQ 集合
+     * @param thresholds 去重升序的比较值
+     * @param keys 候选 Key 集合
+     * @param lt 输出 小于各比较值的 Key
+     * @param eq 输出 等于各比较值的 Key
+     * @param gt 输出 大于各比较值的 Key
+     */
+    private void oNeilRangeFused(int[] thresholds, RoaringBitmap keys,
+                                 RoaringBitmap[] lt, RoaringBitmap[] eq, RoaringBitmap[] gt) {
+        // 超出切片表示范围的比较值不参与遍历
+        int from = 0;
+        int to = thresholds.length;
+        while (from < to && thresholds[from] < 0) {
+            lt[from] = new RoaringBitmap();
+            eq[from] = new RoaringBitmap();
+            gt[from] = keys.clone();
+            from++;
+        }
+        while (to > from && (thresholds[to - 1] >> this.sliceSize) != 0) {
+            to--;
+            lt[to] = keys.clone();
+            eq[to] = new RoaringBitmap();
+            gt[to] = new RoaringBitmap();
+        }
+        if (from == to) {
+            return;
+        }
+        for (int t = from; t < to; t++) {
+            lt[t] = new RoaringBitmap();
+            gt[t] = new RoaringBitmap();
+        }
+        // 分组：组内比较值在已遍历切片上的前缀相同，groupStart 为每组第一个比较值
+        int[] groupStart = new int[]{from};
+        RoaringBitmap[] groupEq = new RoaringBitmap[]{keys};
+        int groupCount = 1;
+        for (int i = this.sliceSize - 1; i >= 0; i--) {
+            int[] nextStart = new int[to - from];
+            RoaringBitmap[] nextEq = new RoaringBitmap[to - from];
+            int nextCount = 0;
+            for (int g = 0; g < groupCount; g++) {
+                int start = groupStart[g];
+                int end = g + 1 < groupCount ? groupStart[g + 1] : to;
+                // 组内第 i 位为 0 的比较值在前，为 1 的在后
+                int split = start;
+                while (split < end && ((thresholds[split] >> i) & 1) == 0) {
+                    split++;
+                }
+                RoaringBitmap EQ = groupEq[g];
+                RoaringBitmap zero = RoaringBitmap.andNot(EQ, this.slices[i]);
+                RoaringBitmap one = RoaringBitmap.and(EQ, this.slices[i]);
+                for (int t = start; t < split; t++) {
+                    gt[t].or(one);
+                }
+                for (int t = split; t < end; t++) {
+                    lt[t].or(zero);
+                }
+                if (start < split) {
+                    nextStart[nextCount] = start;
+                    nextEq[nextCount++] = zero;
+                }
+                if (split < end) {
+                    nextStart[nextCount] = split;
+                    nextEq[nextCount++] = one;
+                }
+            }
+            groupStart = nextStart;
+            groupEq = nextEq;
+            groupCount = nextCount;
+        }
+        // 遍历完所有切片后每组只剩一个比较值
+        for (int g = 0; g < groupCount; g++) {
+            eq[groupStart[g]] = groupEq[g];
+        }
+    }
+
+    /**
+     * 按序列化顺序排列的位图：ebm、切片
+     */
+    private RoaringBitmap[] bitmapsInOrder() {
+        RoaringBitmap[] bitmaps = new RoaringBitmap[this.sliceSize + 1];
+        bitmaps[0] = this.ebm;
+        System.arraycopy(this.slices, 0, bitmaps, 1, this.sliceSize);
+        return bitmaps;
+    }
+
+    private static ByteBuffer serializeBitmap(RoaringBitmap bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 读取头部得到 offset 处位图的长度，只映射该位图后提交反序列化任务
+     * @return 位图序列化的字节数
+     */
+    private static int submitDeserialize(FileChannel channel, long offset, final RoaringBitmap bitmap,
+                                         ExecutorService executor, List<Future<?>> futures) throws IOException {
+        int size = serializedSizeOf(channel, offset);
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                bitmap.deserialize(buffer);
+                return null;
+            }
+        }));
+        return size;
+    }
+
+    /**
+     * 根据 RoaringBitmap 的头部计算 offset 处位图序列化的字节数，只读取头部与最后一个 Run 容器的长度
+     *      cookie 12346：无 Run 容器，之后是容器个数与偏移量
+     *      cookie 12347：高 16 位为容器个数 - 1，之后是 Run 标记位，容器个数不少于 4 时才有偏移量
+     *      每个容器的描述为 key 与基数 - 1 (各 2 字节)，Array 容器 2 * 基数、Bitmap 容器 8192、Run 容器 2 + 4 * Run 个数
+     */
+    private static int serializedSizeOf(FileChannel channel, long offset) throws IOException {
+        int cookie = readFully(channel, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        int headerSize;
+        int size;
+        byte[] runs = null;
+        boolean hasOffsets;
+        if ((cookie & 0xFFFF) == SERIAL_COOKIE) {
+            size = (cookie >>> 16) + 1;
+            runs = new byte[(size + 7) / 8];
+            readFully(channel, offset + 4, runs.length).get(runs);
+            headerSize = 4 + runs.length;
+            hasOffsets = size >= NO_OFFSET_THRESHOLD;
+        } else if (cookie == SERIAL_COOKIE_NO_RUNCONTAINER) {
+            size = readFully(channel, offset + 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            headerSize = 8;
+            hasOffsets = true;
+        } else {
+            throw new IOException("Invalid RoaringBitmap cookie " + cookie + " at " + offset);
+        }
+        if (size == 0) {
+            return headerSize;
+        }
+        ByteBuffer descriptive = readFully(channel, offset + headerSize, 4 * size).order(ByteOrder.LITTLE_ENDIAN);
+        headerSize += 4 * size;
+        // 有偏移量时只需要最后一个容器的位置，否则依次累加(此时最多 3 个容器)
+        int first = 0;
+        long position = offset + headerSize + (hasOffsets ? 4 * size : 0);
+        if (hasOffsets) {
+            first = size - 1;
+            position = offset + (readFully(channel, offset + headerSize + 4L * first, 4)
+                    .order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL);
+        }
+        for (int i = first; i < size; i++) {
+            int cardinality = descriptive.getChar(4 * i + 2) + 1;
+            if (runs != null && (runs[i / 8] & (1 << (i % 8))) != 0) {
+                int runSize = readFully(channel, position, 2).order(ByteOrder.LITTLE_ENDIAN).getChar();
+                position += 2 + 4 * runSize;
+            } else if (cardinality <= ARRAY_CONTAINER_MAX_SIZE) {
+                position += 2 * cardinality;
+            } else {
+                position += BITMAP_CONTAINER_SIZE;
+            }
+        }
+        return (int) (position - offset);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        int size = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return size;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of channel");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                await(future);
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 块对应的满 container 构成的 RoaringBitmap
+     */
+    private static RoaringBitmap chunksOf(char[] chunks) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (char chunk : chunks) {
+            bitmap.add((long) chunk << 16, ((long) chunk + 1) << 16);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 序列化标记位
+     */
+    private int serializeFlags() {
+        return (this.runOptimized ? FLAG_RUN_OPTIMIZED : 0) | (this.serializeZoneMap ? FLAG_ZONE_MAP : 0);
+    }
+
+    private int zoneMapSerializedSizeInBytes() {
+        return this.serializeZoneMap ? zoneMap().serializedSizeInBytes() : 0;
+    }
+
+    /**
+     * Zone Map，尚未构建时根据切片构建
+     *      多个线程同时查询时可能重复构建，结果相同
+     */
+    private ZoneMap zoneMap() {
+        ZoneMap zoneMap = this.zoneMap;
+        if (zoneMap == null) {
+            zoneMap = buildZoneMap();
+            this.zoneMap = zoneMap;
+        }
+        return zoneMap;
+    }
+
+    /**
+     * 根据切片构建 Zone Map
+     *      按块直接在 container 上计算：自高位到低位，块内候选 Key 与切片 container and(最大值)/andNot(最小值)，结果非空时缩小为结果
+     *      不为每个块创建临时位图，也不对整个切片做范围运算
+     */
+    private ZoneMap buildZoneMap() {
+        // 切片的 container 与 ebm 的 container 按块有序，同步前进
+        ContainerPointer[] slicePointers = new ContainerPointer[this.sliceSize];
+        for (int i = 0; i < this.sliceSize; i++) {
+            slicePointers[i] = this.slices[i].getContainerPointer();
+        }
+        ZoneMap zoneMap = new ZoneMap();
+        ContainerPointer pointer = this.ebm.getContainerPointer();
+        for (; pointer.getContainer() != null; pointer.advance()) {
+            char chunk = pointer.key();
+            Container minKeys = pointer.getContainer();
+            Container maxKeys = minKeys;
+            int min = 0;
+            int max = 0;
+            for (int i = this.sliceSize - 1; i >= 0; i--) {
+                ContainerPointer slicePointer = slicePointers[i];
+                while (slicePointer.getContainer() != null && slicePointer.key() < chunk) {
+                    slicePointer.advance();
+                }
+                if (slicePointer.getContainer() == null || slicePointer.key() != chunk) {
+                    continue;
+                }
+                Container slice = slicePointer.getContainer();
+                Container one = maxKeys.and(slice);
+                if (!one.isEmpty()) {
+                    max |= 1 << i;
+                    maxKeys = one;
+                }
+                Container zero = minKeys.andNot(slice);
+                if (zero.isEmpty()) {
+                    min |= 1 << i;
+                } else {
+                    minKeys = zero;
+                }
+            }
+            zoneMap.append(chunk, min, max);
+        }
+        return zoneMap;
+    }
+
+    /**
+     * 通过 Zone Map 缩小最小值/最大值的候选 Key 集合
+     *      以最小值为例：与 keys 相交的块中最大值的最小者为上界，最小值大于上界的块不可能包含最小值
+     *      如果取得最小下界的块 Value 恒定，该值即为结果
+     * @param keys 候选 Key 集合，会被原地修改
+     * @param max 是否查询最大值
+     * @return Zone Map 可以直接确定时返回结果，否则返回 -1
+     */
+    private static int pruneByZoneMap(ZoneMap zoneMap, RoaringBitmap keys, boolean max) {
+        int size = zoneMap.size();
+        boolean[] intersects = new boolean[size];
+        int bound = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        int best = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            intersects[i] = keys.intersects(zoneMap.start(i), zoneMap.end(i));
+            if (!intersects[i]) {
+                continue;
+            }
+            if (max) {
+                bound = Math.max(bound, zoneMap.min(i));
+                best = Math.max(best, zoneMap.max(i));
+            } else {
+                bound = Math.min(bound, zoneMap.max(i));
+                best = Math.min(best, zoneMap.min(i));
+            }
+        }
+        RoaringBitmap skipped = new RoaringBitmap();
+        for (int i = 0; i < size; i++) {
+            if (!intersects[i]) {
+                continue;
+            }
+            if (zoneMap.min(i) == zoneMap.max(i) && zoneMap.min(i) == best) {
+                return best;
+            }
+            if (max ? zoneMap.max(i) < bound : zoneMap.min(i) > bound) {
+                skipped.add(zoneMap.start(i), zoneMap.end(i));
+            }
+        }
+        keys.andNot(skipped);
+        return -1;
+    }
+
+    /**
+     * 通过 Zone Map 计算范围查询
+     *      整体满足条件的块直接拷贝 keys 中的 container，整体不满足的块跳过，剩余的块遍历切片
+     * @param operation 比较操作
+     * @param value 比较值，必须位于切片表示范围内
+     * @param keys 候选 Key 集合
+     * @return 所有块都需要遍历切片时返回 null
+     */
+    private RoaringBitmap zoneMapRange(Operation operation, int value, RoaringBitmap keys) {
+        ZoneMap zoneMap = zoneMap();
+        RoaringBitmap accepted = new RoaringBitmap();
+        RoaringBitmap partial = new RoaringBitmap();
+        boolean decided = false;
+        for (int i = 0; i < zoneMap.size(); i++) {
+            int zone = zoneMap.classify(operation, value, i);
+            if (zone == ZoneMap.ALL) {
+                accepted.add(zoneMap.start(i), zoneMap.end(i));
+                decided = true;
+            } else if (zone == ZoneMap.NONE) {
+                decided = true;
+            } else {
+                partial.add(zoneMap.start(i), zoneMap.end(i));
+            }
+        }
+        if (!decided) {
+            return null;
+        }
+        RoaringBitmap result = RoaringBitmap.and(keys, accepted);
+        RoaringBitmap candidate = RoaringBitmap.and(keys, partial);
+        if (!candidate.isEmpty()) {
+            result.or(oNeilRangeSlices(operation, value, 0, candidate));
+        }
+        return result;
+    }
+
+    /**
+     * 获取稠密切片
+     *      开启稠密切片且 Key 空间足够稠密时展开 ebm 与切片，之后随 put/remove 同步更新
+     * @return 未开启、Key 空间不够稠密或共享 ebm 时返回 null
+     */
+    private DenseSlices denseSlices() {
+        if (this.dense == null && this.denseSlicesEnabled && !this.sharedEbm && DenseSlices.isDense(this.ebm)) {
+            this.dense = DenseSlices.build(this.ebm, this.slices, this.sliceSize);
+        }
+        return this.dense;
+    }
+
+    /**
+     * 共享 ebm 的列(BsiTable 的列)只能通过 BsiTable 修改，直接修改会破坏共享的 ebm
+     */
+    private void checkNotShared() {
+        if (this.sharedEbm) {
+            throw new IllegalStateException("Column of BsiTable can only be modified through BsiTable");
+        }
+    }
+
+    /**
+     * 删除共享 ebm 中的 Key，不修改 ebm
+     *      共享 ebm 时由 BsiTable 统一维护 ebm，调用前 Key 已经从 ebm 中删除
+     *      块内 Key 全部删除时移除块的 Zone Map，删除的 Value 等于最小值/最大值时根据切片重新计算
+     * @param key
+     */
+    void removeShared(int key) {
+        int value = 0;
+        for (int i = 0; i < this.sliceSize; i += 1) {
+            if (this.slices[i].checkedRemove(key)) {
+                value |= (1 << i);
+            }
+        }
+        long chunkStart = Integer.toUnsignedLong(key) & ~0xFFFFL;
+        if (this.zoneMap != null && !this.ebm.intersects(chunkStart, chunkStart + 0x10000L)) {
+            this.zoneMap.removeChunk(key);
+        }
+        this.chunkVersions.touch(key, ++this.version);
+        if (value == this.minValue || value == this.maxValue) {
+            refreshMinMax();
+        }
+    }
+
+    /**
+     * 指定 Key 的 Value 全部加 1
+     *      逐个切片计算进位，最多 sliceSize + 1 次位图运算，Zone Map 中涉及的块最大值加 1
+     * @param keys Key 集合，必须是 ebm 的子集
+     */
+    void increment(RoaringBitmap keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        RoaringBitmap carry = keys.clone();
+        for (int i = 0; i < this.sliceSize && !carry.isEmpty(); i++) {
+            RoaringBitmap next = RoaringBitmap.and(this.slices[i], carry);
+            this.slices[i].xor(carry);
+            carry = next;
+        }
+        if (!carry.isEmpty()) {
+            resize(this.sliceSize + 1);
+            this.slices[this.sliceSize - 1].or(carry);
+        }
+        long version = ++this.version;
+        ZoneMap zoneMap = this.zoneMap;
+        PeekableIntIterator iterator = keys.getIntIterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            char chunk = (char) (key >>> 16);
+            if (zoneMap != null) {
+                int index = zoneMap.indexOf(chunk);
+                zoneMap.set(chunk, zoneMap.min(index), zoneMap.max(index) + 1);
+            }
+            this.chunkVersions.touchChunk(chunk, version);
+            if (chunk == 0xFFFF) {
+                break;
+            }
+            iterator.advanceIfNeeded((chunk + 1) << 16);
+        }
+        this.dense = null;
+        refreshMinMax();
+    }
+
+    /**
+     * 指定 Key 集合中存在于 BSI 的 Key 个数，不克隆 ebm
+     */
+    long andCardinality(RoaringBitmap rbm) {
+        return RoaringBitmap.andCardinality(this.ebm, rbm);
+    }
+
+    /**
+     * 估算 Value 小于 value 的占比
+     * @param ones 每个切片取 1 的占比
+     */
+    private static double estimateLessThan(double[] ones, int value) {
+        if (value <= 0) {
+            return 0.0;
+        }
+        if ((value >> ones.length) != 0) {
+            return 1.0;
+        }
+        double result = 0.0;
+        double equal = 1.0;
+        for (int i = ones.length - 1; i >= 0; i--) {
+            if (((value >> i) & 1) == 1) {
+                result += equal * (1 - ones[i]);
+                equal *= ones[i];
+            } else {
+                equal *= 1 - ones[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 估算 Value 等于 value 的占比
+     * @param ones 每个切片取 1 的占比
+     */
+    private static double estimateEqual(double[] ones, int value) {
+        if (value < 0 || (value >> ones.length) != 0) {
+            return 0.0;
+        }
+        double result = 1.0;
+        for (int i = ones.length - 1; i >= 0; i--) {
+            result *= ((value >> i) & 1) == 1 ? ones[i] : 1 - ones[i];
+        }
+        return result;
+    }
+
+    /**
+     * 不同 Value 个数的递归实现
+     *      candidate 中的 Key 在高于 sliceIndex 的切片上取值相同，第 sliceIndex 位全部相同时不拆分
+     * @param sliceIndex 当前切片
+     * @param candidate 当前前缀对应的 Key 集合
+     * @param cardinality candidate 的 Key 个数
+     */
+    private long distinctCountInternal(int sliceIndex, RoaringBitmap candidate, long cardinality) {
+        if (sliceIndex < 0 || cardinality == 1) {
+            return 1L;
+        }
+        long ones = RoaringBitmap.andCardinality(candidate, this.slices[sliceIndex]);
+        if (ones == 0 || ones == cardinality) {
+            return distinctCountInternal(sliceIndex - 1, candidate, cardinality);
+        }
+        return distinctCountInternal(sliceIndex - 1, RoaringBitmap.and(candidate, this.slices[sliceIndex]), ones)
+                + distinctCountInternal(sliceIndex - 1, RoaringBitmap.andNot(candidate, this.slices[sliceIndex]), cardinality - ones);
+    }
+
+    /**
+     * 直方图递归实现
+     *      candidate 中的 Key 在高于 sliceIndex 的切片上取值相同，对应取值区间 [low, low + 2^(sliceIndex+1) - 1]
+     *      区间完全落在某个分桶内时整体计入该分桶，完全落在分桶之外时直接丢弃，否则按第 sliceIndex 位拆分
+     *      低于 lowestSlice 的切片不再拆分，跨越边界的候选集合计入所有相交分桶的上界
+     * @param sliceIndex 当前切片
+     * @param low 当前前缀对应的最小取值
+     * @param candidate 当前前缀对应的 Key 集合
+     * @param boundaries 分桶边界
+     * @param counts 分桶计数，为 null 时不统计
+     * @param bitmaps 分桶 Key 集合，为 null 时不收集
+     * @param lowestSlice 最低拆分的切片
+     * @param possibleCounts 未能确定分桶的 Key 计数，为 null 时不统计
+     */
+    private void histogramInternal(int sliceIndex, long low, RoaringBitmap candidate, int[] boundaries,
+                                   long[] counts, RoaringBitmap[] bitmaps,
+                                   int lowestSlice, long[] possibleCounts) {
+        long high = low + (1L << (sliceIndex + 1)) - 1;
+        int bucket = bucketOf(boundaries, low, high);
+        if (bucket == BUCKET_OUTSIDE) {
+            return;
+        }
+        if (bucket != BUCKET_SPAN) {
+            if (counts != null) {
+                counts[bucket] += candidate.getLongCardinality();
+            }
+            if (bitmaps != null) {
+                bitmaps[bucket].or(candidate);
+            }
+            return;
+        }
+        if (sliceIndex < lowestSlice) {
+            // 精度之外 计入所有相交分桶的上界
+            long cardinality = candidate.getLongCardinality();
+            int first = low < boundaries[0] ? 0 : bucketOf(boundaries, low, low);
+            for (int i = first; i < possibleCounts.length && boundaries[i] <= high; i++) {
+                possibleCounts[i] += cardinality;
+            }
+            return;
+        }
+        // 跨越分桶边界 按第 sliceIndex 位拆分候选集合
+        RoaringBitmap zero = RoaringBitmap.andNot(candidate, this.slices[sliceIndex]);
+        if (!zero.isEmpty()) {
+            histogramInternal(sliceIndex - 1, low, zero, boundaries, counts, bitmaps,
+                    lowestSlice, possibleCounts);
+        }
+        RoaringBitmap one = RoaringBitmap.and(candidate, this.slices[sliceIndex]);
+        if (!one.isEmpty()) {
+            histogramInternal(sliceIndex - 1, low + (1L << sliceIndex), one, boundaries, counts, bitmaps,
+                    lowestSlice, possibleCounts);
+        }
+    }
+
+    /**
+     * 只计算高 topSlices 个切片时最低遍历的切片
+     */
+    private int lowestEvaluatedSlice(int topSlices) {
+        if (topSlices < 0) {
+            throw new IllegalArgumentException("Top slices should be non-negative");
+        }
+        return Math.max(0, this.sliceSize - topSlices);
+    }
+
+    /**
+     * 高位前缀 (value >> lowestSlice) 位于 [lowPrefix, highPrefix] 区间内的 Key
+     */
+    private RoaringBitmap prefixRange(long lowPrefix, long highPrefix, int lowestSlice) {
+        long maxPrefix = (1L << (this.sliceSize - lowestSlice)) - 1;
+        lowPrefix = Math.max(lowPrefix, 0L);
+        highPrefix = Math.min(highPrefix, maxPrefix);
+        if (lowPrefix > highPrefix) {
+            return new RoaringBitmap();
+        }
+        RoaringBitmap resultBitmap = oNeilRange(Operation.GE, (int) (lowPrefix << lowestSlice), lowestSlice);
+        resultBitmap.and(oNeilRange(Operation.LE, (int) (highPrefix << lowestSlice), lowestSlice));
+        return resultBitmap;
+    }
+
+    /**
+     * 查找取值区间 [low, high] 所在的分桶
+     * @return 分桶下标；完全落在分桶之外返回 BUCKET_OUTSIDE；跨越分桶边界返回 BUCKET_SPAN
+     */
+    private static int bucketOf(int[] boundaries, long low, long high) {
+        int last = boundaries.length - 1;
+        if (high < boundaries[0] || low >= boundaries[last]) {
+            return BUCKET_OUTSIDE;
+        }
+        if (low < boundaries[0]) {
+            return BUCKET_SPAN;
+        }
+        // 最后一个不大于 low 的边界即为 low 所在分桶
+        int pos = Arrays.binarySearch(boundaries, (int) low);
+        int bucket = pos >= 0 ? pos : -pos - 2;
+        return high < boundaries[bucket + 1] ? bucket : BUCKET_SPAN;
+    }
+
+    /**
+     * 校验分桶边界：至少两个且严格递增
+     */
+    private static void checkBucketBoundaries(int[] boundaries) {
+        if (null == boundaries || boundaries.length < 2) {
+            throw new IllegalArgumentException("Bucket boundaries should contain at least two values");
+        }
+        for (int i = 1; i < boundaries.length; i++) {
+            if (boundaries[i - 1] >= boundaries[i]) {
+                throw new IllegalArgumentException("Bucket boundaries should be strictly increasing");
+            }
+        }
+    }
+
     /**
      * oNeil 范围查询算法实现
      * @param operation
@@ -629,37 +2319,127 @@ public class Rbm32BitSliceIndex implements BitSliceIndex<Integer, Integer> {
      * @return
      */
     private RoaringBitmap oNeilRange(Operation operation, Integer value) {
+        return oNeilRange(operation, value, 0, this.ebm);
+    }
+
+    /**
+     * oNeil 范围查询算法实现
+     *      只遍历不低于 lowestSlice 的切片，即只比较 value >> lowestSlice 前缀
+     * @param operation
+     * @param value
+     * @param lowestSlice 最低遍历的切片
+     * @return
+     */
+    private RoaringBitmap oNeilRange(Operation operation, Integer value, int lowestSlice) {
+        return oNeilRange(operation, value, lowestSlice, this.ebm);
+    }
+
+    /**
+     * oNeil 范围查询算法实现
+     *      只在 keys 范围内查询，keys 必须是 ebm 的子集
+     * @param operation
+     * @param value
+     * @param lowestSlice 最低遍历的切片
+     * @param keys 候选 Key 集合
+     * @return
+     */
+    private RoaringBitmap oNeilRange(Operation operation, Integer value, int lowestSlice, RoaringBitmap keys) {
+        if (value >= 0 && (value >> this.sliceSize) == 0) {
+            if (lowestSlice == 0) {
+                // 通过 Zone Map 跳过或直接接受整个块
+                RoaringBitmap result = zoneMapRange(operation, value, keys);
+                if (result != null) {
+                    return result;
+                }
+            }
+            if (keys == this.ebm) {
+                // Key 空间稠密时按字计算
+                DenseSlices denseSlices = denseSlices();
+                if (denseSlices != null) {
+                    return denseSlices.range(operation, value, lowestSlice);
+                }
+            }
+        }
+        return oNeilRangeSlices(operation, value, lowestSlice, keys);
+    }
+
+    /**
+     * oNeil 范围查询算法实现 遍历切片
+     * @param operation
+     * @param value
+     * @param lowestSlice 最低遍历的切片
+     * @param keys 候选 Key 集合
+     * @return
+     */
+    private RoaringBitmap oNeilRangeSlices(Operation operation, Integer value, int lowestSlice, RoaringBitmap keys) {
         RoaringBitmap GT = new RoaringBitmap();
         RoaringBitmap LT = new RoaringBitmap();
-        RoaringBitmap EQ = this.ebm; // 不需要 this.ebm.clone()
-        // 从高位到低位开始遍历
-        for (int i = this.sliceSize - 1; i >= 0; i--) {
-            // 第 i 位的值 1或者0
-            int bit = (value >> i) & 1;
-            if (bit == 1) {
-                LT = RoaringBitmap.or(LT, RoaringBitmap.andNot(EQ, this.slices[i]));
-                EQ = RoaringBitmap.and(EQ, this.slices[i]);
-            } else {
-                GT = RoaringBitmap.or(GT, RoaringBitmap.and(EQ, this.slices[i]));
-                EQ = RoaringBitmap.andNot(EQ, this.slices[i]);
+        RoaringBitmap EQ = keys; // 不需要 keys.clone()
+        if (value < 0) {
+            // 所有 Value 都大于 value
+            GT = keys;
+            EQ = new RoaringBitmap();
+        } else if ((value >> this.sliceSize) != 0) {
+            // value 超出切片表示范围，所有 Value 都小于 value
+            LT = keys;
+            EQ = new RoaringBitmap();
+        } else {
+            // 从高位到低位开始遍历
+            for (int i = this.sliceSize - 1; i >= lowestSlice; i--) {
+                // 第 i 位的值 1或者0
+                int bit = (value >> i) & 1;
+                if (bit == 1) {
+                    LT = RoaringBitmap.or(LT, RoaringBitmap.andNot(EQ, this.slices[i]));
+                    EQ = RoaringBitmap.and(EQ, this.slices[i]);
+                } else {
+                    GT = RoaringBitmap.or(GT, RoaringBitmap.and(EQ, this.slices[i]));
+                    EQ = RoaringBitmap.andNot(EQ, this.slices[i]);
+                }
             }
         }
 
+        RoaringBitmap result;
         switch (operation) {
             case EQ:
-                return EQ;
+                result = EQ;
+                break;
             case NEQ:
-                return RoaringBitmap.andNot(this.ebm, EQ);
+                result = RoaringBitmap.andNot(keys, EQ);
+                break;
             case GT:
-                return GT;
+                result = GT;
+                break;
             case LT:
-                return LT;
+                result = LT;
+                break;
             case LE:
-                return RoaringBitmap.or(LT, EQ);
+                result = RoaringBitmap.or(LT, EQ);
+                break;
             case GE:
-                return RoaringBitmap.or(GT, EQ);
+                result = RoaringBitmap.or(GT, EQ);
+                break;
             default:
                 throw new IllegalArgumentException("");
         }
+        // 不能把候选集合本身(可能是 ebm)返回给调用方
+        return result == keys ? keys.clone() : result;
+    }
+
+    /**
+     * topFrequentValues 的候选集合
+     *      keys 中的 Key 在高于 sliceIndex 的切片上取值相同，low 为该前缀对应的最小取值
+     */
+    private static final class ValueGroup {
+        private final int sliceIndex;
+        private final int low;
+        private final RoaringBitmap keys;
+        private final long cardinality;
+
+        private ValueGroup(int sliceIndex, int low, RoaringBitmap keys, long cardinality) {
+            this.sliceIndex = sliceIndex;
+            this.low = low;
+            this.keys = keys;
+            this.cardinality = cardinality;
+        }
     }
 }
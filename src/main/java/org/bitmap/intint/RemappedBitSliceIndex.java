@@ -0,0 +1,400 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.bitmap.core.Operation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * 功能：RemappedBitSliceIndex 整数 Key 重映射
+ *         外部 Key 通过 KeyDictionary 映射为连续的内部序号，Rbm32BitSliceIndex 中只保存序号
+ *         外部 Key 是分布在整个 int 范围内的哈希 ID 时，每个切片都由成千上万个很小的 array container 组成；
+ *         映射为 0..n-1 的序号后，切片变为少量 bitmap/run container，内存更小，切片运算更快，并且可以使用稠密切片(setDenseSlices)
+ *
+ *         适用场景：
+ *           Key 稀疏且分散(每 65536 个 Key 的块内平均不到几百个 Key)，并且读多写少
+ *           查询结果主要用于计数、求和、与其他结果组合，或只需要遍历部分 Key
+ *         不适用场景：
+ *           Key 本身已经稠密或按块聚集(例如自增 ID)，字典只增加开销
+ *           每次查询都需要完整的外部 Key RoaringBitmap，转换的代价(逐个查表后排序)会抵消切片运算的收益
+ *         字典每个 Key 约占 16~20 字节(哈希表两个 int 数组，负载因子 0.5，以及反向数组)，
+ *         需要与切片节省的内存一起衡量，对比数据见 MacroBenchmark --remapped=true(benchmark profile 中为 -Dbenchmark.remapped=true)
+ */
+public class RemappedBitSliceIndex implements BitSliceIndex<Integer, Integer> {
+    private KeyDictionary dictionary;
+    private Rbm32BitSliceIndex bsi;
+
+    public RemappedBitSliceIndex() {
+        this.dictionary = new KeyDictionary();
+        this.bsi = new Rbm32BitSliceIndex();
+    }
+
+    /**
+     * 构造器
+     * @param expectedSize 预计的 Key 个数，用于预分配字典
+     */
+    public RemappedBitSliceIndex(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size should be non-negative");
+        }
+        this.dictionary = new KeyDictionary(expectedSize);
+        this.bsi = new Rbm32BitSliceIndex();
+    }
+
+    @Override
+    public int sliceSize() {
+        return bsi.sliceSize();
+    }
+
+    @Override
+    public long getLongCardinality() {
+        return bsi.getLongCardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bsi.isEmpty();
+    }
+
+    @Override
+    public RemappedBitSliceIndex clone() {
+        RemappedBitSliceIndex bitSliceIndex = new RemappedBitSliceIndex();
+        bitSliceIndex.dictionary = this.dictionary.copy();
+        bitSliceIndex.bsi = this.bsi.clone();
+        return bitSliceIndex;
+    }
+
+    @Override
+    public void put(Integer key, Integer value) {
+        bsi.put(dictionary.getOrAdd(key), value);
+    }
+
+    /**
+     * 逐个 Key 写入，已存在的 Key 被覆盖
+     * @param otherBsi
+     */
+    @Override
+    public void putAll(BitSliceIndex otherBsi) {
+        if (null == otherBsi || otherBsi.isEmpty()) {
+            return;
+        }
+        IntIterator iterator = otherBsi.keys().getIntIterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            this.put(key, (Integer) otherBsi.get(key));
+        }
+    }
+
+    /**
+     * 清空所有的 Key，同时清空字典
+     */
+    @Override
+    public void clear() {
+        this.dictionary = new KeyDictionary();
+        this.bsi.clear();
+    }
+
+    /**
+     * 删除指定 key 的 value，字典中的序号保留
+     * @param key 删除指定的 key
+     * @return 如果指定 key 关联的 value 不存在返回 -1，否则返回 value
+     */
+    @Override
+    public Integer remove(Integer key) {
+        int ordinal = dictionary.ordinal(key);
+        if (ordinal < 0) {
+            return -1;
+        }
+        return bsi.remove(ordinal);
+    }
+
+    /**
+     * 为指定的 Key 集合关联同一个 Value
+     *      新 Key 逐个加入字典，之后在序号切片上批量写入
+     * @param keys Key 集合
+     * @param value 关联的 Value
+     */
+    @Override
+    public void setValue(RoaringBitmap keys, Integer value) {
+        if (null == keys || keys.isEmpty()) {
+            bsi.setValue(keys, value);
+            return;
+        }
+        RoaringBitmap ordinals = new RoaringBitmap();
+        IntIterator iterator = keys.getIntIterator();
+        while (iterator.hasNext()) {
+            ordinals.add(dictionary.getOrAdd(iterator.next()));
+        }
+        bsi.setValue(ordinals, value);
+    }
+
+    /**
+     * 删除指定 Key 集合的 value，字典中的序号保留
+     * @param keys 删除的 Key 集合
+     */
+    @Override
+    public void removeAll(RoaringBitmap keys) {
+        if (null == keys) {
+            return;
+        }
+        bsi.removeAll(dictionary.toOrdinals(keys));
+    }
+
+    /**
+     * 只保留指定 Key 集合的 value，字典中的序号保留
+     * @param keys 保留的 Key 集合
+     */
+    @Override
+    public void retainAll(RoaringBitmap keys) {
+        if (null == keys) {
+            throw new IllegalArgumentException("Keys should not be null");
+        }
+        bsi.retainAll(dictionary.toOrdinals(keys));
+    }
+
+    @Override
+    public boolean containsKey(Integer key) {
+        int ordinal = dictionary.ordinal(key);
+        return ordinal >= 0 && bsi.containsKey(ordinal);
+    }
+
+    @Override
+    public boolean containsValue(Integer value) {
+        return bsi.containsValue(value);
+    }
+
+    @Override
+    public Integer get(Integer key) {
+        int ordinal = dictionary.ordinal(key);
+        if (ordinal < 0) {
+            return -1;
+        }
+        return bsi.get(ordinal);
+    }
+
+    @Override
+    public RoaringBitmap keys() {
+        return dictionary.toKeys(bsi.keys());
+    }
+
+    @Override
+    public Collection<Integer> values() {
+        throw new RuntimeException("dont support keys");
+    }
+
+    @Override
+    public Integer maxValue() {
+        return bsi.maxValue();
+    }
+
+    @Override
+    public Integer maxValue(RoaringBitmap rbm) {
+        if (null == rbm) {
+            return -1;
+        }
+        return bsi.maxValue(dictionary.toOrdinals(rbm));
+    }
+
+    public Integer maxValue(RemappedKeys keys) {
+        return bsi.maxValue(ordinalsOf(keys));
+    }
+
+    @Override
+    public Integer minValue() {
+        return bsi.minValue();
+    }
+
+    @Override
+    public Integer minValue(RoaringBitmap rbm) {
+        if (null == rbm) {
+            return -1;
+        }
+        return bsi.minValue(dictionary.toOrdinals(rbm));
+    }
+
+    public Integer minValue(RemappedKeys keys) {
+        return bsi.minValue(ordinalsOf(keys));
+    }
+
+    @Override
+    public RoaringBitmap eq(Integer value) {
+        return compare(Operation.EQ, value, 0, null).toRoaringBitmap();
+    }
+
+    @Override
+    public RoaringBitmap neq(Integer value) {
+        return compare(Operation.NEQ, value, 0, null).toRoaringBitmap();
+    }
+
+    @Override
+    public RoaringBitmap le(Integer value) {
+        return compare(Operation.LE, value, 0, null).toRoaringBitmap();
+    }
+
+    @Override
+    public RoaringBitmap lt(Integer value) {
+        return compare(Operation.LT, value, 0, null).toRoaringBitmap();
+    }
+
+    @Override
+    public RoaringBitmap ge(Integer value) {
+        return compare(Operation.GE, value, 0, null).toRoaringBitmap();
+    }
+
+    @Override
+    public RoaringBitmap gt(Integer value) {
+        return compare(Operation.GT, value, 0, null).toRoaringBitmap();
+    }
+
+    @Override
+    public RoaringBitmap between(Integer lower, Integer upper) {
+        return compare(Operation.RANGE, lower, upper, null).toRoaringBitmap();
+    }
+
+    /**
+     * 范围查询，结果延迟转换为外部 Key
+     * @param operation 比较操作
+     * @param startOrValue 比较值，RANGE 时为下限
+     * @param end RANGE 时为上限，其他操作忽略
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 满足条件的 Key
+     */
+    public RemappedKeys compare(Operation operation, int startOrValue, int end, RemappedKeys foundSet) {
+        RoaringBitmap ordinals = null == foundSet ? null : ordinalsOf(foundSet);
+        return new RemappedKeys(dictionary, bsi.compare(operation, startOrValue, end, ordinals));
+    }
+
+    /**
+     * 所有 Key，结果延迟转换为外部 Key
+     */
+    public RemappedKeys remappedKeys() {
+        return new RemappedKeys(dictionary, bsi.keys());
+    }
+
+    @Override
+    public Long sum(RoaringBitmap rbm) {
+        if (null == rbm || rbm.isEmpty()) {
+            return 0L;
+        }
+        return bsi.sum(dictionary.toOrdinals(rbm));
+    }
+
+    public Long sum(RemappedKeys keys) {
+        return bsi.sum(ordinalsOf(keys));
+    }
+
+    /**
+     * 压缩字典
+     *      删除的 Key 仍然占用序号，删除较多时按序号顺序重新分配连续序号并重建切片
+     *      压缩后之前返回的 RemappedKeys 失效
+     */
+    public void compact() {
+        RoaringBitmap ordinals = bsi.keys();
+        if (ordinals.getLongCardinality() == dictionary.size()) {
+            return;
+        }
+        KeyDictionary newDictionary = new KeyDictionary(ordinals.getCardinality());
+        Rbm32BitSliceIndex newBsi = new Rbm32BitSliceIndex();
+        newBsi.setDenseSlices(bsi.isDenseSlices());
+        IntIterator iterator = ordinals.getIntIterator();
+        while (iterator.hasNext()) {
+            int ordinal = iterator.next();
+            newBsi.put(newDictionary.getOrAdd(dictionary.key(ordinal)), bsi.get(ordinal));
+        }
+        this.dictionary = newDictionary;
+        this.bsi = newBsi;
+    }
+
+    /**
+     * 序列化该 BSI 所需的字节大小
+     * @return 以字节为单位的大小
+     */
+    @Override
+    public int serializedSizeInBytes() {
+        // 字典大小(4)、按序号排列的外部 Key(4 * size)、BSI
+        return 4 + 4 * dictionary.size() + bsi.serializedSizeInBytes();
+    }
+
+    @Override
+    public void serialize(ByteBuffer buffer) throws IOException {
+        buffer.putInt(dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            buffer.putInt(dictionary.key(i));
+        }
+        bsi.serialize(buffer);
+    }
+
+    @Override
+    public void deserialize(ByteBuffer buffer) throws IOException {
+        int size = buffer.getInt();
+        KeyDictionary dictionary = new KeyDictionary(size);
+        for (int i = 0; i < size; i++) {
+            dictionary.getOrAdd(buffer.getInt());
+        }
+        this.dictionary = dictionary;
+        this.bsi.deserialize(buffer);
+    }
+
+    @Override
+    public void serialize(DataOutput output) throws IOException {
+        output.writeInt(dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            output.writeInt(dictionary.key(i));
+        }
+        bsi.serialize(output);
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        int size = in.readInt();
+        KeyDictionary dictionary = new KeyDictionary(size);
+        for (int i = 0; i < size; i++) {
+            dictionary.getOrAdd(in.readInt());
+        }
+        this.dictionary = dictionary;
+        this.bsi.deserialize(in);
+    }
+
+    @Override
+    public byte[] serialize() throws IOException {
+        byte[] bytes = new byte[this.serializedSizeInBytes()];
+        this.serialize(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    @Override
+    public void deserialize(byte[] bytes) throws IOException {
+        this.deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void runOptimize() {
+        bsi.runOptimize();
+    }
+
+    /**
+     * 是否使用稠密切片，见 Rbm32BitSliceIndex.setDenseSlices
+     *      序号连续，删除不多时内部 BSI 的 Key 空间总是稠密的
+     * @param denseSlices 是否使用稠密切片
+     */
+    public void setDenseSlices(boolean denseSlices) {
+        bsi.setDenseSlices(denseSlices);
+    }
+
+    public boolean isDenseSlices() {
+        return bsi.isDenseSlices();
+    }
+
+    private RoaringBitmap ordinalsOf(RemappedKeys keys) {
+        if (null == keys) {
+            throw new IllegalArgumentException("Keys should not be null");
+        }
+        return keys.ordinals(dictionary);
+    }
+}
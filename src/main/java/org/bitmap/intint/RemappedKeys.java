@@ -0,0 +1,100 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * 功能：RemappedBitSliceIndex 的查询结果
+ *         内部保存序号集合，只有调用 iterator/toRoaringBitmap 时才转换为外部 Key
+ *         多个结果之间的 and/or/andNot 以及作为 sum/minValue/maxValue/compare 的 Key 集合时直接使用序号，不做转换
+ */
+public class RemappedKeys {
+    private final KeyDictionary dictionary;
+    private final RoaringBitmap ordinals;
+
+    RemappedKeys(KeyDictionary dictionary, RoaringBitmap ordinals) {
+        this.dictionary = dictionary;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Key 的个数
+     */
+    public long getLongCardinality() {
+        return ordinals.getLongCardinality();
+    }
+
+    public boolean isEmpty() {
+        return ordinals.isEmpty();
+    }
+
+    /**
+     * 是否包含指定的外部 Key
+     */
+    public boolean contains(int key) {
+        int ordinal = dictionary.ordinal(key);
+        return ordinal >= 0 && ordinals.contains(ordinal);
+    }
+
+    /**
+     * 交集
+     */
+    public RemappedKeys and(RemappedKeys other) {
+        return new RemappedKeys(dictionary, RoaringBitmap.and(ordinals, other.ordinals(dictionary)));
+    }
+
+    /**
+     * 并集
+     */
+    public RemappedKeys or(RemappedKeys other) {
+        return new RemappedKeys(dictionary, RoaringBitmap.or(ordinals, other.ordinals(dictionary)));
+    }
+
+    /**
+     * 差集
+     */
+    public RemappedKeys andNot(RemappedKeys other) {
+        return new RemappedKeys(dictionary, RoaringBitmap.andNot(ordinals, other.ordinals(dictionary)));
+    }
+
+    /**
+     * 逐个转换的外部 Key 迭代器，按序号(写入)顺序而不是 Key 大小顺序
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        final IntIterator iterator = ordinals.getIntIterator();
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return dictionary.key(iterator.next());
+            }
+        };
+    }
+
+    /**
+     * 一次性转换为外部 Key 构成的 RoaringBitmap
+     */
+    public RoaringBitmap toRoaringBitmap() {
+        return dictionary.toKeys(ordinals);
+    }
+
+    /**
+     * 校验是否属于指定的字典并返回序号集合
+     */
+    RoaringBitmap ordinals(KeyDictionary expected) {
+        if (expected != dictionary) {
+            throw new IllegalArgumentException("Keys should come from the same RemappedBitSliceIndex");
+        }
+        return ordinals;
+    }
+}
@@ -0,0 +1,189 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * 功能：按 Value 排序遍历 Key 的惰性迭代器
+ *         自高位到低位按切片拆分候选集合(类似基数划分)，按 Value 顺序依次输出取值相同的 Key 分组，分组内 Key 升序
+ *         待处理的兄弟分支保存在栈中，栈深度不超过切片个数 + 1，内存与 Key 个数无关
+ *         skip 直接按分支基数整体跳过，不会拆分分页范围之外的分组
+ *         迭代期间不能修改 BSI
+ */
+public class SortedKeyIterator implements PrimitiveIterator.OfInt {
+    private final RoaringBitmap[] slices;
+    private final boolean descending;
+    // 待处理分支栈：Key 集合、下一个待拆分的切片、已确定的高位取值、基数
+    private final RoaringBitmap[] stackKeys;
+    private final int[] stackSlice;
+    private final int[] stackValue;
+    private final long[] stackCardinality;
+    private int top = 0;
+    // 当前输出的分组
+    private RoaringBitmap group;
+    private PeekableIntIterator groupIterator;
+    private int groupValue;
+    private long groupCardinality;
+    private long groupPosition;
+    // 最近一次返回的 Key 对应的 Value
+    private int lastValue = -1;
+    private long splitCount = 0;
+
+    SortedKeyIterator(RoaringBitmap[] slices, int sliceSize, RoaringBitmap keys, boolean descending) {
+        this.slices = slices;
+        this.descending = descending;
+        this.stackKeys = new RoaringBitmap[sliceSize + 1];
+        this.stackSlice = new int[sliceSize + 1];
+        this.stackValue = new int[sliceSize + 1];
+        this.stackCardinality = new long[sliceSize + 1];
+        if (null != keys && !keys.isEmpty()) {
+            push(keys, sliceSize - 1, 0, keys.getLongCardinality());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (groupIterator == null || !groupIterator.hasNext()) {
+            if (!nextGroup()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int nextInt() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        groupPosition++;
+        lastValue = groupValue;
+        return groupIterator.next();
+    }
+
+    /**
+     * 最近一次 next 返回的 Key 对应的 Value
+     * @return 尚未调用 next 时返回 -1
+     */
+    public int value() {
+        return lastValue;
+    }
+
+    /**
+     * 跳过 n 个 Key
+     *      每次只拆分栈顶分支一层，基数不超过剩余跳过个数的分支整体丢弃，不再拆分
+     * @param n 跳过的 Key 个数
+     * @return 实际跳过的 Key 个数
+     */
+    public long skip(long n) {
+        long skipped = 0;
+        while (skipped < n) {
+            if (groupIterator != null && groupIterator.hasNext()) {
+                long remaining = groupCardinality - groupPosition;
+                if (n - skipped >= remaining) {
+                    skipped += remaining;
+                    groupIterator = null;
+                } else {
+                    groupPosition += n - skipped;
+                    groupIterator.advanceIfNeeded(group.select((int) groupPosition));
+                    skipped = n;
+                }
+                continue;
+            }
+            if (top == 0) {
+                break;
+            }
+            if (stackCardinality[top - 1] <= n - skipped) {
+                top--;
+                skipped += stackCardinality[top];
+                stackKeys[top] = null;
+                continue;
+            }
+            split();
+        }
+        return skipped;
+    }
+
+    /**
+     * 已拆分的分支个数(每次拆分为一次 and 与一次 andNot)，用于观察排序与分页的开销
+     */
+    public long splitCount() {
+        return splitCount;
+    }
+
+    /**
+     * 拆分栈顶分支直到得到一个取值相同的分组
+     * @return 没有剩余分组返回 false
+     */
+    private boolean nextGroup() {
+        while (top > 0) {
+            if (split()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 弹出栈顶分支：取值已确定时作为当前分组，否则按下一个切片拆分为两个分支入栈
+     * @return 得到分组返回 true
+     */
+    private boolean split() {
+        top--;
+        RoaringBitmap keys = stackKeys[top];
+        int slice = stackSlice[top];
+        int value = stackValue[top];
+        long cardinality = stackCardinality[top];
+        stackKeys[top] = null;
+        if (slice < 0 || cardinality == 1) {
+            // 单个 Key 直接补齐剩余低位
+            if (slice >= 0) {
+                int key = keys.first();
+                for (int i = slice; i >= 0; i--) {
+                    if (slices[i].contains(key)) {
+                        value |= 1 << i;
+                    }
+                }
+            }
+            group = keys;
+            groupIterator = keys.getIntIterator();
+            groupValue = value;
+            groupCardinality = cardinality;
+            groupPosition = 0;
+            return true;
+        }
+        splitCount++;
+        RoaringBitmap one = RoaringBitmap.and(keys, slices[slice]);
+        long oneCardinality = one.getLongCardinality();
+        long zeroCardinality = cardinality - oneCardinality;
+        RoaringBitmap zero = zeroCardinality == 0 ? null : RoaringBitmap.andNot(keys, slices[slice]);
+        // 先处理的分支后入栈
+        if (descending) {
+            if (zero != null) {
+                push(zero, slice - 1, value, zeroCardinality);
+            }
+            if (oneCardinality > 0) {
+                push(one, slice - 1, value | (1 << slice), oneCardinality);
+            }
+        } else {
+            if (oneCardinality > 0) {
+                push(one, slice - 1, value | (1 << slice), oneCardinality);
+            }
+            if (zero != null) {
+                push(zero, slice - 1, value, zeroCardinality);
+            }
+        }
+        return false;
+    }
+
+    private void push(RoaringBitmap keys, int slice, int value, long cardinality) {
+        stackKeys[top] = keys;
+        stackSlice[top] = slice;
+        stackValue[top] = value;
+        stackCardinality[top] = cardinality;
+        top++;
+    }
+}
@@ -0,0 +1,435 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.BitSliceIndex;
+import org.bitmap.core.Operation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 功能：StringBitSliceIndex 保序字典编码的字符串 BSI
+ *         字典按字符串自然顺序保存所有出现过的 Value，Value 在字典中的下标(序号)保存在 Rbm32BitSliceIndex 中
+ *         序号与字符串顺序一致，eq/in/范围/前缀查询都转换为序号区间后在切片上计算
+ *         插入新的字符串时，大于它的序号全部加 1(Rbm32BitSliceIndex.increment，约 sliceSize 次位图运算)，不需要重建切片
+ *         适用于国家、套餐、SKU 等取值个数有限的列，字典中不再使用的字符串不会被删除
+ */
+public class StringBitSliceIndex implements BitSliceIndex<Integer, String> {
+    private List<String> dictionary;
+    private Rbm32BitSliceIndex bsi;
+
+    public StringBitSliceIndex() {
+        this.dictionary = new ArrayList<>();
+        this.bsi = new Rbm32BitSliceIndex();
+    }
+
+    /**
+     * 字典中字符串的个数
+     */
+    public int dictionarySize() {
+        return dictionary.size();
+    }
+
+    @Override
+    public int sliceSize() {
+        return bsi.sliceSize();
+    }
+
+    @Override
+    public long getLongCardinality() {
+        return bsi.getLongCardinality();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bsi.isEmpty();
+    }
+
+    @Override
+    public StringBitSliceIndex clone() {
+        StringBitSliceIndex bitSliceIndex = new StringBitSliceIndex();
+        bitSliceIndex.dictionary = new ArrayList<>(this.dictionary);
+        bitSliceIndex.bsi = this.bsi.clone();
+        return bitSliceIndex;
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 Value，新的字符串按顺序插入字典
+     * @param key
+     * @param value
+     */
+    @Override
+    public void put(Integer key, String value) {
+        bsi.put(key, getOrInsert(value));
+    }
+
+    /**
+     * 逐个 Key 写入，非字符串的 Value 通过 String.valueOf 转换
+     * @param otherBsi
+     */
+    @Override
+    public void putAll(BitSliceIndex otherBsi) {
+        if (null == otherBsi || otherBsi.isEmpty()) {
+            return;
+        }
+        IntIterator iterator = otherBsi.keys().getIntIterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            this.put(key, String.valueOf(otherBsi.get(key)));
+        }
+    }
+
+    @Override
+    public void setValue(RoaringBitmap keys, String value) {
+        if (null == keys || keys.isEmpty()) {
+            return;
+        }
+        bsi.setValue(keys, getOrInsert(value));
+    }
+
+    /**
+     * 清空所有的 Key，同时清空字典
+     */
+    @Override
+    public void clear() {
+        this.dictionary = new ArrayList<>();
+        this.bsi.clear();
+    }
+
+    /**
+     * 删除指定 key 的 value，字典保留该字符串
+     * @return 如果指定 key 关联的 value 不存在返回 null，否则返回 value
+     */
+    @Override
+    public String remove(Integer key) {
+        if (!bsi.containsKey(key)) {
+            return null;
+        }
+        return dictionary.get(bsi.remove(key));
+    }
+
+    @Override
+    public void removeAll(RoaringBitmap keys) {
+        bsi.removeAll(keys);
+    }
+
+    @Override
+    public void retainAll(RoaringBitmap keys) {
+        bsi.retainAll(keys);
+    }
+
+    @Override
+    public boolean containsKey(Integer key) {
+        return bsi.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(String value) {
+        return !eq(value).isEmpty();
+    }
+
+    /**
+     * 获取指定 key 关联的 value
+     * @return 不存在时返回 null
+     */
+    @Override
+    public String get(Integer key) {
+        if (!bsi.containsKey(key)) {
+            return null;
+        }
+        return dictionary.get(bsi.get(key));
+    }
+
+    @Override
+    public RoaringBitmap keys() {
+        return bsi.keys();
+    }
+
+    @Override
+    public Collection<Integer> values() {
+        throw new RuntimeException("dont support keys");
+    }
+
+    /**
+     * 字典序最大的 Value，BSI 为空时返回 null
+     */
+    @Override
+    public String maxValue() {
+        return maxValue(bsi.keys());
+    }
+
+    @Override
+    public String maxValue(RoaringBitmap rbm) {
+        int ordinal = bsi.maxValue(rbm);
+        return ordinal < 0 ? null : dictionary.get(ordinal);
+    }
+
+    /**
+     * 字典序最小的 Value，BSI 为空时返回 null
+     */
+    @Override
+    public String minValue() {
+        return minValue(bsi.keys());
+    }
+
+    @Override
+    public String minValue(RoaringBitmap rbm) {
+        int ordinal = bsi.minValue(rbm);
+        return ordinal < 0 ? null : dictionary.get(ordinal);
+    }
+
+    @Override
+    public RoaringBitmap eq(String value) {
+        int ordinal = ordinalOf(value);
+        return ordinal < 0 ? new RoaringBitmap() : bsi.eq(ordinal);
+    }
+
+    @Override
+    public RoaringBitmap neq(String value) {
+        int ordinal = ordinalOf(value);
+        return ordinal < 0 ? bsi.keys() : bsi.neq(ordinal);
+    }
+
+    /**
+     * Value 属于指定字符串集合的 Key (IN)
+     *      序号排序后相邻的序号合并为一个区间
+     * @param values 字符串集合
+     * @return
+     */
+    public RoaringBitmap in(Collection<String> values) {
+        if (null == values) {
+            throw new IllegalArgumentException("Values should not be null");
+        }
+        int[] ordinals = new int[values.size()];
+        int size = 0;
+        for (String value : values) {
+            int ordinal = ordinalOf(value);
+            if (ordinal >= 0) {
+                ordinals[size++] = ordinal;
+            }
+        }
+        Arrays.sort(ordinals, 0, size);
+        RoaringBitmap result = new RoaringBitmap();
+        for (int i = 0; i < size; ) {
+            int start = ordinals[i];
+            int end = start;
+            for (i++; i < size && ordinals[i] <= end + 1; i++) {
+                end = ordinals[i];
+            }
+            result.or(rangeOf(start, end));
+        }
+        return result;
+    }
+
+    @Override
+    public RoaringBitmap le(String value) {
+        return rangeOf(0, upperBound(value) - 1);
+    }
+
+    @Override
+    public RoaringBitmap lt(String value) {
+        return rangeOf(0, lowerBound(value) - 1);
+    }
+
+    @Override
+    public RoaringBitmap ge(String value) {
+        return rangeOf(lowerBound(value), dictionary.size() - 1);
+    }
+
+    @Override
+    public RoaringBitmap gt(String value) {
+        return rangeOf(upperBound(value), dictionary.size() - 1);
+    }
+
+    @Override
+    public RoaringBitmap between(String lower, String upper) {
+        return rangeOf(lowerBound(lower), upperBound(upper) - 1);
+    }
+
+    /**
+     * Value 以指定前缀开头的 Key (LIKE 'prefix%')
+     *      以 prefix 开头的字符串在字典中连续分布
+     * @param prefix 前缀
+     * @return
+     */
+    public RoaringBitmap prefix(String prefix) {
+        int start = lowerBound(prefix);
+        // 二分查找第一个不以 prefix 开头的字符串
+        int low = start;
+        int high = dictionary.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dictionary.get(mid).startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return rangeOf(start, low - 1);
+    }
+
+    /**
+     * 字符串没有求和的含义
+     */
+    @Override
+    public Long sum(RoaringBitmap rbm) {
+        throw new RuntimeException("dont support sum");
+    }
+
+    /**
+     * 序列化该 BSI 所需的字节大小
+     * @return 以字节为单位的大小
+     */
+    @Override
+    public int serializedSizeInBytes() {
+        // 字典大小(4)、每个字符串长度(4)与 UTF-8 字节、bsi
+        int size = 4;
+        for (String value : dictionary) {
+            size += 4 + value.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size + bsi.serializedSizeInBytes();
+    }
+
+    @Override
+    public void serialize(ByteBuffer buffer) throws IOException {
+        buffer.putInt(dictionary.size());
+        for (String value : dictionary) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        bsi.serialize(buffer);
+    }
+
+    @Override
+    public void deserialize(ByteBuffer buffer) throws IOException {
+        int size = buffer.getInt();
+        List<String> dictionary = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        this.dictionary = dictionary;
+        bsi.deserialize(buffer);
+    }
+
+    @Override
+    public void serialize(DataOutput output) throws IOException {
+        output.writeInt(dictionary.size());
+        for (String value : dictionary) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+        bsi.serialize(output);
+    }
+
+    @Override
+    public void deserialize(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<String> dictionary = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        this.dictionary = dictionary;
+        bsi.deserialize(in);
+    }
+
+    @Override
+    public byte[] serialize() throws IOException {
+        byte[] bytes = new byte[this.serializedSizeInBytes()];
+        this.serialize(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    @Override
+    public void deserialize(byte[] bytes) throws IOException {
+        this.deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void runOptimize() {
+        bsi.runOptimize();
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    /**
+     * 字符串的序号，不存在时插入字典并平移之后的序号
+     */
+    private int getOrInsert(String value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value should not be null");
+        }
+        int ordinal = Collections.binarySearch(dictionary, value);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        ordinal = -ordinal - 1;
+        if (ordinal < dictionary.size()) {
+            bsi.increment(bsi.ge(ordinal));
+        }
+        dictionary.add(ordinal, value);
+        return ordinal;
+    }
+
+    /**
+     * 字符串的序号
+     * @return 不存在时返回 -1
+     */
+    private int ordinalOf(String value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value should not be null");
+        }
+        int ordinal = Collections.binarySearch(dictionary, value);
+        return ordinal < 0 ? -1 : ordinal;
+    }
+
+    /**
+     * 第一个大于等于 value 的序号
+     */
+    private int lowerBound(String value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value should not be null");
+        }
+        int ordinal = Collections.binarySearch(dictionary, value);
+        return ordinal < 0 ? -ordinal - 1 : ordinal;
+    }
+
+    /**
+     * 第一个大于 value 的序号
+     */
+    private int upperBound(String value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value should not be null");
+        }
+        int ordinal = Collections.binarySearch(dictionary, value);
+        return ordinal < 0 ? -ordinal - 1 : ordinal + 1;
+    }
+
+    /**
+     * 序号位于 [start, end] 的 Key
+     */
+    private RoaringBitmap rangeOf(int start, int end) {
+        if (start > end) {
+            return new RoaringBitmap();
+        }
+        if (start == 0 && end == dictionary.size() - 1) {
+            return bsi.keys();
+        }
+        return bsi.compare(Operation.RANGE, start, end, null);
+    }
+}
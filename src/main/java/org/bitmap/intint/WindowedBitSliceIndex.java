@@ -0,0 +1,337 @@
+package org.bitmap.intint;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 功能：按时间分段的滑动窗口 BSI
+ *         时间按 intervalMillis 划分为时间段，每个时间段一个 Rbm32BitSliceIndex，最多保留最近 retention 个时间段
+ *         时间段保存在环形数组中，时间推进时过期的时间段直接丢弃(每个时间段 O(1))，内存随 retention 保持稳定
+ *         查询指定最近 intervals 个时间段，只访问这些时间段，多个时间段在 Executor 中并行计算后合并
+ *           同一个 Key 在不同时间段的 Value 视为不同的记录：sum 累加、between 取并集、topK 按 Key 在窗口内的最大值排序
+ *         写入与查询不能并发，查询期间所有时间段只读
+ */
+public class WindowedBitSliceIndex {
+    private static final long NO_INTERVAL = Long.MIN_VALUE;
+
+    private final long intervalMillis;
+    private final int retention;
+    private final Executor executor;
+    // 环形数组：时间段编号 interval 位于 floorMod(interval, retention)
+    private final Rbm32BitSliceIndex[] segments;
+    private final long[] segmentIntervals;
+    // 当前(最新)时间段编号
+    private long current = NO_INTERVAL;
+
+    /**
+     * 构造器
+     * @param intervalMillis 时间段长度，毫秒
+     * @param retention 保留的时间段个数
+     * @param executor 并行查询多个时间段的 Executor
+     */
+    public WindowedBitSliceIndex(long intervalMillis, int retention, Executor executor) {
+        if (intervalMillis <= 0 || retention <= 0) {
+            throw new IllegalArgumentException("Interval and retention should be positive");
+        }
+        if (null == executor) {
+            throw new IllegalArgumentException("Executor should not be null");
+        }
+        this.intervalMillis = intervalMillis;
+        this.retention = retention;
+        this.executor = executor;
+        this.segments = new Rbm32BitSliceIndex[retention];
+        this.segmentIntervals = new long[retention];
+    }
+
+    /**
+     * 构造器 使用 AsyncBitSliceIndex 的默认 Executor
+     */
+    public WindowedBitSliceIndex(long intervalMillis, int retention) {
+        this(intervalMillis, retention, AsyncBitSliceIndex.defaultExecutor());
+    }
+
+    public long intervalMillis() {
+        return intervalMillis;
+    }
+
+    public int retention() {
+        return retention;
+    }
+
+    /**
+     * 保留中的时间段个数
+     */
+    public int segmentCount() {
+        int count = 0;
+        for (Rbm32BitSliceIndex segment : segments) {
+            if (segment != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 推进当前时间，超出保留范围的时间段被丢弃
+     * @param timestamp 当前时间戳，毫秒，早于当前时间段时不做任何操作
+     */
+    public void advance(long timestamp) {
+        long interval = Math.floorDiv(timestamp, intervalMillis);
+        if (current == NO_INTERVAL) {
+            current = interval;
+            return;
+        }
+        if (interval <= current) {
+            return;
+        }
+        if (interval - current >= retention) {
+            Arrays.fill(segments, null);
+        } else {
+            // 新时间段复用的槽位正好是过期的时间段
+            for (long i = current + 1; i <= interval; i++) {
+                segments[slot(i)] = null;
+            }
+        }
+        current = interval;
+    }
+
+    /**
+     * 为指定的 Key 关联指定的 Value，写入 timestamp 所在的时间段
+     *      晚于当前时间段时先推进当前时间，保留范围内的迟到数据写入对应的历史时间段
+     * @param timestamp 时间戳，毫秒
+     * @param key
+     * @param value
+     */
+    public void put(long timestamp, int key, int value) {
+        advance(timestamp);
+        long interval = Math.floorDiv(timestamp, intervalMillis);
+        if (interval <= current - retention) {
+            throw new IllegalArgumentException("Timestamp " + timestamp + " is out of retention");
+        }
+        int slot = slot(interval);
+        if (segments[slot] == null || segmentIntervals[slot] != interval) {
+            segments[slot] = new Rbm32BitSliceIndex();
+            segmentIntervals[slot] = interval;
+        }
+        segments[slot].put(key, value);
+    }
+
+    /**
+     * 获取 timestamp 所在时间段的 BSI，例如对写入完成的时间段调用 runOptimize
+     * @param timestamp 时间戳，毫秒
+     * @return 时间段不存在或已过期时返回 null
+     */
+    public Rbm32BitSliceIndex segment(long timestamp) {
+        long interval = Math.floorDiv(timestamp, intervalMillis);
+        if (current == NO_INTERVAL || interval > current || interval <= current - retention) {
+            return null;
+        }
+        int slot = slot(interval);
+        return segments[slot] != null && segmentIntervals[slot] == interval ? segments[slot] : null;
+    }
+
+    /**
+     * 最近 intervals 个时间段中出现过的 Key
+     */
+    public RoaringBitmap keys(int intervals) {
+        return union(map(intervals, new Function<Rbm32BitSliceIndex, RoaringBitmap>() {
+            @Override
+            public RoaringBitmap apply(Rbm32BitSliceIndex segment) {
+                return segment.keys();
+            }
+        }));
+    }
+
+    /**
+     * 最近 intervals 个时间段中 Value 位于 [lower, upper] 的 Key
+     * @param intervals 时间段个数
+     * @param lower 下限
+     * @param upper 上限
+     * @return 任意时间段满足条件的 Key 的并集
+     */
+    public RoaringBitmap between(int intervals, final int lower, final int upper) {
+        return union(map(intervals, new Function<Rbm32BitSliceIndex, RoaringBitmap>() {
+            @Override
+            public RoaringBitmap apply(Rbm32BitSliceIndex segment) {
+                return segment.between(lower, upper);
+            }
+        }));
+    }
+
+    /**
+     * 最近 intervals 个时间段中指定 Key 的 Value 求和
+     * @param intervals 时间段个数
+     * @param foundSet Key 集合，为 null 时对所有 Key 求和
+     * @return 所有时间段求和之和
+     */
+    public long sum(int intervals, final RoaringBitmap foundSet) {
+        long sum = 0;
+        for (Long segmentSum : map(intervals, new Function<Rbm32BitSliceIndex, Long>() {
+            @Override
+            public Long apply(Rbm32BitSliceIndex segment) {
+                return segment.sum(null == foundSet ? segment.keys() : foundSet);
+            }
+        })) {
+            sum += segmentSum;
+        }
+        return sum;
+    }
+
+    /**
+     * 最近 intervals 个时间段中指定 Key 的最小值
+     * @param intervals 时间段个数
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 没有 Key 时返回 -1
+     */
+    public int minValue(int intervals, final RoaringBitmap foundSet) {
+        int min = -1;
+        for (Integer value : map(intervals, new Function<Rbm32BitSliceIndex, Integer>() {
+            @Override
+            public Integer apply(Rbm32BitSliceIndex segment) {
+                return segment.minValue(null == foundSet ? segment.keys() : foundSet);
+            }
+        })) {
+            if (value >= 0 && (min < 0 || value < min)) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * 最近 intervals 个时间段中指定 Key 的最大值
+     * @param intervals 时间段个数
+     * @param foundSet Key 集合，为 null 时查询所有 Key
+     * @return 没有 Key 时返回 -1
+     */
+    public int maxValue(int intervals, final RoaringBitmap foundSet) {
+        int max = -1;
+        for (Integer value : map(intervals, new Function<Rbm32BitSliceIndex, Integer>() {
+            @Override
+            public Integer apply(Rbm32BitSliceIndex segment) {
+                return segment.maxValue(null == foundSet ? segment.keys() : foundSet);
+            }
+        })) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * 最近 intervals 个时间段中 Value 最大的 k 个 Key
+     *      每个时间段取前 k 个 Key 后合并，Key 在窗口内的最大值一定出现在某个时间段的前 k 个中
+     * @param intervals 时间段个数
+     * @param k Key 个数
+     * @return 按窗口内最大值降序排列的 Key，Value 相同时按 Key 升序
+     */
+    public int[] topK(int intervals, final int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("K should be non-negative");
+        }
+        final Map<Integer, Integer> best = new HashMap<>();
+        for (int[] candidates : map(intervals, new Function<Rbm32BitSliceIndex, int[]>() {
+            @Override
+            public int[] apply(Rbm32BitSliceIndex segment) {
+                int[] keys = segment.keysSortedByValue(segment.keys(), true, 0, k);
+                // key、value 交替存放
+                int[] pairs = new int[keys.length * 2];
+                for (int i = 0; i < keys.length; i++) {
+                    pairs[2 * i] = keys[i];
+                    pairs[2 * i + 1] = segment.get(keys[i]);
+                }
+                return pairs;
+            }
+        })) {
+            for (int i = 0; i < candidates.length; i += 2) {
+                Integer value = best.get(candidates[i]);
+                if (value == null || value < candidates[i + 1]) {
+                    best.put(candidates[i], candidates[i + 1]);
+                }
+            }
+        }
+        List<Integer> keys = new ArrayList<>(best.keySet());
+        Collections.sort(keys, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int order = Integer.compare(best.get(o2), best.get(o1));
+                return order != 0 ? order : Integer.compareUnsigned(o1, o2);
+            }
+        });
+        int[] result = new int[Math.min(k, keys.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = keys.get(i);
+        }
+        return result;
+    }
+
+    //------------------------------------------------------------------------------------------
+    // 内部方法
+
+    private int slot(long interval) {
+        return (int) Math.floorMod(interval, (long) retention);
+    }
+
+    /**
+     * 最近 intervals 个时间段中存在的 BSI，从新到旧
+     */
+    private List<Rbm32BitSliceIndex> window(int intervals) {
+        if (intervals <= 0 || intervals > retention) {
+            throw new IllegalArgumentException("Intervals should be between 1 and " + retention);
+        }
+        List<Rbm32BitSliceIndex> window = new ArrayList<>(intervals);
+        if (current == NO_INTERVAL) {
+            return window;
+        }
+        for (long interval = current; interval > current - intervals; interval--) {
+            int slot = slot(interval);
+            if (segments[slot] != null && segmentIntervals[slot] == interval) {
+                window.add(segments[slot]);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * 在最近 intervals 个时间段上分别计算，多于一个时间段时并行
+     */
+    private <T> List<T> map(int intervals, final Function<Rbm32BitSliceIndex, T> function) {
+        List<Rbm32BitSliceIndex> window = window(intervals);
+        List<T> results = new ArrayList<>(window.size());
+        if (window.size() == 1) {
+            results.add(function.apply(window.get(0)));
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(window.size());
+        for (final Rbm32BitSliceIndex segment : window) {
+            futures.add(CompletableFuture.supplyAsync(new Supplier<T>() {
+                @Override
+                public T get() {
+                    return function.apply(segment);
+                }
+            }, executor));
+        }
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    private static RoaringBitmap union(List<RoaringBitmap> bitmaps) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (RoaringBitmap bitmap : bitmaps) {
+            result.or(bitmap);
+        }
+        return result;
+    }
+}
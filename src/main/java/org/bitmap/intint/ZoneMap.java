@@ -0,0 +1,258 @@
+package org.bitmap.intint;
+
+import org.bitmap.core.Operation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 功能：分块 Zone Map
+ *         按 Key 的高 16 位分块(与 RoaringBitmap 的 container 一致)，记录每个块内 Value 的最小值与最大值
+ *         Value 按 Key 聚集时(例如按时间顺序写入的列)，大部分块整体满足或整体不满足范围条件，
+ *         整体满足的块直接从 ebm 拷贝 container，整体不满足的块直接跳过，只有剩余的块需要遍历切片
+ *         put 覆盖旧值与 remove 只会放宽边界，边界仍然是正确的上下界，runOptimize 时重新收紧
+ *         块按高 16 位有序存储，与 RoaringArray 的组织方式一致
+ */
+class ZoneMap {
+    // 块内所有 Value 都满足条件
+    static final int ALL = 1;
+    // 块内所有 Value 都不满足条件
+    static final int NONE = 0;
+    // 块内部分 Value 满足条件，需要遍历切片
+    static final int PARTIAL = -1;
+
+    private char[] chunks;
+    private int[] mins;
+    private int[] maxs;
+    private int size;
+
+    ZoneMap() {
+        this(4);
+    }
+
+    private ZoneMap(int capacity) {
+        this.chunks = new char[capacity];
+        this.mins = new int[capacity];
+        this.maxs = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * 块个数
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 第 index 个块的高 16 位
+     */
+    char chunk(int index) {
+        return chunks[index];
+    }
+
+    /**
+     * 第 index 个块的最小值
+     */
+    int min(int index) {
+        return mins[index];
+    }
+
+    /**
+     * 第 index 个块的最大值
+     */
+    int max(int index) {
+        return maxs[index];
+    }
+
+    /**
+     * 第 index 个块的起始 Key(无符号)
+     */
+    long start(int index) {
+        return (long) chunks[index] << 16;
+    }
+
+    /**
+     * 第 index 个块的结束 Key(无符号，不包含)
+     */
+    long end(int index) {
+        return ((long) chunks[index] + 1) << 16;
+    }
+
+    /**
+     * 写入 key 的 value，放宽 key 所在块的边界
+     */
+    void put(int key, int value) {
+        char chunk = (char) (key >>> 16);
+        int index = Arrays.binarySearch(chunks, 0, size, chunk);
+        if (index >= 0) {
+            if (value < mins[index]) {
+                mins[index] = value;
+            }
+            if (value > maxs[index]) {
+                maxs[index] = value;
+            }
+            return;
+        }
+        insert(-index - 1, chunk, value, value);
+    }
+
+    /**
+     * 块的下标
+     * @return 不存在时返回负数
+     */
+    int indexOf(char chunk) {
+        return Arrays.binarySearch(chunks, 0, size, chunk);
+    }
+
+    /**
+     * 直接设置块的边界，用于应用增量
+     */
+    void set(char chunk, int min, int max) {
+        int index = indexOf(chunk);
+        if (index >= 0) {
+            mins[index] = min;
+            maxs[index] = max;
+            return;
+        }
+        insert(-index - 1, chunk, min, max);
+    }
+
+    /**
+     * 删除 key 所在的块，只有块内没有 Key 时调用
+     */
+    void removeChunk(int key) {
+        removeAt(indexOf((char) (key >>> 16)));
+    }
+
+    /**
+     * 删除第 index 个块，index 为负数时忽略
+     */
+    void removeAt(int index) {
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+        System.arraycopy(mins, index + 1, mins, index, size - index - 1);
+        System.arraycopy(maxs, index + 1, maxs, index, size - index - 1);
+        size--;
+    }
+
+    /**
+     * 追加一个块，块必须按高 16 位递增追加
+     */
+    void append(char chunk, int min, int max) {
+        insert(size, chunk, min, max);
+    }
+
+    /**
+     * 判断块内 Value 与比较条件的关系
+     * @param operation 比较操作
+     * @param value 比较值
+     * @param index 块下标
+     * @return ALL、NONE 或 PARTIAL
+     */
+    int classify(Operation operation, int value, int index) {
+        int min = mins[index];
+        int max = maxs[index];
+        switch (operation) {
+            case EQ:
+                return value < min || value > max ? NONE : (min == value && max == value ? ALL : PARTIAL);
+            case NEQ:
+                return value < min || value > max ? ALL : (min == value && max == value ? NONE : PARTIAL);
+            case LT:
+                return max < value ? ALL : (min >= value ? NONE : PARTIAL);
+            case LE:
+                return max <= value ? ALL : (min > value ? NONE : PARTIAL);
+            case GT:
+                return min > value ? ALL : (max <= value ? NONE : PARTIAL);
+            case GE:
+                return min >= value ? ALL : (max < value ? NONE : PARTIAL);
+            default:
+                throw new IllegalArgumentException("");
+        }
+    }
+
+    ZoneMap copy() {
+        ZoneMap zoneMap = new ZoneMap(Math.max(size, 4));
+        System.arraycopy(chunks, 0, zoneMap.chunks, 0, size);
+        System.arraycopy(mins, 0, zoneMap.mins, 0, size);
+        System.arraycopy(maxs, 0, zoneMap.maxs, 0, size);
+        zoneMap.size = size;
+        return zoneMap;
+    }
+
+    /**
+     * 序列化所需的字节大小：块个数(4)、每个块的高 16 位(2)、最小值(4)、最大值(4)
+     */
+    int serializedSizeInBytes() {
+        return 4 + size * 10;
+    }
+
+    void serialize(ByteBuffer buffer) {
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putChar(chunks[i]);
+            buffer.putInt(mins[i]);
+            buffer.putInt(maxs[i]);
+        }
+    }
+
+    void serialize(DataOutput output) throws IOException {
+        output.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            output.writeChar(chunks[i]);
+            output.writeInt(mins[i]);
+            output.writeInt(maxs[i]);
+        }
+    }
+
+    static ZoneMap deserialize(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        ZoneMap zoneMap = new ZoneMap(Math.max(size, 4));
+        for (int i = 0; i < size; i++) {
+            zoneMap.append(buffer.getChar(), buffer.getInt(), buffer.getInt());
+        }
+        return zoneMap;
+    }
+
+    static ZoneMap deserialize(DataInput in) throws IOException {
+        int size = in.readInt();
+        ZoneMap zoneMap = new ZoneMap(Math.max(size, 4));
+        for (int i = 0; i < size; i++) {
+            zoneMap.append(in.readChar(), in.readInt(), in.readInt());
+        }
+        return zoneMap;
+    }
+
+    /**
+     * 跳过序列化的 Zone Map，供不使用 Zone Map 的实现读取 Rbm32BitSliceIndex 序列化数据
+     */
+    static void skip(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        buffer.position(buffer.position() + size * 10);
+    }
+
+    static void skip(DataInput in) throws IOException {
+        deserialize(in);
+    }
+
+    private void insert(int index, char chunk, int min, int max) {
+        if (size == chunks.length) {
+            int capacity = Math.max(4, size * 2);
+            chunks = Arrays.copyOf(chunks, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+        }
+        System.arraycopy(chunks, index, chunks, index + 1, size - index);
+        System.arraycopy(mins, index, mins, index + 1, size - index);
+        System.arraycopy(maxs, index, maxs, index + 1, size - index);
+        chunks[index] = chunk;
+        mins[index] = min;
+        maxs[index] = max;
+        size++;
+    }
+}
@@ -0,0 +1,105 @@
+package org.bitmap;
+
+import org.bitmap.core.Operation;
+import org.bitmap.intint.AsyncBitSliceIndex;
+import org.bitmap.intint.RangeEncodedBitSliceIndex;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * AsyncBitSliceIndex 测试
+ */
+public class AsyncBitSliceIndexTest {
+    private Rbm32BitSliceIndex bsi;
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        Random random = new Random(39);
+        bsi = new Rbm32BitSliceIndex();
+        for (int key = 0; key < 20000; key++) {
+            bsi.put(key, random.nextInt(1000));
+        }
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void batchTest() throws ExecutionException, InterruptedException {
+        AsyncBitSliceIndex async = new AsyncBitSliceIndex(bsi, executor);
+        AsyncBitSliceIndex.Batch batch = async.batch();
+        CompletableFuture<RoaringBitmap> eq = batch.add(AsyncBitSliceIndex.Query.eq(500));
+        CompletableFuture<RoaringBitmap> eqAgain = batch.add(AsyncBitSliceIndex.Query.eq(500));
+        CompletableFuture<RoaringBitmap> between = batch.add(AsyncBitSliceIndex.Query.between(100, 300));
+        CompletableFuture<Long> sumWhere = batch.add(AsyncBitSliceIndex.Query.sumWhere(Operation.RANGE, 100, 300));
+        CompletableFuture<RoaringBitmap> gt = batch.add(AsyncBitSliceIndex.Query.gt(900));
+        RoaringBitmap keys = RoaringBitmap.bitmapOfRange(0, 5000);
+        CompletableFuture<Long> sum = batch.add(AsyncBitSliceIndex.Query.sum(keys));
+        batch.submit();
+
+        assertEquals(bsi.eq(500), eq.get());
+        assertEquals(bsi.eq(500), eqAgain.get());
+        // 相同查询的结果互不影响
+        assertNotSame(eq.get(), eqAgain.get());
+        assertEquals(bsi.between(100, 300), between.get());
+        assertEquals(bsi.sum(bsi.between(100, 300)), sumWhere.get());
+        assertEquals(bsi.gt(900), gt.get());
+        assertEquals(bsi.sum(keys), sum.get());
+    }
+
+    @Test
+    public void concurrentTest() throws ExecutionException, InterruptedException {
+        // 默认 Executor，多个批次同时查询同一个只读 BSI
+        AsyncBitSliceIndex async = new AsyncBitSliceIndex(bsi);
+        List<CompletableFuture<RoaringBitmap>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(async.submit(AsyncBitSliceIndex.Query.le(i * 5)));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(bsi.le(i * 5), futures.get(i).get());
+        }
+    }
+
+    @Test
+    public void defaultExecutorTest() throws ExecutionException, InterruptedException {
+        // 共享的默认 Executor 不能被调用方关闭
+        Executor shared = AsyncBitSliceIndex.defaultExecutor();
+        assertFalse(shared instanceof ExecutorService);
+        assertEquals(bsi.eq(7), CompletableFuture.supplyAsync(() -> bsi.eq(7), shared).get());
+    }
+
+    @Test
+    public void otherBitSliceIndexTest() throws ExecutionException, InterruptedException {
+        RangeEncodedBitSliceIndex rangeBsi = new RangeEncodedBitSliceIndex();
+        for (int key = 0; key < 1000; key++) {
+            rangeBsi.put(key, key % 100);
+        }
+        AsyncBitSliceIndex async = new AsyncBitSliceIndex(rangeBsi, executor);
+        AsyncBitSliceIndex.Batch batch = async.batch();
+        CompletableFuture<RoaringBitmap> lt = batch.add(AsyncBitSliceIndex.Query.lt(10));
+        CompletableFuture<Long> sumWhere = batch.add(AsyncBitSliceIndex.Query.sumWhere(Operation.GE, 90, 0));
+        batch.submit();
+        assertEquals(rangeBsi.lt(10), lt.get());
+        assertEquals(rangeBsi.sum(rangeBsi.ge(90)), sumWhere.get());
+    }
+}
@@ -0,0 +1,119 @@
+package org.bitmap;
+
+import org.bitmap.intint.BsiPredicate;
+import org.bitmap.intint.BsiQuery;
+import org.bitmap.intint.OffHeapRbm32BitSliceIndex;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * BsiQuery 测试
+ */
+public class BsiQueryTest {
+    private Rbm32BitSliceIndex age;
+    private Rbm32BitSliceIndex spend;
+
+    @Before
+    public void init() {
+        age = new Rbm32BitSliceIndex();
+        spend = new Rbm32BitSliceIndex();
+        // 用户ID(user_id)、年龄(age)、消费(spend)
+        int[][] rows = new int[][]{
+                {1, 18, 120}, {2, 25, 80}, {3, 31, 300}, {4, 22, 101},
+                {5, 45, 20}, {6, 30, 100}, {7, 17, 500}, {8, 29, 150}
+        };
+        for (int[] row : rows) {
+            age.put(row[0], row[1]);
+            spend.put(row[0], row[2]);
+        }
+    }
+
+    @Test
+    public void fusedAndTest() {
+        BsiQuery query = BsiQuery.where(BsiPredicate.and(
+                        BsiPredicate.ge("age", 18),
+                        BsiPredicate.le("age", 30),
+                        BsiPredicate.gt("spend", 100)))
+                .bind("age", age)
+                .bind("spend", spend);
+        String explain = query.explain();
+        System.out.println(explain);
+        assert(explain.contains("FUSED AND [age >= 18, age <= 30]"));
+        assertArrayEquals(new int[]{1, 4, 8}, query.execute().toArray());
+        assertEquals(3, query.count());
+        assertEquals(371L, query.sum("spend"));
+        assertEquals(69L, query.sum("age"));
+    }
+
+    @Test
+    public void fusedOrTest() {
+        BsiQuery query = BsiQuery.where(BsiPredicate.or(
+                        BsiPredicate.lt("age", 18),
+                        BsiPredicate.eq("age", 31),
+                        BsiPredicate.between("age", 40, 50),
+                        BsiPredicate.eq("spend", 80)))
+                .bind("age", age)
+                .bind("spend", spend);
+        System.out.println(query.explain());
+        assertArrayEquals(new int[]{2, 3, 5, 7}, query.execute().toArray());
+        assertArrayEquals(new int[]{3, 5}, query.within(RoaringBitmap.bitmapOf(3, 5, 6)).execute().toArray());
+    }
+
+    @Test
+    public void fusedMatchesCompareTest() {
+        int[] values = new int[]{-1, 0, 17, 18, 22, 29, 30, 31, 45, 63, 64, 1000};
+        for (int lower : values) {
+            for (int upper : values) {
+                BsiQuery query = BsiQuery.where(BsiPredicate.and(
+                        BsiPredicate.ge("age", lower), BsiPredicate.lt("age", upper),
+                        BsiPredicate.neq("age", upper))).bind("age", age);
+                RoaringBitmap expected = age.ge(lower);
+                expected.and(age.lt(upper));
+                assertEquals(expected, query.execute());
+            }
+        }
+    }
+
+    @Test
+    public void selectivityOrderTest() {
+        // AND 选择率小的比较先计算，OR 选择率大的比较先计算
+        BsiPredicate predicate = BsiPredicate.and(
+                BsiPredicate.ge("age", 0),
+                BsiPredicate.eq("spend", 300));
+        BsiQuery query = BsiQuery.where(predicate).bind("age", age).bind("spend", spend);
+        String explain = query.explain();
+        System.out.println(explain);
+        assert(explain.indexOf("spend = 300") < explain.indexOf("age >= 0"));
+        assertArrayEquals(new int[]{3}, query.execute().toArray());
+        assert(query.selectivity() < 0.5);
+
+        query = BsiQuery.where(BsiPredicate.or(BsiPredicate.eq("spend", 300), BsiPredicate.ge("age", 0)))
+                .bind("age", age)
+                .bind("spend", spend);
+        explain = query.explain();
+        assert(explain.indexOf("age >= 0") < explain.indexOf("spend = 300"));
+        assertEquals(8, query.count());
+        assertArrayEquals(new int[]{3, 6}, query.within(RoaringBitmap.bitmapOf(3, 6, 9)).execute().toArray());
+    }
+
+    @Test
+    public void nestedTest() {
+        OffHeapRbm32BitSliceIndex offHeapSpend = new OffHeapRbm32BitSliceIndex();
+        for (int key : spend.keys()) {
+            offHeapSpend.put(key, spend.get(key));
+        }
+        BsiQuery query = BsiQuery.where(BsiPredicate.and(
+                        BsiPredicate.between("age", 20, 40),
+                        BsiPredicate.or(BsiPredicate.lt("spend", 100), BsiPredicate.gt("spend", 200))))
+                .bind("age", age)
+                .bind("spend", offHeapSpend);
+        System.out.println(query.explain());
+        assertArrayEquals(new int[]{2, 3}, query.execute().toArray());
+        offHeapSpend.close();
+    }
+}
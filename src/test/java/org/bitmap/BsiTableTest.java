@@ -0,0 +1,185 @@
+package org.bitmap;
+
+import org.bitmap.intint.BsiPredicate;
+import org.bitmap.intint.BsiTable;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BsiTable 测试
+ */
+public class BsiTableTest {
+    private BsiTable table;
+
+    @Before
+    public void init() {
+        table = new BsiTable();
+        table.addColumn("age");
+        table.addColumn("spend");
+        // 用户ID(user_id)、年龄(age)、消费(spend)
+        int[][] rows = new int[][]{
+                {1, 18, 120}, {2, 25, 80}, {3, 31, 300}, {4, 22, 101},
+                {5, 45, 20}, {6, 30, 100}, {7, 17, 500}, {8, 29, 150}
+        };
+        for (int[] row : rows) {
+            Map<String, Integer> values = new HashMap<>();
+            values.put("age", row[1]);
+            values.put("spend", row[2]);
+            table.putRow(row[0], values);
+        }
+    }
+
+    @Test
+    public void putTest() {
+        assertEquals(8, table.getLongCardinality());
+        assertEquals(31, table.get(3, "age"));
+        assertEquals(45, table.column("age").maxValue().intValue());
+        assertEquals(17, table.column("age").minValue().intValue());
+        // 新 Key 没有写入的列取值为 0
+        table.put(9, "spend", 60);
+        assertEquals(0, table.get(9, "age"));
+        assertEquals(0, table.column("age").minValue().intValue());
+        assertEquals(9, table.column("spend").getLongCardinality());
+    }
+
+    @Test
+    public void readOnlyColumnTest() throws IOException {
+        Rbm32BitSliceIndex age = table.column("age");
+        byte[] bytes = new Rbm32BitSliceIndex().serialize();
+        List<Runnable> mutators = Arrays.asList(
+                () -> age.put(1, 3),
+                () -> age.remove(1),
+                () -> age.clear(),
+                () -> age.setValue(RoaringBitmap.bitmapOf(1, 2), 3),
+                () -> age.removeAll(RoaringBitmap.bitmapOf(1)),
+                () -> age.retainAll(RoaringBitmap.bitmapOf(1)),
+                () -> {
+                    try {
+                        age.deserialize(bytes);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        for (Runnable mutator : mutators) {
+            try {
+                mutator.run();
+                assertTrue(false);
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        // 直接修改失败后表保持不变
+        assertEquals(8, table.getLongCardinality());
+        assertEquals(18, table.get(1, "age"));
+        // 已有 Key 通过 BsiTable 修改
+        table.put(1, "age", 19);
+        assertEquals(19, table.get(1, "age"));
+        assertEquals(120, table.get(1, "spend"));
+    }
+
+    @Test
+    public void removeTest() {
+        table.remove(3);
+        assertEquals(7, table.getLongCardinality());
+        assertEquals(-1, table.get(3, "spend"));
+        assertEquals(0L, table.column("spend").sum(RoaringBitmap.bitmapOf(3)).longValue());
+        // 删除最小值/最大值所在的行后重新计算，Zone Map 同步更新
+        table.remove(5);
+        table.remove(7);
+        assertEquals(30, table.column("age").maxValue().intValue());
+        assertEquals(18, table.column("age").minValue().intValue());
+        assertEquals(150, table.column("spend").maxValue().intValue());
+        assertEquals(80, table.column("spend").minValue().intValue());
+        assertArrayEquals(new int[]{6, 8}, table.query(BsiPredicate.ge("age", 29)).toArray());
+        assertArrayEquals(new int[]{}, table.query(BsiPredicate.gt("spend", 150)).toArray());
+        // 删除所有行
+        for (int key : table.keys().toArray()) {
+            table.remove(key);
+        }
+        assertEquals(-1, table.column("age").maxValue().intValue());
+        assertEquals(-1, table.column("spend").minValue().intValue());
+    }
+
+    @Test
+    public void putRowValidationTest() {
+        // 列名或 Value 不合法时整行都不写入
+        Map<String, Integer> values = new LinkedHashMap<>();
+        values.put("age", 33);
+        values.put("unknown", 1);
+        List<Map<String, Integer>> invalidRows = new ArrayList<>();
+        invalidRows.add(values);
+        values = new LinkedHashMap<>();
+        values.put("age", 33);
+        values.put("spend", -1);
+        invalidRows.add(values);
+        values = new LinkedHashMap<>();
+        values.put("age", 33);
+        values.put("spend", null);
+        invalidRows.add(values);
+        for (Map<String, Integer> row : invalidRows) {
+            try {
+                table.putRow(1, row);
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                table.putRow(9, row);
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(8, table.getLongCardinality());
+        assertEquals(18, table.get(1, "age"));
+        assertEquals(-1, table.get(9, "age"));
+        assertEquals(45, table.column("age").maxValue().intValue());
+    }
+
+    @Test
+    public void andQueryTest() {
+        BsiPredicate predicate = BsiPredicate.and(
+                BsiPredicate.between("age", 18, 30),
+                BsiPredicate.gt("spend", 100));
+        System.out.println(predicate + " selectivity: " + table.selectivity(predicate));
+        assertArrayEquals(new int[]{1, 4, 8}, table.query(predicate).toArray());
+        assertArrayEquals(new int[]{4, 8}, table.query(predicate, RoaringBitmap.bitmapOf(4, 8, 9)).toArray());
+    }
+
+    @Test
+    public void orQueryTest() {
+        BsiPredicate predicate = BsiPredicate.or(
+                BsiPredicate.lt("age", 18),
+                BsiPredicate.and(BsiPredicate.ge("age", 40), BsiPredicate.le("spend", 20)),
+                BsiPredicate.eq("spend", 300));
+        assertArrayEquals(new int[]{3, 5, 7}, table.query(predicate).toArray());
+        // 超出切片表示范围的比较值
+        assertArrayEquals(new int[]{}, table.query(BsiPredicate.gt("spend", 5000)).toArray());
+        assertEquals(8, table.query(BsiPredicate.lt("spend", 5000)).getLongCardinality());
+    }
+
+    @Test
+    public void selectivityTest() {
+        double all = table.selectivity(BsiPredicate.ge("age", 0));
+        double none = table.selectivity(BsiPredicate.gt("age", 1000));
+        double some = table.selectivity(BsiPredicate.eq("age", 31));
+        assertEquals(1.0, all, 1e-9);
+        assertEquals(0.0, none, 1e-9);
+        assert(some > 0 && some < 1);
+    }
+}
@@ -0,0 +1,144 @@
+package org.bitmap;
+
+import org.bitmap.intint.DecimalBitSliceIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DecimalBitSliceIndex 测试
+ */
+public class DecimalBitSliceIndexTest {
+    private DecimalBitSliceIndex bsi;
+
+    @Before
+    public void init() {
+        // 价格：两位小数，最小 -100.00
+        bsi = new DecimalBitSliceIndex(2, new BigDecimal("-100"));
+        bsi.put(1, 0.1);
+        bsi.put(2, 0.2);
+        bsi.put(3, 0.3);
+        bsi.put(4, new BigDecimal("-99.99"));
+        bsi.put(5, new BigDecimal("1.005"));
+        bsi.put(6, 12.5);
+    }
+
+    @Test
+    public void putAndGetTest() {
+        assertEquals(new BigDecimal("0.10"), bsi.get(1));
+        assertEquals(new BigDecimal("-99.99"), bsi.get(4));
+        // HALF_UP
+        assertEquals(new BigDecimal("1.01"), bsi.get(5));
+        assertNull(bsi.get(7));
+        assertEquals(new BigDecimal("-99.99"), bsi.minValue());
+        assertEquals(new BigDecimal("12.50"), bsi.maxValue());
+        assertEquals(new BigDecimal("0.10"), bsi.minValue(RoaringBitmap.bitmapOf(1, 2, 3)));
+        assertNull(bsi.maxValue(RoaringBitmap.bitmapOf(7)));
+        assertEquals(new BigDecimal("0.30"), bsi.remove(3));
+        assertNull(bsi.remove(3));
+
+        DecimalBitSliceIndex floor = new DecimalBitSliceIndex(1, BigDecimal.ZERO, RoundingMode.FLOOR);
+        floor.put(1, 2.99);
+        assertEquals(new BigDecimal("2.9"), floor.get(1));
+        try {
+            floor.put(2, -0.1);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void compareTest() {
+        // 0.1 + 0.2 在 double 中不等于 0.3，编码后精确相等
+        assertEquals(RoaringBitmap.bitmapOf(3), bsi.eq(new BigDecimal("0.3")));
+        assertEquals(RoaringBitmap.bitmapOf(3), bsi.eq(new BigDecimal("0.1").add(new BigDecimal("0.2"))));
+        // 不能用两位小数表示的值
+        assertTrue(bsi.eq(new BigDecimal("0.105")).isEmpty());
+        assertEquals(bsi.keys(), bsi.neq(new BigDecimal("0.105")));
+        // 边界落在两个可表示值之间
+        assertEquals(RoaringBitmap.bitmapOf(1, 4), bsi.le(new BigDecimal("0.199")));
+        assertEquals(RoaringBitmap.bitmapOf(1, 4), bsi.lt(new BigDecimal("0.2")));
+        assertEquals(RoaringBitmap.bitmapOf(1, 2, 4), bsi.lt(new BigDecimal("0.201")));
+        assertEquals(RoaringBitmap.bitmapOf(3, 5, 6), bsi.ge(new BigDecimal("0.201")));
+        assertEquals(RoaringBitmap.bitmapOf(3, 5, 6), bsi.gt(new BigDecimal("0.2")));
+        assertEquals(RoaringBitmap.bitmapOf(2, 3), bsi.between(new BigDecimal("0.15"), new BigDecimal("0.35")));
+        // 超出编码范围的比较值
+        assertEquals(bsi.keys(), bsi.gt(new BigDecimal("-1000")));
+        assertTrue(bsi.lt(new BigDecimal("-100.5")).isEmpty());
+        assertEquals(bsi.keys(), bsi.le(new BigDecimal("1e20")));
+        assertTrue(bsi.ge(new BigDecimal("1e20")).isEmpty());
+        assertTrue(bsi.eq(new BigDecimal("-1000")).isEmpty());
+    }
+
+    @Test
+    public void positiveMinValueTest() {
+        // 最小值为正数时，unscaled 值超过 Integer.MAX_VALUE 的 Value 仍在编码范围内
+        DecimalBitSliceIndex positive = new DecimalBitSliceIndex(2, new BigDecimal("100"));
+        positive.put(1, 21474886.47);
+        positive.put(2, new BigDecimal("21474936.47"));
+        positive.put(3, new BigDecimal("100"));
+        assertEquals(new BigDecimal("21474886.47"), positive.get(1));
+        assertEquals(new BigDecimal("21474936.47"), positive.maxValue());
+        assertEquals(RoaringBitmap.bitmapOf(1), positive.eq(new BigDecimal("21474886.47")));
+        assertEquals(RoaringBitmap.bitmapOf(1, 2), positive.ge(new BigDecimal("21474886.47")));
+        assertEquals(RoaringBitmap.bitmapOf(2), positive.gt(new BigDecimal("21474886.47")));
+        assertEquals(RoaringBitmap.bitmapOf(3), positive.lt(new BigDecimal("21474886.47")));
+        assertEquals(RoaringBitmap.bitmapOf(1), positive.between(new BigDecimal("21474800"), new BigDecimal("21474900")));
+        // 超出编码范围的比较值
+        assertEquals(positive.keys(), positive.le(new BigDecimal("21474936.48")));
+        assertTrue(positive.gt(new BigDecimal("21474936.47")).isEmpty());
+        assertEquals(positive.keys(), positive.ge(new BigDecimal("99.99")));
+        assertTrue(positive.lt(new BigDecimal("100")).isEmpty());
+        try {
+            positive.put(4, new BigDecimal("21474936.48"));
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            positive.put(4, new BigDecimal("99.99"));
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sumTest() {
+        RoaringBitmap keys = RoaringBitmap.bitmapOf(1, 2, 3, 4, 7);
+        // 以 0.01 为单位
+        assertEquals(Long.valueOf(10 + 20 + 30 - 9999), bsi.sum(keys));
+        assertEquals(new BigDecimal("-99.39"), bsi.sumDecimal(keys));
+        assertEquals(new BigDecimal("0.60"), bsi.sumDecimal(bsi.between(new BigDecimal("0"), new BigDecimal("1"))));
+        assertEquals(new BigDecimal("0.00"), bsi.sumDecimal(new RoaringBitmap()));
+    }
+
+    @Test
+    public void serializeTest() throws IOException {
+        bsi.runOptimize();
+        byte[] bytes = bsi.serialize();
+        assertEquals(bsi.serializedSizeInBytes(), bytes.length);
+        DecimalBitSliceIndex newBsi = new DecimalBitSliceIndex(2, new BigDecimal("-100"));
+        newBsi.deserialize(bytes);
+        assertEquals(bsi.keys(), newBsi.keys());
+        assertEquals(bsi.get(5), newBsi.get(5));
+        assertEquals(bsi.sumDecimal(bsi.keys()), newBsi.sumDecimal(newBsi.keys()));
+
+        DecimalBitSliceIndex otherScale = new DecimalBitSliceIndex(3, new BigDecimal("-100"));
+        try {
+            otherScale.deserialize(bytes);
+            assertTrue(false);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
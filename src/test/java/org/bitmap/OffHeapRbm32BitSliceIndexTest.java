@@ -0,0 +1,283 @@
+package org.bitmap;
+
+import org.bitmap.intint.OffHeapRbm32BitSliceIndex;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * OffHeapRbm32BitSliceIndex 测试
+ */
+public class OffHeapRbm32BitSliceIndexTest {
+    private Map<Integer, Integer> initMap = new HashMap<>();
+    private OffHeapRbm32BitSliceIndex bsi;
+    private Rbm32BitSliceIndex heapBsi;
+
+    @Before
+    public void init() {
+        bsi = new OffHeapRbm32BitSliceIndex();
+        heapBsi = new Rbm32BitSliceIndex();
+        // 用户ID(user_id)、积分(score)
+        initMap.put(1, 48);
+        initMap.put(2, 80);
+        initMap.put(3, 75);
+        initMap.put(4, 19);
+        initMap.put(5, 1);
+        initMap.put(6, 57);
+        initMap.put(7, 63);
+        initMap.put(8, 22);
+        initMap.put(9, 96);
+        initMap.put(10, 34);
+        for (int key : initMap.keySet()) {
+            bsi.put(key, initMap.get(key));
+            heapBsi.put(key, initMap.get(key));
+        }
+        bsi.flush();
+    }
+
+    @After
+    public void close() {
+        bsi.close();
+    }
+
+    @Test
+    public void getTest() {
+        assertEquals(10, bsi.getLongCardinality());
+        assertEquals(7, bsi.sliceSize());
+        for (int key : initMap.keySet()) {
+            assertEquals(initMap.get(key), bsi.get(key));
+        }
+        assert(bsi.offHeapSizeInBytes() > 0);
+    }
+
+    @Test
+    public void putAndRemoveTest() {
+        bsi.put(10, 9);
+        bsi.put(11, 200);
+        assertEquals(9, bsi.get(10).intValue());
+        assertEquals(200, bsi.get(11).intValue());
+        assertEquals(8, bsi.sliceSize());
+        assertEquals(19, bsi.remove(4).intValue());
+        bsi.flush();
+        assertEquals(9, bsi.get(10).intValue());
+        assertEquals(200, bsi.get(11).intValue());
+        assertEquals(-1, bsi.get(4).intValue());
+        assertEquals(10, bsi.getLongCardinality());
+    }
+
+    @Test
+    public void writeDeltaTest() throws IOException {
+        Random random = new Random(30);
+        OffHeapRbm32BitSliceIndex bigBsi = new OffHeapRbm32BitSliceIndex();
+        Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(1 << 20);
+            int value = random.nextInt(1 << 16);
+            bigBsi.put(key, value);
+            expected.put(key, value);
+        }
+        bigBsi.flush();
+        assertEquals(0, bigBsi.deltaSizeInBytes());
+
+        // 写入只记录在堆上的增量中，不拷贝堆外切片
+        for (int i = 0; i < 100; i++) {
+            int key = random.nextInt(1 << 20);
+            int value = random.nextInt(1 << 16);
+            bigBsi.put(key, value);
+            expected.put(key, value);
+            int removedKey = random.nextInt(1 << 20);
+            assertEquals(expected.remove(removedKey), bigBsi.remove(removedKey));
+        }
+        RoaringBitmap segment = RoaringBitmap.bitmapOfRange(1000, 3000);
+        bigBsi.setValue(segment, 7);
+        expected.setValue(segment, 7);
+        RoaringBitmap removed = RoaringBitmap.bitmapOfRange(5000, 6000);
+        bigBsi.removeAll(removed);
+        expected.removeAll(removed);
+        assertTrue(bigBsi.deltaSizeInBytes() * 20 < bigBsi.offHeapSizeInBytes());
+        assertOffHeapQueries(expected, bigBsi);
+
+        // flush 合并增量
+        bigBsi.flush();
+        assertEquals(0, bigBsi.deltaSizeInBytes());
+        assertOffHeapQueries(expected, bigBsi);
+        bigBsi.close();
+    }
+
+    private static void assertOffHeapQueries(Rbm32BitSliceIndex expected, OffHeapRbm32BitSliceIndex bigBsi) throws IOException {
+        assertEquals(expected.getLongCardinality(), bigBsi.getLongCardinality());
+        assertEquals(expected.keys(), bigBsi.keys());
+        assertEquals(expected.minValue(), bigBsi.minValue());
+        assertEquals(expected.maxValue(), bigBsi.maxValue());
+        for (int value : new int[]{0, 7, 1000, 30000, 65535}) {
+            assertEquals(expected.eq(value), bigBsi.eq(value));
+            assertEquals(expected.neq(value), bigBsi.neq(value));
+            assertEquals(expected.lt(value), bigBsi.lt(value));
+            assertEquals(expected.ge(value), bigBsi.ge(value));
+        }
+        RoaringBitmap keys = RoaringBitmap.bitmapOfRange(0, 10000);
+        assertEquals(expected.sum(keys), bigBsi.sum(keys));
+        assertEquals(expected.minValue(keys), bigBsi.minValue(keys));
+        assertEquals(expected.maxValue(keys), bigBsi.maxValue(keys));
+        assertEquals(7, bigBsi.get(2000).intValue());
+        assertEquals(-1, bigBsi.get(5500).intValue());
+        assertEquals(expected.serializedSizeInBytes(), bigBsi.serializedSizeInBytes());
+        assertArrayEquals(expected.serialize(), bigBsi.serialize());
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        expected.serialize(new DataOutputStream(expectedBytes));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bigBsi.serialize(new DataOutputStream(bytes));
+        assertArrayEquals(expectedBytes.toByteArray(), bytes.toByteArray());
+    }
+
+    @Test
+    public void autoFlushTest() throws IOException {
+        Random random = new Random(31);
+        OffHeapRbm32BitSliceIndex bigBsi = new OffHeapRbm32BitSliceIndex();
+        Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+        bigBsi.setFlushThresholdBytes(32 * 1024);
+        long maxDelta = 0;
+        for (int i = 0; i < 50000; i++) {
+            int key = random.nextInt(1 << 22);
+            int value = random.nextInt(1 << 16);
+            bigBsi.put(key, value);
+            expected.put(key, value);
+            if (i % 10 == 0) {
+                int removedKey = random.nextInt(1 << 22);
+                assertEquals(expected.remove(removedKey), bigBsi.remove(removedKey));
+            }
+            if (i % 100 == 0) {
+                maxDelta = Math.max(maxDelta, bigBsi.deltaSizeInBytes());
+            }
+        }
+        // 增量超过阈值后在下一次检查时 flush，堆上增量不随索引增长
+        assertTrue(bigBsi.offHeapSizeInBytes() > 0);
+        assertTrue(maxDelta < 4 * 32 * 1024);
+        assertTrue(bigBsi.deltaSizeInBytes() * 10 < bigBsi.offHeapSizeInBytes());
+        assertEquals(expected.keys(), bigBsi.keys());
+        assertEquals(expected.minValue(), bigBsi.minValue());
+        assertEquals(expected.between(1000, 30000), bigBsi.between(1000, 30000));
+        assertArrayEquals(expected.serialize(), bigBsi.serialize());
+
+        // Run 容器：未修改的块按字节拷贝，修改的块在堆上合并
+        RoaringBitmap run = RoaringBitmap.bitmapOfRange(1 << 23, (1 << 23) + 300000);
+        bigBsi.setValue(run, 5);
+        expected.setValue(run, 5);
+        bigBsi.runOptimize();
+        bigBsi.put((1 << 23) + 7, 9);
+        expected.put((1 << 23) + 7, 9);
+        bigBsi.remove((1 << 23) + 200000);
+        expected.remove((1 << 23) + 200000);
+        byte[] bytes = bigBsi.serialize();
+        assertEquals(bigBsi.serializedSizeInBytes(), bytes.length);
+        Rbm32BitSliceIndex restored = new Rbm32BitSliceIndex();
+        restored.deserialize(bytes);
+        assertEquals(expected.keys(), restored.keys());
+        assertEquals(expected.eq(5), restored.eq(5));
+        assertEquals(expected.between(1000, 30000), restored.between(1000, 30000));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bigBsi.serialize(new DataOutputStream(bos));
+        restored = new Rbm32BitSliceIndex();
+        restored.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertEquals(expected.eq(9), restored.eq(9));
+        assertEquals(expected.keys(), restored.keys());
+
+        // 关闭自动 flush 后增量一直保留在堆上
+        bigBsi.setFlushThresholdBytes(0);
+        bigBsi.flush();
+        for (int i = 0; i < 20000; i++) {
+            bigBsi.put(random.nextInt(1 << 22), 1);
+        }
+        assertTrue(bigBsi.deltaSizeInBytes() > 32 * 1024);
+        bigBsi.close();
+    }
+
+    @Test
+    public void rangeTest() {
+        assertEquals(heapBsi.eq(57), bsi.eq(57));
+        assertEquals(heapBsi.neq(57), bsi.neq(57));
+        assertEquals(heapBsi.le(57), bsi.le(57));
+        assertEquals(heapBsi.lt(57), bsi.lt(57));
+        assertEquals(heapBsi.ge(57), bsi.ge(57));
+        assertEquals(heapBsi.gt(57), bsi.gt(57));
+        assertEquals(heapBsi.between(57, 83), bsi.between(57, 83));
+        RoaringBitmap rbm = RoaringBitmap.bitmapOf(3, 4, 6, 7);
+        assertEquals(75, bsi.maxValue(rbm).intValue());
+        assertEquals(19, bsi.minValue(rbm).intValue());
+        assertEquals(250L, bsi.sum(RoaringBitmap.bitmapOf(3, 6, 8, 9)).longValue());
+    }
+
+    @Test
+    public void serializeCompatibleTest() throws IOException {
+        // 堆上 BSI 序列化结果可以直接被堆外 BSI 读取
+        OffHeapRbm32BitSliceIndex newBsi = new OffHeapRbm32BitSliceIndex();
+        newBsi.deserialize(heapBsi.serialize());
+        assertEquals(heapBsi.serializedSizeInBytes(), newBsi.serializedSizeInBytes());
+        assertArrayEquals(heapBsi.serialize(), newBsi.serialize());
+        newBsi.close();
+
+        // 包含 Zone Map 的序列化结果也可以被堆外 BSI 读取，Zone Map 被跳过
+        heapBsi.setSerializeZoneMap(true);
+        newBsi = new OffHeapRbm32BitSliceIndex();
+        newBsi.deserialize(heapBsi.serialize());
+        assertEquals(heapBsi.eq(57), newBsi.eq(57));
+        Rbm32BitSliceIndex roundTrip = new Rbm32BitSliceIndex();
+        roundTrip.deserialize(newBsi.serialize());
+        heapBsi.setSerializeZoneMap(false);
+        assertArrayEquals(heapBsi.serialize(), roundTrip.serialize());
+        newBsi.close();
+
+        // DataOutput 序列化
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bsi.serialize(new DataOutputStream(bos));
+        Rbm32BitSliceIndex restored = new Rbm32BitSliceIndex();
+        restored.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        for (int key : initMap.keySet()) {
+            assertEquals(initMap.get(key), restored.get(key));
+        }
+    }
+
+    @Test
+    public void mapTest() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(heapBsi.serializedSizeInBytes());
+        heapBsi.serialize(buffer);
+        buffer.flip();
+        OffHeapRbm32BitSliceIndex mapped = OffHeapRbm32BitSliceIndex.map(buffer);
+        assertEquals(heapBsi.ge(57), mapped.ge(57));
+        // 修改只影响堆上拷贝，不会修改映射的 buffer
+        mapped.put(1, 3);
+        assertEquals(3, mapped.get(1).intValue());
+        mapped.close();
+        assertEquals(48, OffHeapRbm32BitSliceIndex.map(buffer).get(1).intValue());
+    }
+
+    @Test
+    public void cloneTest() {
+        OffHeapRbm32BitSliceIndex cloneBsi = bsi.clone();
+        bsi.put(11, 38);
+        bsi.close();
+        assertEquals(10, cloneBsi.getLongCardinality());
+        for (int key : initMap.keySet()) {
+            assertEquals(initMap.get(key), cloneBsi.get(key));
+        }
+        cloneBsi.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closeTest() {
+        bsi.close();
+        bsi.get(1);
+    }
+}
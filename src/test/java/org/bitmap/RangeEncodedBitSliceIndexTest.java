@@ -0,0 +1,133 @@
+package org.bitmap;
+
+import org.bitmap.intint.RangeEncodedBitSliceIndex;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.*;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RangeEncodedBitSliceIndex 测试
+ *      与 Rbm32BitSliceIndex 的查询结果逐一对比
+ */
+public class RangeEncodedBitSliceIndexTest {
+    private static final int[] BASES = new int[]{2, 3, 10, 16, 300};
+
+    private RangeEncodedBitSliceIndex build(int base, Rbm32BitSliceIndex expected, int keys, int maxValue) {
+        Random random = new Random(base);
+        RangeEncodedBitSliceIndex bsi = new RangeEncodedBitSliceIndex(base);
+        for (int key = 1; key <= keys; key++) {
+            int value = random.nextInt(maxValue + 1);
+            bsi.put(key, value);
+            expected.put(key, value);
+        }
+        // 覆盖旧值
+        bsi.put(3, maxValue);
+        expected.put(3, maxValue);
+        return bsi;
+    }
+
+    @Test
+    public void getTest() {
+        for (int base : BASES) {
+            Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+            RangeEncodedBitSliceIndex bsi = build(base, expected, 500, 299);
+            assertEquals(500, bsi.getLongCardinality());
+            for (int key : expected.keys()) {
+                assertEquals(expected.get(key), bsi.get(key));
+            }
+            assertEquals(expected.remove(7), bsi.remove(7));
+            assertEquals(-1, bsi.get(7).intValue());
+        }
+    }
+
+    @Test
+    public void bulkMutationTest() {
+        for (int base : BASES) {
+            Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+            RangeEncodedBitSliceIndex bsi = build(base, expected, 500, 299);
+            RoaringBitmap removed = expected.ge(250);
+            bsi.removeAll(removed);
+            expected.removeAll(removed);
+            RoaringBitmap segment = RoaringBitmap.bitmapOfRange(100, 700);
+            bsi.setValue(segment, 1000);
+            expected.setValue(segment, 1000);
+            bsi.retainAll(RoaringBitmap.bitmapOfRange(50, 600));
+            expected.retainAll(RoaringBitmap.bitmapOfRange(50, 600));
+            assertEquals(expected.keys(), bsi.keys());
+            assertEquals(expected.minValue(), bsi.minValue());
+            assertEquals(1000, bsi.maxValue().intValue());
+            assertEquals(expected.lt(1000), bsi.lt(1000));
+            assertEquals(expected.sum(expected.keys()), bsi.sum(bsi.keys()));
+        }
+    }
+
+    @Test
+    public void rangeTest() {
+        int[] values = new int[]{-1, 0, 1, 15, 16, 17, 100, 255, 298, 299, 300, 5000};
+        for (int base : BASES) {
+            Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+            RangeEncodedBitSliceIndex bsi = build(base, expected, 500, 299);
+            for (int value : values) {
+                assertEquals(expected.eq(value), bsi.eq(value));
+                assertEquals(expected.neq(value), bsi.neq(value));
+                assertEquals(expected.le(value), bsi.le(value));
+                assertEquals(expected.lt(value), bsi.lt(value));
+                assertEquals(expected.ge(value), bsi.ge(value));
+                assertEquals(expected.gt(value), bsi.gt(value));
+                assertEquals(expected.between(value, value + 50), bsi.between(value, value + 50));
+            }
+        }
+    }
+
+    @Test
+    public void aggregateTest() {
+        RoaringBitmap rbm = RoaringBitmap.bitmapOf(1, 5, 9, 77, 123, 400, 1000);
+        for (int base : BASES) {
+            Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+            RangeEncodedBitSliceIndex bsi = build(base, expected, 500, 299);
+            assertEquals(expected.sum(rbm), bsi.sum(rbm));
+            assertEquals(expected.minValue(rbm), bsi.minValue(rbm));
+            assertEquals(expected.maxValue(rbm), bsi.maxValue(rbm));
+            assertEquals(expected.minValue(), bsi.minValue());
+            assertEquals(expected.maxValue(), bsi.maxValue());
+        }
+    }
+
+    @Test
+    public void serializeTest() throws IOException {
+        Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+        RangeEncodedBitSliceIndex bsi = build(16, expected, 500, 299);
+        bsi.runOptimize();
+
+        RangeEncodedBitSliceIndex newBsi = new RangeEncodedBitSliceIndex();
+        byte[] bytes = bsi.serialize();
+        assertEquals(bsi.serializedSizeInBytes(), bytes.length);
+        newBsi.deserialize(bytes);
+        assertEquals(16, newBsi.base());
+        assertEquals(expected.between(20, 80), newBsi.between(20, 80));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bsi.serialize(new DataOutputStream(bos));
+        newBsi = new RangeEncodedBitSliceIndex(2);
+        newBsi.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertEquals(expected.between(20, 80), newBsi.between(20, 80));
+        for (int key : expected.keys()) {
+            assertEquals(expected.get(key), newBsi.get(key));
+        }
+    }
+
+    @Test
+    public void cloneTest() {
+        Rbm32BitSliceIndex expected = new Rbm32BitSliceIndex();
+        RangeEncodedBitSliceIndex bsi = build(10, expected, 100, 299);
+        RangeEncodedBitSliceIndex cloneBsi = bsi.clone();
+        bsi.put(1, 5);
+        assertEquals(expected.get(1), cloneBsi.get(1));
+        assertEquals(5, bsi.get(1).intValue());
+    }
+}
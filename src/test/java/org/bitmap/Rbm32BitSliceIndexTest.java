@@ -2,20 +2,30 @@ package org.bitmap;
 
 
 import org.bitmap.core.BitSliceIndex;
+import org.bitmap.intint.ApproxResult;
+import org.bitmap.intint.BsiStats;
+import org.bitmap.intint.SortedKeyIterator;
 import org.bitmap.intint.Rbm32BitSliceIndex;
 import org.junit.Before;
 import org.junit.Test;
 import org.roaringbitmap.RoaringBitmap;
 
 import java.io.*;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.sql.Array;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Rbm32BitSliceIndex 测试
@@ -297,6 +307,605 @@ public class Rbm32BitSliceIndexTest {
         assertEquals(250L, sum);
     }
 
+    @Test
+    public void sumMaxValueTest() {
+        bsi.put(11, Integer.MAX_VALUE);
+        bsi.put(12, Integer.MAX_VALUE);
+        long sum = bsi.sum(RoaringBitmap.bitmapOf(11, 12));
+        assertEquals(2L * Integer.MAX_VALUE, sum);
+    }
+
+    @Test
+    public void aggregateTest() {
+        RoaringBitmap rbm = RoaringBitmap.bitmapOf(3,6,8,9,11);
+        BsiStats stats = bsi.aggregate(rbm);
+        System.out.println("Stats: " + stats);
+        // 75,57,22,96 (11 不存在)
+        assertEquals(4L, stats.getCount());
+        assertEquals(250L, stats.getSum());
+        assertEquals(BigInteger.valueOf(18574L), stats.getSumOfSquares());
+        assertEquals(62.5, stats.getMean(), 1e-9);
+        assertEquals(737.25, stats.getVariance(), 1e-9);
+        assertEquals(22, stats.getMinValue());
+        assertEquals(96, stats.getMaxValue());
+        assertArrayEquals(new int[]{8}, stats.getMinKeys().toArray());
+        assertArrayEquals(new int[]{9}, stats.getMaxKeys().toArray());
+
+        BsiStats empty = bsi.aggregate(RoaringBitmap.bitmapOf(11));
+        assertEquals(0L, empty.getCount());
+        assertEquals(-1, empty.getMinValue());
+    }
+
+    @Test
+    public void keysSortedByValueTest() {
+        bsi.put(11, 57);
+        // 1,5,19,22,34,48,57,57,63,75,80,96
+        SortedKeyIterator iterator = bsi.keysSortedByValue(bsi.keys(), false);
+        List<Integer> keys = new ArrayList<>();
+        int lastValue = -1;
+        while (iterator.hasNext()) {
+            int key = iterator.nextInt();
+            assertEquals(bsi.get(key).intValue(), iterator.value());
+            assert(iterator.value() >= lastValue);
+            lastValue = iterator.value();
+            keys.add(key);
+        }
+        assertEquals(Arrays.asList(5, 4, 8, 10, 1, 6, 11, 7, 3, 2, 9), keys);
+
+        iterator = bsi.keysSortedByValue(RoaringBitmap.bitmapOf(2, 3, 6, 11, 12), true);
+        assertEquals(2, iterator.nextInt());
+        assertEquals(80, iterator.value());
+        assertEquals(3, iterator.nextInt());
+        assertEquals(6, iterator.nextInt());
+        assertEquals(11, iterator.nextInt());
+        assert(!iterator.hasNext());
+    }
+
+    @Test
+    public void keysSortedByValuePageTest() {
+        bsi.put(11, 57);
+        assertArrayEquals(new int[]{6, 11, 7}, bsi.keysSortedByValue(bsi.keys(), false, 5, 3));
+        assertArrayEquals(new int[]{9, 2, 3}, bsi.keysSortedByValue(bsi.keys(), true, 0, 3));
+        assertArrayEquals(new int[]{11, 1}, bsi.keysSortedByValue(bsi.keys(), true, 5, 2));
+        assertArrayEquals(new int[]{4, 5}, bsi.keysSortedByValue(bsi.keys(), true, 9, 5));
+        assertArrayEquals(new int[]{}, bsi.keysSortedByValue(bsi.keys(), true, 20, 5));
+    }
+
+    @Test
+    public void keysSortedByValueDeepSkipTest() {
+        // Value 互不相同，跳到最后一个 Key 只需要沿一条路径拆分
+        Rbm32BitSliceIndex deepBsi = new Rbm32BitSliceIndex();
+        for (int key = 0; key < 100000; key++) {
+            deepBsi.put(key, (key * 7919) % 100000);
+        }
+        for (boolean descending : new boolean[]{false, true}) {
+            SortedKeyIterator iterator = deepBsi.keysSortedByValue(deepBsi.keys(), descending);
+            assertEquals(99999, iterator.skip(99999));
+            assertTrue(iterator.splitCount() <= deepBsi.sliceSize());
+            assertTrue(iterator.hasNext());
+            int key = iterator.nextInt();
+            assertEquals(descending ? 0 : 99999, deepBsi.get(key).intValue());
+            assertTrue(!iterator.hasNext());
+        }
+        SortedKeyIterator iterator = deepBsi.keysSortedByValue(deepBsi.keys(), false);
+        assertEquals(50000, iterator.skip(50000));
+        assertTrue(iterator.splitCount() <= deepBsi.sliceSize());
+        assertEquals(50000, deepBsi.get(iterator.nextInt()).intValue());
+    }
+
+    @Test
+    public void histogramTest() {
+        RoaringBitmap rbm = bsi.keys();
+        // [0,20) [20,50) [50,80) [80,100)
+        long[] counts = bsi.histogram(new int[]{0, 20, 50, 80, 100}, rbm);
+        System.out.println("Histogram: " + Arrays.toString(counts));
+        assertArrayEquals(new long[]{2, 3, 3, 2}, counts);
+
+        // 只统计部分 Key，且边界之外的值不计入任何分桶
+        counts = bsi.histogram(new int[]{20, 57, 64}, RoaringBitmap.bitmapOf(1, 5, 6, 7, 8, 9));
+        assertArrayEquals(new long[]{2, 2}, counts);
+    }
+
+    @Test
+    public void histogramKeysTest() {
+        RoaringBitmap[] bitmaps = bsi.histogramKeys(new int[]{0, 20, 50, 80, 100}, bsi.keys());
+        assertArrayEquals(new int[]{4, 5}, bitmaps[0].toArray());
+        assertArrayEquals(new int[]{1, 8, 10}, bitmaps[1].toArray());
+        assertArrayEquals(new int[]{3, 6, 7}, bitmaps[2].toArray());
+        assertArrayEquals(new int[]{2, 9}, bitmaps[3].toArray());
+        int[] boundaries = new int[]{0, 20, 50, 80, 100};
+        for (int i = 0; i < bitmaps.length; i++) {
+            assertEquals(bsi.between(boundaries[i], boundaries[i + 1] - 1), bitmaps[i]);
+        }
+    }
+
+    @Test
+    public void sumApproxTest() {
+        RoaringBitmap rbm = bsi.keys();
+        ApproxResult<Long> approx = bsi.sumApprox(rbm, 3);
+        System.out.println("SumApprox: " + approx);
+        assertEquals(3, approx.getEvaluatedSlices());
+        assertEquals(448L, approx.getLowerBound().longValue());
+        assertEquals(598L, approx.getUpperBound().longValue());
+        long sum = bsi.sum(rbm);
+        assert(approx.getLowerBound() <= sum && sum <= approx.getUpperBound());
+
+        approx = bsi.sumApprox(rbm, 7);
+        assert(approx.isExact());
+        assertEquals(sum, approx.getLowerBound().longValue());
+        assertEquals(sum, approx.getUpperBound().longValue());
+    }
+
+    @Test
+    public void betweenApproxTest() {
+        ApproxResult<RoaringBitmap> approx = bsi.betweenApprox(57, 83, 3);
+        assertArrayEquals(new int[]{3}, approx.getLowerBound().toArray());
+        assertArrayEquals(new int[]{1, 2, 3, 6, 7}, approx.getUpperBound().toArray());
+        RoaringBitmap exact = bsi.between(57, 83);
+        assert(RoaringBitmap.andNot(approx.getLowerBound(), exact).isEmpty());
+        assert(RoaringBitmap.andNot(exact, approx.getUpperBound()).isEmpty());
+
+        approx = bsi.betweenApprox(57, 83, 10);
+        assert(approx.isExact());
+        assertEquals(exact, approx.getLowerBound());
+        assertEquals(exact, approx.getUpperBound());
+    }
+
+    @Test
+    public void histogramApproxTest() {
+        int[] boundaries = new int[]{0, 20, 50, 80, 100};
+        ApproxResult<long[]> approx = bsi.histogramApprox(boundaries, bsi.keys(), 3);
+        assertArrayEquals(new long[]{1, 1, 1, 1}, approx.getLowerBound());
+        assertArrayEquals(new long[]{3, 6, 4, 2}, approx.getUpperBound());
+
+        approx = bsi.histogramApprox(boundaries, bsi.keys(), 7);
+        assertArrayEquals(bsi.histogram(boundaries, bsi.keys()), approx.getLowerBound());
+        assertArrayEquals(approx.getLowerBound(), approx.getUpperBound());
+    }
+
+    @Test
+    public void denseTest() {
+        // 开启稠密切片且 Key 空间稠密时使用 long[] 切片，结果与逐个 Key 计算一致
+        Random random = new Random(7);
+        int size = 200000;
+        int[] values = new int[size];
+        Rbm32BitSliceIndex denseBsi = new Rbm32BitSliceIndex();
+        denseBsi.setDenseSlices(true);
+        for (int key = 0; key < size; key++) {
+            values[key] = random.nextInt(1000);
+            denseBsi.put(key, values[key]);
+        }
+        // 查询后修改，稠密切片需要同步更新
+        assertEquals(bruteForce(values, 0, 499), denseBsi.between(0, 499).getLongCardinality());
+        denseBsi.put(5, 1023);
+        values[5] = 1023;
+        denseBsi.put(6, 2000);
+        values[6] = 2000;
+        denseBsi.remove(7);
+        values[7] = -1;
+        int[] thresholds = new int[]{0, 1, 255, 499, 500, 999, 1023, 2000, 5000};
+        for (int value : thresholds) {
+            assertEquals(bruteForce(values, value, value), denseBsi.eq(value).getLongCardinality());
+            assertEquals(bruteForce(values, 0, value), denseBsi.le(value).getLongCardinality());
+            assertEquals(bruteForce(values, value + 1, Integer.MAX_VALUE), denseBsi.gt(value).getLongCardinality());
+            assertEquals(bruteForce(values, value, value + 100), denseBsi.between(value, value + 100).getLongCardinality());
+        }
+        long sum = 0;
+        for (int value : values) {
+            sum += Math.max(value, 0);
+        }
+        assertEquals(sum, denseBsi.sum(denseBsi.keys()).longValue());
+        assertEquals(1023, denseBsi.get(5).intValue());
+        assertEquals(-1, denseBsi.get(7).intValue());
+        for (int key = 0; key < size; key += 997) {
+            assertEquals(values[key], denseBsi.get(key).intValue());
+        }
+        // runOptimize 后 ebm 为 run container，展开范围之外紧邻的写入，重新展开
+        denseBsi.runOptimize();
+        denseBsi.put(size, 1023);
+        assertEquals(bruteForce(values, 1023, 1023) + 1, denseBsi.eq(1023).getLongCardinality());
+        assertEquals(bruteForce(values, 0, 499), denseBsi.between(0, 499).getLongCardinality());
+        assertEquals(sum + 1023, denseBsi.sum(denseBsi.keys()).longValue());
+        // 超出展开范围的写入
+        denseBsi.put(size + 1000000, 3);
+        assertEquals(bruteForce(values, 3, 3) + 1, denseBsi.eq(3).getLongCardinality());
+        // 关闭稠密切片后结果不变
+        RoaringBitmap between = denseBsi.between(100, 600);
+        denseBsi.setDenseSlices(false);
+        assertEquals(between, denseBsi.between(100, 600));
+    }
+
+    @Test
+    public void zoneMapTest() throws IOException {
+        // Value 按 Key 聚集：每个 65536 Key 的块内 Value 位于一个窄区间，第 2 个块 Value 恒定
+        Map<Integer, Integer> expected = new HashMap<>();
+        Rbm32BitSliceIndex zoneBsi = new Rbm32BitSliceIndex();
+        for (int chunk = 0; chunk < 6; chunk++) {
+            for (int i = 0; i < 3000; i++) {
+                int key = (chunk << 16) | (i * 3);
+                int value = chunk == 2 ? 250 : chunk * 100 + i % 50;
+                expected.put(key, value);
+                zoneBsi.put(key, value);
+            }
+        }
+        // 覆盖写入与删除只会放宽 Zone Map 边界
+        zoneBsi.put(3, 999);
+        expected.put(3, 999);
+        zoneBsi.remove((4 << 16) | 6);
+        expected.remove((4 << 16) | 6);
+        assertZoneMapQueries(expected, zoneBsi);
+
+        // 默认序列化与原格式相同：flags 只有 runOptimized，不包含 Zone Map，第一次查询时根据切片构建
+        byte[] bytes = zoneBsi.serialize();
+        assertEquals(0, bytes[12]);
+        Rbm32BitSliceIndex newBsi = new Rbm32BitSliceIndex();
+        newBsi.deserialize(bytes);
+        assertZoneMapQueries(expected, newBsi);
+
+        // Zone Map 构建之前的写入与删除
+        Map<Integer, Integer> modified = new HashMap<>(expected);
+        Rbm32BitSliceIndex modifiedBsi = new Rbm32BitSliceIndex();
+        modifiedBsi.deserialize(bytes);
+        modifiedBsi.put((2 << 16) | 1, 1000);
+        modified.put((2 << 16) | 1, 1000);
+        modifiedBsi.put(7 << 16, 420);
+        modified.put(7 << 16, 420);
+        modifiedBsi.remove((5 << 16) | 3);
+        modified.remove((5 << 16) | 3);
+        for (int value : new int[]{250, 420, 1000}) {
+            RoaringBitmap ge = new RoaringBitmap();
+            for (Map.Entry<Integer, Integer> entry : modified.entrySet()) {
+                if (entry.getValue() >= value) {
+                    ge.add(entry.getKey());
+                }
+            }
+            assertEquals(ge, modifiedBsi.ge(value));
+        }
+        assertEquals(1000, modifiedBsi.maxValue(modifiedBsi.keys()).intValue());
+        assertEquals(250, modifiedBsi.minValue(RoaringBitmap.bitmapOfRange(2 << 16, 3 << 16)).intValue());
+        assertEquals(420, modifiedBsi.minValue(RoaringBitmap.bitmapOfRange(7 << 16, 8 << 16)).intValue());
+
+        // 序列化包含 Zone Map，同一个流中连续写入多个 BSI
+        zoneBsi.setSerializeZoneMap(true);
+        bytes = zoneBsi.serialize();
+        assertEquals(2, bytes[12]);
+        assertEquals(zoneBsi.serializedSizeInBytes(), bytes.length);
+        newBsi = new Rbm32BitSliceIndex();
+        newBsi.deserialize(bytes);
+        assertZoneMapQueries(expected, newBsi);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bos);
+        zoneBsi.serialize(output);
+        bsi.serialize(output);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        Rbm32BitSliceIndex first = new Rbm32BitSliceIndex();
+        first.deserialize((DataInput) input);
+        Rbm32BitSliceIndex second = new Rbm32BitSliceIndex();
+        second.deserialize((DataInput) input);
+        assertZoneMapQueries(expected, first);
+        assertEquals(bsi.keys(), second.keys());
+        assertEquals(0, input.available());
+        zoneBsi.setSerializeZoneMap(false);
+
+        // 收紧边界后结果不变
+        zoneBsi.runOptimize();
+        assertZoneMapQueries(expected, zoneBsi);
+    }
+
+    private static void assertZoneMapQueries(Map<Integer, Integer> expected, Rbm32BitSliceIndex zoneBsi) {
+        int[] thresholds = new int[]{0, 49, 100, 149, 150, 250, 251, 420, 999, 1000};
+        for (int value : thresholds) {
+            RoaringBitmap eq = new RoaringBitmap();
+            RoaringBitmap lt = new RoaringBitmap();
+            RoaringBitmap gt = new RoaringBitmap();
+            for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+                if (entry.getValue() == value) {
+                    eq.add(entry.getKey());
+                } else if (entry.getValue() < value) {
+                    lt.add(entry.getKey());
+                } else {
+                    gt.add(entry.getKey());
+                }
+            }
+            assertEquals(eq, zoneBsi.eq(value));
+            assertEquals(RoaringBitmap.or(lt, gt), zoneBsi.neq(value));
+            assertEquals(lt, zoneBsi.lt(value));
+            assertEquals(RoaringBitmap.or(lt, eq), zoneBsi.le(value));
+            assertEquals(gt, zoneBsi.gt(value));
+            assertEquals(RoaringBitmap.or(gt, eq), zoneBsi.ge(value));
+        }
+        RoaringBitmap chunks = RoaringBitmap.bitmapOfRange(2 << 16, 5 << 16);
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            if (chunks.contains(entry.getKey())) {
+                sum += entry.getValue();
+                min = Math.min(min, entry.getValue());
+                max = Math.max(max, entry.getValue());
+            }
+        }
+        assertEquals(sum, zoneBsi.sum(chunks).longValue());
+        assertEquals(min, zoneBsi.minValue(chunks).intValue());
+        assertEquals(max, zoneBsi.maxValue(chunks).intValue());
+        assertEquals(999, zoneBsi.maxValue(zoneBsi.keys()).intValue());
+        assertEquals(0, zoneBsi.minValue(zoneBsi.keys()).intValue());
+    }
+
+    @Test
+    public void distinctAndTopFrequentTest() {
+        // 价格档位：少量高频 Value 加上大量低频 Value
+        Random random = new Random(42);
+        Map<Integer, Long> counts = new HashMap<>();
+        Rbm32BitSliceIndex priceBsi = new Rbm32BitSliceIndex();
+        for (int key = 0; key < 200000; key++) {
+            int value = random.nextInt(4) == 0 ? random.nextInt(30) * 100 : random.nextInt(100000);
+            priceBsi.put(key, value);
+            counts.merge(value, 1L, Long::sum);
+        }
+        RoaringBitmap all = priceBsi.keys();
+        assertEquals(counts.size(), priceBsi.distinctCount(all));
+
+        List<Map.Entry<Integer, Long>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort((e1, e2) -> e1.getValue().equals(e2.getValue())
+                ? Integer.compare(e1.getKey(), e2.getKey()) : Long.compare(e2.getValue(), e1.getValue()));
+        Map<Integer, Long> top = priceBsi.topFrequentValues(20, all);
+        assertEquals(20, top.size());
+        Iterator<Map.Entry<Integer, Long>> iterator = top.entrySet().iterator();
+        for (int i = 0; i < 20; i++) {
+            Map.Entry<Integer, Long> entry = iterator.next();
+            assertEquals(sorted.get(i).getKey(), entry.getKey());
+            assertEquals(sorted.get(i).getValue(), entry.getValue());
+        }
+
+        // 只统计部分 Key，结果与逐个 get 一致
+        RoaringBitmap segment = priceBsi.between(1000, 5000);
+        segment.add(300000);
+        Map<Integer, Long> segmentCounts = new HashMap<>();
+        for (int key : RoaringBitmap.and(segment, all)) {
+            segmentCounts.merge(priceBsi.get(key), 1L, Long::sum);
+        }
+        assertEquals(segmentCounts.size(), priceBsi.distinctCount(segment));
+        Map<Integer, Long> segmentTop = priceBsi.topFrequentValues(segmentCounts.size() + 10, segment);
+        assertEquals(segmentCounts, segmentTop);
+
+        assertEquals(10, bsi.distinctCount(bsi.keys()));
+        assertEquals(0, bsi.distinctCount(RoaringBitmap.bitmapOf(100)));
+        assertTrue(bsi.topFrequentValues(0, bsi.keys()).isEmpty());
+        assertEquals(Collections.singletonMap(80, 1L), bsi.topFrequentValues(1, RoaringBitmap.bitmapOf(2, 100)));
+    }
+
+    @Test
+    public void bulkMutationTest() throws IOException {
+        Random random = new Random(41);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Rbm32BitSliceIndex bulkBsi = new Rbm32BitSliceIndex();
+        for (int i = 0; i < 50000; i++) {
+            int key = random.nextInt(1 << 20);
+            int value = random.nextInt(5000);
+            expected.put(key, value);
+            bulkBsi.put(key, value);
+        }
+        Rbm32BitSliceIndex replica = bulkBsi.clone();
+        long version = bulkBsi.version();
+
+        // 删除最大值所在的 Key 后重新计算最大值
+        RoaringBitmap removed = bulkBsi.ge(4000);
+        bulkBsi.removeAll(removed);
+        for (int key : removed) {
+            expected.remove(key);
+        }
+        assertEquals(-1, bulkBsi.get(removed.first()).intValue());
+        assertEquals(3999, bulkBsi.maxValue().intValue());
+
+        // 一个新块以及已有 Key 写入同一个 Value
+        RoaringBitmap segment = RoaringBitmap.bitmapOfRange(1000, 3000);
+        segment.add(5L << 20, (5L << 20) + 100);
+        bulkBsi.setValue(segment, 7000);
+        for (int key : segment) {
+            expected.put(key, 7000);
+        }
+        assertEquals(7000, bulkBsi.maxValue().intValue());
+        bulkBsi.setValue(segment, 0);
+        for (int key : segment) {
+            expected.put(key, 0);
+        }
+        assertEquals(3999, bulkBsi.maxValue().intValue());
+        assertEquals(0, bulkBsi.minValue().intValue());
+
+        // 只保留前 1/4 的 Key
+        RoaringBitmap retained = RoaringBitmap.bitmapOfRange(0, 1 << 18);
+        bulkBsi.retainAll(retained);
+        expected.keySet().removeIf(key -> !retained.contains(key));
+
+        RoaringBitmap keys = new RoaringBitmap();
+        long sum = 0;
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            keys.add(entry.getKey());
+            sum += entry.getValue();
+            assertEquals(entry.getValue(), bulkBsi.get(entry.getKey()));
+        }
+        assertEquals(keys, bulkBsi.keys());
+        assertEquals(sum, bulkBsi.sum(keys).longValue());
+        assertEquals(Collections.max(expected.values()), bulkBsi.maxValue());
+        assertEquals(bulkBsi.maxValue(keys), bulkBsi.maxValue());
+        assertEquals(bulkBsi.minValue(keys), bulkBsi.minValue());
+        for (int value : new int[]{0, 1, 100, 2500, 3999}) {
+            RoaringBitmap le = new RoaringBitmap();
+            for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+                if (entry.getValue() <= value) {
+                    le.add(entry.getKey());
+                }
+            }
+            assertEquals(le, bulkBsi.le(value));
+        }
+
+        // 批量修改同样记录在增量中
+        replica.applyDelta(bulkBsi.serializeDelta(version));
+        assertEquals(bulkBsi.keys(), replica.keys());
+        assertEquals(bulkBsi.between(100, 3000), replica.between(100, 3000));
+
+        bulkBsi.retainAll(new RoaringBitmap());
+        assertTrue(bulkBsi.isEmpty());
+        assertEquals(-1, bulkBsi.maxValue().intValue());
+    }
+
+    @Test
+    public void deltaTest() throws IOException {
+        Random random = new Random(37);
+        Rbm32BitSliceIndex source = new Rbm32BitSliceIndex();
+        for (int i = 0; i < 100000; i++) {
+            source.put(random.nextInt(1 << 22), random.nextInt(100000));
+        }
+        // 新副本从版本 0 开始同步
+        Rbm32BitSliceIndex replica = new Rbm32BitSliceIndex();
+        assertEquals(source.version(), replica.applyDelta(source.serializeDelta(replica.version())));
+        assertArrayEquals(source.serialize(), replica.serialize());
+
+        // 少量修改：覆盖、删除、新增块、更大的值
+        source.put(5, 7);
+        source.put(1 << 23, 3);
+        source.put(3 << 16, 1 << 20);
+        RoaringBitmap removed = new RoaringBitmap();
+        for (int i = 0; i < 10; i++) {
+            removed.add(source.keys().select(1000 + i * 50));
+        }
+        for (int key : removed) {
+            source.remove(key);
+        }
+        byte[] delta = source.serializeDelta(replica.version());
+        assertTrue(delta.length * 20 < source.serializedSizeInBytes());
+        replica.applyDelta(delta);
+        assertEquals(source.version(), replica.version());
+        assertEquals(source.keys(), replica.keys());
+        assertEquals(source.maxValue(), replica.maxValue());
+        assertEquals(source.between(1000, 50000), replica.between(1000, 50000));
+        assertEquals(source.sum(source.keys()), replica.sum(replica.keys()));
+        assertEquals(7, replica.get(5).intValue());
+        assertEquals(-1, replica.get(removed.first()).intValue());
+
+        // 删除整个块
+        for (int key : source.keys().limit(1)) {
+            RoaringBitmap chunk = RoaringBitmap.and(source.keys(), RoaringBitmap.bitmapOfRange(key & ~0xFFFF, (key & ~0xFFFF) + 0x10000L));
+            for (int chunkKey : chunk) {
+                source.remove(chunkKey);
+            }
+        }
+        replica.applyDelta(source.serializeDelta(replica.version()));
+        assertEquals(source.keys(), replica.keys());
+        assertEquals(source.minValue(source.keys()), replica.minValue(replica.keys()));
+        // 没有修改时增量不包含任何块
+        byte[] emptyDelta = source.serializeDelta(replica.version());
+        assertTrue(emptyDelta.length < 40 + 8 * (source.sliceSize() + 1));
+        replica.applyDelta(emptyDelta);
+        assertArrayEquals(source.serialize(), replica.serialize());
+
+        // 落后一个版本的副本不能应用更新的增量
+        Rbm32BitSliceIndex stale = replica.clone();
+        long staleVersion = replica.version();
+        source.put(11, 11);
+        replica.applyDelta(source.serializeDelta(replica.version()));
+        source.put(12, 12);
+        byte[] newerDelta = source.serializeDelta(replica.version());
+        try {
+            stale.applyDelta(newerDelta);
+            assertTrue(false);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(staleVersion, stale.version());
+        assertEquals(-1, stale.get(11).intValue());
+        // 以自己的版本重新请求增量
+        stale.applyDelta(source.serializeDelta(stale.version()));
+        assertEquals(source.version(), stale.version());
+        assertEquals(11, stale.get(11).intValue());
+        assertEquals(12, stale.get(12).intValue());
+        replica.applyDelta(newerDelta);
+        assertArrayEquals(source.serialize(), replica.serialize());
+
+        // clear 之后只能完整同步
+        source.clear();
+        source.put(1, 1);
+        replica.applyDelta(source.serializeDelta(replica.version()));
+        assertEquals(source.keys(), replica.keys());
+        assertEquals(source.version(), replica.version());
+    }
+
+    @Test
+    public void channelSerializeTest() throws IOException {
+        Random random = new Random(38);
+        Rbm32BitSliceIndex bigBsi = new Rbm32BitSliceIndex();
+        for (int i = 0; i < 200000; i++) {
+            bigBsi.put(random.nextInt(1 << 24), random.nextInt(1 << 20));
+        }
+        byte[] expected = bigBsi.serialize();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        File file = File.createTempFile("bsi", ".bin");
+        try {
+            // 并行写入 FileChannel 的指定位置，格式与 serialize() 相同
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                assertEquals(expected.length, bigBsi.serialize(channel, 16, executor));
+                ByteBuffer written = ByteBuffer.allocate(expected.length);
+                channel.read(written, 16);
+                assertArrayEquals(expected, written.array());
+
+                // 并行读取
+                Rbm32BitSliceIndex restored = new Rbm32BitSliceIndex();
+                assertEquals(expected.length, restored.deserialize(channel, 16, executor));
+                assertArrayEquals(expected, restored.serialize());
+                assertEquals(bigBsi.between(1000, 500000), restored.between(1000, 500000));
+            }
+
+            // 流式写入 WritableByteChannel
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            assertEquals(expected.length, bigBsi.serialize(Channels.newChannel(bos), executor, 2));
+            assertArrayEquals(expected, bos.toByteArray());
+
+            // 包含 Zone Map
+            bigBsi.setSerializeZoneMap(true);
+            byte[] zoneExpected = bigBsi.serialize();
+            assertTrue(zoneExpected.length > expected.length);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                assertEquals(zoneExpected.length, bigBsi.serialize(channel, 0, executor));
+                Rbm32BitSliceIndex restored = new Rbm32BitSliceIndex();
+                restored.setSerializeZoneMap(true);
+                assertEquals(zoneExpected.length, restored.deserialize(channel, 0, executor));
+                assertArrayEquals(zoneExpected, restored.serialize());
+            }
+            bos = new ByteArrayOutputStream();
+            assertEquals(zoneExpected.length, bigBsi.serialize(Channels.newChannel(bos), executor, 2));
+            assertArrayEquals(zoneExpected, bos.toByteArray());
+
+            // Run 容器：容器个数少于 4 时没有偏移量，位图长度依次累加得到
+            for (int chunks : new int[]{2, 6}) {
+                Rbm32BitSliceIndex runBsi = new Rbm32BitSliceIndex();
+                runBsi.setValue(RoaringBitmap.bitmapOfRange(100, chunks * 0x10000L - 100), 5);
+                runBsi.put(chunks * 0x10000 + 7, 1000);
+                runBsi.runOptimize();
+                byte[] runExpected = runBsi.serialize();
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                    assertEquals(runExpected.length, runBsi.serialize(channel, 3, executor));
+                    Rbm32BitSliceIndex restored = new Rbm32BitSliceIndex();
+                    assertEquals(runExpected.length, restored.deserialize(channel, 3, executor));
+                    assertArrayEquals(runExpected, restored.serialize());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    private static long bruteForce(int[] values, int lower, int upper) {
+        long count = 0;
+        for (int value : values) {
+            if (value >= 0 && value >= lower && value <= upper) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Test
     public void cloneTest() {
         Rbm32BitSliceIndex cloneBsi = bsi.clone();
@@ -331,6 +940,9 @@ public class Rbm32BitSliceIndexTest {
         int bytes = bsi.serializedSizeInBytes();
         System.out.println("bytes: " + bytes);
         assertEquals(223, bytes);
+        // 切片 223 字节 + Zone Map(块个数 4 字节 + 1 个块 10 字节)
+        bsi.setSerializeZoneMap(true);
+        assertEquals(237, bsi.serializedSizeInBytes());
     }
 
 //    @Test
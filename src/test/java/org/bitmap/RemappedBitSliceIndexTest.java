@@ -0,0 +1,145 @@
+package org.bitmap;
+
+import org.bitmap.core.Operation;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.bitmap.intint.RemappedBitSliceIndex;
+import org.bitmap.intint.RemappedKeys;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RemappedBitSliceIndex 测试
+ */
+public class RemappedBitSliceIndexTest {
+    private static final int SIZE = 20000;
+
+    // 两个 BSI 只在所有测试之前构建一次，每个测试使用各自的副本
+    private static int[] keys;
+    private static int[] values;
+    private static Rbm32BitSliceIndex sharedDirectBsi;
+    private static RemappedBitSliceIndex sharedRemappedBsi;
+
+    private Rbm32BitSliceIndex directBsi;
+    private RemappedBitSliceIndex remappedBsi;
+
+    @BeforeClass
+    public static void build() {
+        // 分布在整个 int 范围内的哈希 ID
+        Random random = new Random(36);
+        keys = new int[SIZE];
+        values = new int[SIZE];
+        sharedDirectBsi = new Rbm32BitSliceIndex();
+        sharedRemappedBsi = new RemappedBitSliceIndex(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = random.nextInt();
+            values[i] = random.nextInt(10000);
+            sharedDirectBsi.put(keys[i], values[i]);
+            sharedRemappedBsi.put(keys[i], values[i]);
+        }
+    }
+
+    @Before
+    public void init() {
+        directBsi = sharedDirectBsi.clone();
+        remappedBsi = sharedRemappedBsi.clone();
+    }
+
+    @Test
+    public void queryTest() {
+        assertEquals(directBsi.getLongCardinality(), remappedBsi.getLongCardinality());
+        assertEquals(directBsi.keys(), remappedBsi.keys());
+        for (int i = 0; i < SIZE; i += 1000) {
+            assertEquals(directBsi.get(keys[i]), remappedBsi.get(keys[i]));
+        }
+        assertEquals(directBsi.eq(5000), remappedBsi.eq(5000));
+        assertEquals(directBsi.neq(5000), remappedBsi.neq(5000));
+        assertEquals(directBsi.lt(300), remappedBsi.lt(300));
+        assertEquals(directBsi.ge(9000), remappedBsi.ge(9000));
+        assertEquals(directBsi.between(100, 2000), remappedBsi.between(100, 2000));
+
+        RoaringBitmap rbm = directBsi.le(4000);
+        assertEquals(directBsi.sum(rbm), remappedBsi.sum(rbm));
+        assertEquals(directBsi.minValue(rbm), remappedBsi.minValue(rbm));
+        assertEquals(directBsi.maxValue(rbm), remappedBsi.maxValue(rbm));
+    }
+
+    @Test
+    public void lazyKeysTest() {
+        // 结果之间的组合、求和都不需要转换为外部 Key
+        RemappedKeys low = remappedBsi.compare(Operation.LT, 3000, 0, null);
+        RemappedKeys high = remappedBsi.compare(Operation.GE, 7000, 0, null);
+        RemappedKeys middle = remappedBsi.compare(Operation.RANGE, 1000, 8000, null);
+        RemappedKeys either = low.or(high);
+        assertEquals(RoaringBitmap.or(directBsi.lt(3000), directBsi.ge(7000)), either.toRoaringBitmap());
+        assertEquals(RoaringBitmap.and(directBsi.lt(3000), directBsi.between(1000, 8000)),
+                low.and(middle).toRoaringBitmap());
+        assertEquals(RoaringBitmap.andNot(directBsi.between(1000, 8000), directBsi.ge(7000)),
+                middle.andNot(high).toRoaringBitmap());
+        assertEquals(directBsi.sum(either.toRoaringBitmap()), remappedBsi.sum(either));
+        assertEquals(directBsi.minValue(high.toRoaringBitmap()), remappedBsi.minValue(high));
+
+        // 在上一个结果内继续查询
+        RemappedKeys within = remappedBsi.compare(Operation.EQ, values[0], 0, middle);
+        assertEquals(RoaringBitmap.and(directBsi.eq(values[0]), directBsi.between(1000, 8000)),
+                within.toRoaringBitmap());
+
+        // 迭代器逐个转换
+        RoaringBitmap iterated = new RoaringBitmap();
+        PrimitiveIterator.OfInt iterator = high.iterator();
+        while (iterator.hasNext()) {
+            int key = iterator.nextInt();
+            assertTrue(high.contains(key));
+            iterated.add(key);
+        }
+        assertEquals(directBsi.ge(7000), iterated);
+        assertFalse(high.contains(keys[0]) != values[0] >= 7000);
+    }
+
+    @Test
+    public void removeAndCompactTest() throws IOException {
+        for (int i = 0; i < SIZE; i += 2) {
+            assertEquals(directBsi.remove(keys[i]), remappedBsi.remove(keys[i]));
+        }
+        assertEquals(-1, remappedBsi.get(keys[0]).intValue());
+        assertFalse(remappedBsi.containsKey(keys[0]));
+        RemappedKeys before = remappedBsi.compare(Operation.GT, 5000, 0, null);
+        remappedBsi.compact();
+        assertEquals(directBsi.keys(), remappedBsi.keys());
+        assertEquals(directBsi.gt(5000), remappedBsi.gt(5000));
+        assertEquals(before.toRoaringBitmap(), remappedBsi.gt(5000));
+        try {
+            // 压缩后之前的结果属于旧字典
+            remappedBsi.sum(before);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        RemappedBitSliceIndex newBsi = new RemappedBitSliceIndex();
+        newBsi.deserialize(remappedBsi.serialize());
+        assertEquals(remappedBsi.keys(), newBsi.keys());
+        assertEquals(remappedBsi.between(2000, 6000), newBsi.between(2000, 6000));
+        assertEquals(remappedBsi.get(keys[1]), newBsi.get(keys[1]));
+    }
+
+    @Test
+    public void serializedSizeTest() {
+        // 哈希 ID 作为 Key：字典(每个 Key 4 字节)加上序号切片仍然小于直接使用哈希 ID 的切片
+        // 查询耗时的对比见 MacroBenchmark --remapped=true
+        directBsi.runOptimize();
+        remappedBsi.runOptimize();
+        int directBytes = directBsi.serializedSizeInBytes();
+        int remappedBytes = remappedBsi.serializedSizeInBytes();
+        assertTrue(remappedBytes < directBytes);
+    }
+}
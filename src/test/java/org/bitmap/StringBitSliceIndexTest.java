@@ -0,0 +1,131 @@
+package org.bitmap;
+
+import org.bitmap.intint.StringBitSliceIndex;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * StringBitSliceIndex 测试
+ */
+public class StringBitSliceIndexTest {
+    private static final String[] COUNTRIES = new String[]{
+            "US", "CN", "DE", "FR", "JP", "BR", "IN", "GB", "CA", "AU", "CH", "CL", "CO", "中国", "DK"};
+
+    private Map<Integer, String> expected;
+    private StringBitSliceIndex bsi;
+
+    @Before
+    public void init() {
+        // 乱序写入，字典在插入过程中不断平移序号
+        Random random = new Random(44);
+        expected = new HashMap<>();
+        bsi = new StringBitSliceIndex();
+        for (int key = 0; key < 20000; key++) {
+            String value = COUNTRIES[random.nextInt(COUNTRIES.length)];
+            if (random.nextInt(10) == 0) {
+                value = value + "-" + random.nextInt(20);
+            }
+            expected.put(key, value);
+            bsi.put(key, value);
+        }
+    }
+
+    private RoaringBitmap bruteForce(java.util.function.Predicate<String> predicate) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            if (predicate.test(entry.getValue())) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void getTest() {
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), bsi.get(entry.getKey()));
+        }
+        assertNull(bsi.get(100000));
+        assertEquals(Collections.min(expected.values()), bsi.minValue());
+        assertEquals(Collections.max(expected.values()), bsi.maxValue());
+        assertEquals(expected.get(3), bsi.remove(3));
+        assertNull(bsi.remove(3));
+        expected.remove(3);
+        // 新字符串插入到字典中间
+        bsi.put(4, "CM");
+        expected.put(4, "CM");
+        assertEquals("CM", bsi.get(4));
+        assertEquals(expected.get(5), bsi.get(5));
+        assertEquals(RoaringBitmap.bitmapOf(4), bsi.eq("CM"));
+    }
+
+    @Test
+    public void compareTest() {
+        assertEquals(bruteForce(v -> v.equals("DE")), bsi.eq("DE"));
+        assertTrue(bsi.eq("XX").isEmpty());
+        assertEquals(bruteForce(v -> !v.equals("DE")), bsi.neq("DE"));
+        assertEquals(bsi.keys(), bsi.neq("XX"));
+        assertEquals(bruteForce(v -> v.compareTo("CL") < 0), bsi.lt("CL"));
+        assertEquals(bruteForce(v -> v.compareTo("CL") <= 0), bsi.le("CL"));
+        assertEquals(bruteForce(v -> v.compareTo("D") >= 0), bsi.ge("D"));
+        assertEquals(bruteForce(v -> v.compareTo("FR") > 0), bsi.gt("FR"));
+        assertEquals(bruteForce(v -> v.compareTo("BR-5") >= 0 && v.compareTo("IN") <= 0), bsi.between("BR-5", "IN"));
+        assertEquals(bruteForce(v -> v.startsWith("C")), bsi.prefix("C"));
+        assertEquals(bruteForce(v -> v.startsWith("US-1")), bsi.prefix("US-1"));
+        assertTrue(bsi.prefix("ZZ").isEmpty());
+        assertEquals(bruteForce(v -> v.equals("US") || v.equals("CA") || v.equals("CH") || v.equals("CL")),
+                bsi.in(Arrays.asList("US", "CA", "CH", "CL", "XX")));
+    }
+
+    @Test
+    public void bulkTest() {
+        RoaringBitmap segment = RoaringBitmap.bitmapOfRange(100, 200);
+        bsi.setValue(segment, "AA");
+        assertEquals(segment, bsi.eq("AA"));
+        assertEquals("AA", bsi.minValue());
+        bsi.removeAll(segment);
+        for (int key : segment) {
+            expected.remove(key);
+        }
+        assertTrue(bsi.eq("AA").isEmpty());
+        assertEquals(bruteForce(v -> v.startsWith("J")), bsi.prefix("J"));
+    }
+
+    @Test
+    public void serializeTest() throws IOException {
+        bsi.runOptimize();
+        byte[] bytes = bsi.serialize();
+        assertEquals(bsi.serializedSizeInBytes(), bytes.length);
+        StringBitSliceIndex newBsi = new StringBitSliceIndex();
+        newBsi.deserialize(bytes);
+        assertEquals(bsi.dictionarySize(), newBsi.dictionarySize());
+        assertEquals(bsi.prefix("中"), newBsi.prefix("中"));
+        assertEquals(bsi.get(7), newBsi.get(7));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bsi.serialize(new DataOutputStream(bos));
+        StringBitSliceIndex streamBsi = new StringBitSliceIndex();
+        streamBsi.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertEquals(bsi.between("C", "D"), streamBsi.between("C", "D"));
+        // 反序列化后继续插入新字符串
+        streamBsi.put(1, "BB");
+        assertEquals("BB", streamBsi.get(1));
+        assertEquals(bsi.get(2), streamBsi.get(2));
+    }
+}
@@ -0,0 +1,140 @@
+package org.bitmap;
+
+import org.bitmap.intint.WindowedBitSliceIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WindowedBitSliceIndex 测试
+ */
+public class WindowedBitSliceIndexTest {
+    private static final long HOUR = 3600 * 1000L;
+    private static final int RETENTION = 6;
+
+    private ExecutorService executor;
+    private WindowedBitSliceIndex windowed;
+    // 每个小时写入的 key -> value
+    private List<Map<Integer, Integer>> hours;
+
+    @Before
+    public void init() {
+        executor = Executors.newFixedThreadPool(4);
+        windowed = new WindowedBitSliceIndex(HOUR, RETENTION, executor);
+        hours = new ArrayList<>();
+        Random random = new Random(43);
+        for (int hour = 0; hour < 10; hour++) {
+            Map<Integer, Integer> values = new HashMap<>();
+            for (int i = 0; i < 2000; i++) {
+                int key = random.nextInt(5000);
+                int value = random.nextInt(1000 * (hour + 1));
+                values.put(key, value);
+                windowed.put(hour * HOUR + random.nextInt((int) HOUR), key, value);
+            }
+            hours.add(values);
+        }
+    }
+
+    @After
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void windowTest() {
+        // 只保留最近 6 个小时
+        assertEquals(RETENTION, windowed.segmentCount());
+        assertNull(windowed.segment(3 * HOUR));
+        assertNotNull(windowed.segment(4 * HOUR));
+        for (int intervals = 1; intervals <= RETENTION; intervals++) {
+            List<Map<Integer, Integer>> window = hours.subList(10 - intervals, 10);
+            RoaringBitmap keys = new RoaringBitmap();
+            RoaringBitmap between = new RoaringBitmap();
+            long sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = -1;
+            for (Map<Integer, Integer> values : window) {
+                for (Map.Entry<Integer, Integer> entry : values.entrySet()) {
+                    keys.add(entry.getKey());
+                    if (entry.getValue() >= 2000 && entry.getValue() <= 5000) {
+                        between.add(entry.getKey());
+                    }
+                    if (entry.getKey() < 1000) {
+                        sum += entry.getValue();
+                        min = Math.min(min, entry.getValue());
+                        max = Math.max(max, entry.getValue());
+                    }
+                }
+            }
+            RoaringBitmap foundSet = RoaringBitmap.bitmapOfRange(0, 1000);
+            assertEquals(keys, windowed.keys(intervals));
+            assertEquals(between, windowed.between(intervals, 2000, 5000));
+            assertEquals(sum, windowed.sum(intervals, foundSet));
+            assertEquals(min, windowed.minValue(intervals, foundSet));
+            assertEquals(max, windowed.maxValue(intervals, foundSet));
+        }
+    }
+
+    @Test
+    public void topKTest() {
+        Map<Integer, Integer> best = new HashMap<>();
+        for (Map<Integer, Integer> values : hours.subList(7, 10)) {
+            for (Map.Entry<Integer, Integer> entry : values.entrySet()) {
+                best.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+        List<Map.Entry<Integer, Integer>> sorted = new ArrayList<>(best.entrySet());
+        sorted.sort((e1, e2) -> e1.getValue().equals(e2.getValue())
+                ? Integer.compare(e1.getKey(), e2.getKey()) : Integer.compare(e2.getValue(), e1.getValue()));
+        int[] expected = new int[50];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = sorted.get(i).getKey();
+        }
+        assertArrayEquals(expected, windowed.topK(3, 50));
+        assertEquals(0, windowed.topK(3, 0).length);
+    }
+
+    @Test
+    public void expireTest() {
+        // 迟到数据写入对应的历史时间段
+        windowed.put(5 * HOUR, 1 << 20, 7);
+        assertTrue(windowed.between(5, 7, 7).contains(1 << 20));
+        assertTrue(windowed.segment(5 * HOUR).containsKey(1 << 20));
+        try {
+            windowed.put(2 * HOUR, 1, 1);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // 推进 2 个小时，最早的 2 个时间段过期
+        windowed.advance(11 * HOUR);
+        assertEquals(RETENTION - 2, windowed.segmentCount());
+        assertNull(windowed.segment(5 * HOUR));
+        assertTrue(windowed.keys(1).isEmpty());
+        assertEquals(hours.get(9).size(), windowed.keys(3).getLongCardinality());
+
+        // 推进超过保留范围，所有时间段过期
+        windowed.advance(100 * HOUR);
+        assertEquals(0, windowed.segmentCount());
+        assertEquals(0, windowed.sum(RETENTION, null));
+        assertEquals(-1, windowed.maxValue(RETENTION, null));
+        windowed.put(100 * HOUR, 1, 3);
+        assertEquals(3, windowed.sum(RETENTION, null));
+    }
+}
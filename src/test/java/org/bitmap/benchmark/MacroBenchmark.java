@@ -0,0 +1,579 @@
+package org.bitmap.benchmark;
+
+import org.bitmap.core.Operation;
+import org.bitmap.intint.Rbm32BitSliceIndex;
+import org.bitmap.intint.RemappedBitSliceIndex;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 功能：Rbm32BitSliceIndex 端到端规模与内存回归基准
+ *         生成合成数据集并构建指定规模的 BSI，依次测量：
+ *           构建：耗时、堆内存占用、serializedSizeInBytes 以及每个 Key 的字节数
+ *           加载：通过 FileChannel 并行序列化/反序列化的耗时
+ *           Key 重映射(--remapped=true)：RemappedBitSliceIndex 与直接使用 Key 的序列化大小以及范围查询 + 求和的耗时
+ *           混合负载：多个线程按比例执行查询与写入(读写锁保护)，统计吞吐量与 p50/p99 延迟
+ *         每个阶段记录 GC 耗时，结果以一行 JSON 输出，便于不同版本之间对比
+ *         通过 benchmark profile 运行：mvn -Pbenchmark -DskipTests verify -Dbenchmark.keys=100000000
+ *         也可以直接运行 main，参数格式为 --name=value，见 Config
+ */
+public class MacroBenchmark {
+    // 每个线程每种操作最多保留的延迟样本
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    /**
+     * 基准参数
+     */
+    static final class Config {
+        // Key 个数
+        long keys = 1000000;
+        // Key 分布：dense 连续 Key，hashed 分布在整个 int 范围内的哈希 Key
+        String keySpace = "dense";
+        // Value 分布：uniform、zipf、clustered、time
+        String values = "uniform";
+        // Value 最大值
+        int maxValue = 1000000;
+        // 混合负载线程数与持续时间
+        int threads = 4;
+        int seconds = 10;
+        // 操作比例 操作:权重，操作包括 eq、between、sum、max、put
+        String mix = "eq:20,between:30,sum:30,max:10,put:10";
+        // between/sum/max 的 Value 区间宽度占 maxValue 的比例
+        double rangeFraction = 0.01;
+        long seed = 45;
+        boolean runOptimize = true;
+        // 是否使用稠密切片(Rbm32BitSliceIndex.setDenseSlices)
+        boolean denseSlices = false;
+        // 是否对比 RemappedBitSliceIndex
+        boolean remapped = false;
+        // 对比时执行的范围查询 + 求和次数
+        int remappedQueries = 20;
+        // 结果追加到该文件，为空时只输出到标准输出
+        String output = "";
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                    throw new IllegalArgumentException("Argument should be --name=value: " + arg);
+                }
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (name) {
+                    case "keys":
+                        config.keys = Long.parseLong(value);
+                        break;
+                    case "keySpace":
+                        config.keySpace = value;
+                        break;
+                    case "values":
+                        config.values = value;
+                        break;
+                    case "maxValue":
+                        config.maxValue = Integer.parseInt(value);
+                        break;
+                    case "threads":
+                        config.threads = Integer.parseInt(value);
+                        break;
+                    case "seconds":
+                        config.seconds = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        config.mix = value;
+                        break;
+                    case "rangeFraction":
+                        config.rangeFraction = Double.parseDouble(value);
+                        break;
+                    case "seed":
+                        config.seed = Long.parseLong(value);
+                        break;
+                    case "runOptimize":
+                        config.runOptimize = Boolean.parseBoolean(value);
+                        break;
+                    case "denseSlices":
+                        config.denseSlices = Boolean.parseBoolean(value);
+                        break;
+                    case "remapped":
+                        config.remapped = Boolean.parseBoolean(value);
+                        break;
+                    case "remappedQueries":
+                        config.remappedQueries = Integer.parseInt(value);
+                        break;
+                    case "output":
+                        config.output = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown argument: " + name);
+                }
+            }
+            if (config.keys <= 0 || config.keys > (1L << 32)) {
+                throw new IllegalArgumentException("Keys should be between 1 and 2^32");
+            }
+            if (!config.keySpace.equals("dense") && !config.keySpace.equals("hashed")) {
+                throw new IllegalArgumentException("Unknown key space: " + config.keySpace);
+            }
+            if (config.maxValue <= 0 || config.threads <= 0 || config.seconds < 0) {
+                throw new IllegalArgumentException("MaxValue and threads should be positive, seconds non-negative");
+            }
+            return config;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        String json = new MacroBenchmark(config).run();
+        System.out.println(json);
+        if (!config.output.isEmpty()) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(config.output, true), StandardCharsets.UTF_8)) {
+                writer.write(json);
+                writer.write('\n');
+            }
+        }
+    }
+
+    private final Config config;
+    private final ValueGenerator generator;
+    private final String[] operations;
+    private final int[] weights;
+    private final Map<String, Object> report = new LinkedHashMap<>();
+
+    MacroBenchmark(Config config) {
+        this.config = config;
+        this.generator = ValueGenerator.of(config.values, config.maxValue, config.keys);
+        String[] entries = config.mix.split(",");
+        this.operations = new String[entries.length];
+        this.weights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].split(":");
+            operations[i] = entry[0].trim();
+            weights[i] = (i == 0 ? 0 : weights[i - 1]) + Integer.parseInt(entry[1].trim());
+            if (!Arrays.asList("eq", "between", "sum", "max", "put").contains(operations[i])) {
+                throw new IllegalArgumentException("Unknown operation: " + operations[i]);
+            }
+        }
+    }
+
+    String run() throws Exception {
+        Map<String, Object> configReport = new LinkedHashMap<>();
+        configReport.put("keys", config.keys);
+        configReport.put("keySpace", config.keySpace);
+        configReport.put("values", config.values);
+        configReport.put("maxValue", config.maxValue);
+        configReport.put("threads", config.threads);
+        configReport.put("seconds", config.seconds);
+        configReport.put("mix", config.mix);
+        configReport.put("runOptimize", config.runOptimize);
+        configReport.put("denseSlices", config.denseSlices);
+        configReport.put("remapped", config.remapped);
+        configReport.put("javaVersion", System.getProperty("java.version"));
+        configReport.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        report.put("config", configReport);
+
+        // 构建结果只由 holder 引用，load 序列化后清空 holder 使其可以被回收
+        Rbm32BitSliceIndex[] holder = new Rbm32BitSliceIndex[]{build()};
+        Rbm32BitSliceIndex bsi = load(holder);
+        if (config.remapped) {
+            remapped(bsi);
+        }
+        mixedLoad(bsi);
+        return toJson(report);
+    }
+
+    /**
+     * 构建阶段：逐个 put 所有 Key
+     */
+    private Rbm32BitSliceIndex build() {
+        long heapBefore = usedHeap();
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+        Random random = new Random(config.seed);
+        Rbm32BitSliceIndex bsi = new Rbm32BitSliceIndex();
+        for (long i = 0; i < config.keys; i++) {
+            bsi.put(key(i), generator.next(i, random));
+        }
+        long buildNanos = System.nanoTime() - start;
+        long optimizeNanos = 0;
+        if (config.runOptimize) {
+            start = System.nanoTime();
+            bsi.runOptimize();
+            optimizeNanos = System.nanoTime() - start;
+        }
+        long gc = gcMillis() - gcBefore;
+        long heapBytes = usedHeap() - heapBefore;
+        long serializedBytes = bsi.serializedSizeInBytes();
+
+        Map<String, Object> build = new LinkedHashMap<>();
+        build.put("millis", buildNanos / 1000000);
+        build.put("putsPerSecond", round(config.keys * 1e9 / Math.max(buildNanos, 1)));
+        build.put("runOptimizeMillis", optimizeNanos / 1000000);
+        build.put("sliceSize", bsi.sliceSize());
+        build.put("heapBytes", heapBytes);
+        build.put("heapBytesPerKey", round((double) heapBytes / config.keys));
+        build.put("serializedBytes", serializedBytes);
+        build.put("serializedBytesPerKey", round((double) serializedBytes / config.keys));
+        build.put("gcMillis", gc);
+        report.put("build", build);
+        return bsi;
+    }
+
+    /**
+     * 加载阶段：通过 FileChannel 并行序列化到临时文件，再并行反序列化
+     * @param holder 只包含构建阶段 BSI 的数组，序列化后被清空
+     */
+    private Rbm32BitSliceIndex load(Rbm32BitSliceIndex[] holder) throws IOException {
+        File file = File.createTempFile("bsi-benchmark", ".bin");
+        file.deleteOnExit();
+        long gcBefore = gcMillis();
+        Map<String, Object> load = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long start = System.nanoTime();
+            long bytes = holder[0].serialize(channel, 0L);
+            load.put("serializeMillis", (System.nanoTime() - start) / 1000000);
+            load.put("fileBytes", bytes);
+            // 释放构建阶段的 BSI，之后的负载作用于加载结果
+            holder[0] = null;
+            Rbm32BitSliceIndex loaded = new Rbm32BitSliceIndex();
+            loaded.setDenseSlices(config.denseSlices);
+            start = System.nanoTime();
+            loaded.deserialize(channel, 0L);
+            load.put("deserializeMillis", (System.nanoTime() - start) / 1000000);
+            load.put("gcMillis", gcMillis() - gcBefore);
+            report.put("load", load);
+            return loaded;
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Key 重映射阶段：以相同的 Key/Value 构建 RemappedBitSliceIndex，对比序列化大小与范围查询 + 求和的耗时
+     *      对比结束后释放 RemappedBitSliceIndex
+     */
+    private void remapped(Rbm32BitSliceIndex bsi) {
+        long start = System.nanoTime();
+        RemappedBitSliceIndex remappedBsi = new RemappedBitSliceIndex((int) Math.min(config.keys, Integer.MAX_VALUE));
+        remappedBsi.setDenseSlices(config.denseSlices);
+        IntIterator iterator = bsi.keys().getIntIterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            remappedBsi.put(key, bsi.get(key));
+        }
+        if (config.runOptimize) {
+            remappedBsi.runOptimize();
+        }
+        long buildNanos = System.nanoTime() - start;
+
+        int range = Math.max(1, (int) (config.maxValue * config.rangeFraction));
+        int step = Math.max(1, config.maxValue / Math.max(1, config.remappedQueries));
+        long directSum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < config.remappedQueries; i++) {
+            directSum += bsi.sum(bsi.between(i * step, i * step + range));
+        }
+        long directNanos = System.nanoTime() - start;
+        long remappedSum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < config.remappedQueries; i++) {
+            remappedSum += remappedBsi.sum(remappedBsi.compare(Operation.RANGE, i * step, i * step + range, null));
+        }
+        long remappedNanos = System.nanoTime() - start;
+        if (directSum != remappedSum) {
+            throw new IllegalStateException("Remapped sum " + remappedSum + " differs from direct sum " + directSum);
+        }
+
+        Map<String, Object> remapped = new LinkedHashMap<>();
+        remapped.put("buildMillis", buildNanos / 1000000);
+        remapped.put("directSerializedBytes", bsi.serializedSizeInBytes());
+        remapped.put("remappedSerializedBytes", remappedBsi.serializedSizeInBytes());
+        remapped.put("queries", config.remappedQueries);
+        remapped.put("directQueryMillis", directNanos / 1000000);
+        remapped.put("remappedQueryMillis", remappedNanos / 1000000);
+        report.put("remapped", remapped);
+    }
+
+    /**
+     * 混合负载阶段：查询持有读锁，写入持有写锁
+     */
+    private void mixedLoad(final Rbm32BitSliceIndex bsi) throws Exception {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final long deadline = System.nanoTime() + config.seconds * 1000000000L;
+        long gcBefore = gcMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(config.threads);
+        List<Future<LatencySamples[]>> futures = new ArrayList<>();
+        for (int t = 0; t < config.threads; t++) {
+            futures.add(executor.submit(new Callable<LatencySamples[]>() {
+                @Override
+                public LatencySamples[] call() {
+                    return worker(bsi, lock, deadline);
+                }
+            }));
+        }
+        LatencySamples[] total = new LatencySamples[operations.length];
+        for (int i = 0; i < total.length; i++) {
+            total[i] = new LatencySamples();
+        }
+        for (Future<LatencySamples[]> future : futures) {
+            LatencySamples[] samples = future.get();
+            for (int i = 0; i < total.length; i++) {
+                total[i].merge(samples[i]);
+            }
+        }
+        executor.shutdown();
+
+        Map<String, Object> queries = new LinkedHashMap<>();
+        long totalCount = 0;
+        for (int i = 0; i < operations.length; i++) {
+            LatencySamples samples = total[i];
+            totalCount += samples.count;
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("count", samples.count);
+            operation.put("opsPerSecond", round(samples.count / Math.max(config.seconds, 1e-9)));
+            operation.put("p50Micros", round(samples.percentile(0.50) / 1000.0));
+            operation.put("p99Micros", round(samples.percentile(0.99) / 1000.0));
+            operation.put("maxMicros", round(samples.percentile(1.0) / 1000.0));
+            queries.put(operations[i], operation);
+        }
+        Map<String, Object> mixed = new LinkedHashMap<>();
+        mixed.put("opsPerSecond", round(totalCount / Math.max(config.seconds, 1e-9)));
+        mixed.put("gcMillis", gcMillis() - gcBefore);
+        mixed.put("operations", queries);
+        report.put("mixed", mixed);
+    }
+
+    private LatencySamples[] worker(Rbm32BitSliceIndex bsi, ReadWriteLock lock, long deadline) {
+        LatencySamples[] samples = new LatencySamples[operations.length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new LatencySamples();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int range = Math.max(1, (int) (config.maxValue * config.rangeFraction));
+        // 防止查询结果被优化掉
+        long blackhole = 0;
+        while (System.nanoTime() < deadline) {
+            int pick = random.nextInt(weights[weights.length - 1]);
+            int index = 0;
+            while (weights[index] <= pick) {
+                index++;
+            }
+            long i = (long) (random.nextDouble() * config.keys);
+            int value = generator.next(i, random);
+            long start = System.nanoTime();
+            if (operations[index].equals("put")) {
+                lock.writeLock().lock();
+                try {
+                    bsi.put(key(i), value);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } else {
+                lock.readLock().lock();
+                try {
+                    blackhole += query(bsi, operations[index], value, range);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            samples[index].add(System.nanoTime() - start);
+        }
+        if (blackhole == 42) {
+            System.out.print("");
+        }
+        return samples;
+    }
+
+    private static long query(Rbm32BitSliceIndex bsi, String operation, int value, int range) {
+        switch (operation) {
+            case "eq":
+                return bsi.eq(value).getLongCardinality();
+            case "between":
+                return bsi.between(value, value + range).getLongCardinality();
+            case "sum":
+                return bsi.sum(bsi.between(value, value + range));
+            case "max":
+                RoaringBitmap keys = bsi.between(value, value + range);
+                return keys.isEmpty() ? 0 : bsi.maxValue(keys);
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * 第 i 个 Key：dense 为 i，hashed 为 i 的 32 位混淆(双射，不会重复)
+     */
+    private int key(long i) {
+        int key = (int) i;
+        if (config.keySpace.equals("dense")) {
+            return key;
+        }
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String toJson(Object value) {
+        if (value instanceof Map) {
+            StringBuilder builder = new StringBuilder("{");
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (builder.length() > 1) {
+                    builder.append(',');
+                }
+                builder.append(toJson(entry.getKey())).append(':').append(toJson(entry.getValue()));
+            }
+            return builder.append('}').toString();
+        }
+        if (value instanceof String) {
+            return "\"" + ((String) value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+        if (value instanceof Double) {
+            return String.format(Locale.ROOT, "%.2f", (Double) value);
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * 延迟样本，超过 MAX_SAMPLES 后只计数
+     */
+    private static final class LatencySamples {
+        private long[] nanos = new long[1024];
+        private int size = 0;
+        private long count = 0;
+
+        void add(long latency) {
+            count++;
+            if (size == MAX_SAMPLES) {
+                return;
+            }
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = latency;
+        }
+
+        void merge(LatencySamples other) {
+            count += other.count;
+            for (int i = 0; i < other.size; i++) {
+                if (size == nanos.length) {
+                    nanos = Arrays.copyOf(nanos, size * 2);
+                }
+                nanos[size++] = other.nanos[i];
+            }
+        }
+
+        long percentile(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+
+    /**
+     * Value 分布
+     */
+    private abstract static class ValueGenerator {
+        final int maxValue;
+
+        ValueGenerator(int maxValue) {
+            this.maxValue = maxValue;
+        }
+
+        /**
+         * 第 i 个 Key 的 Value
+         */
+        abstract int next(long i, Random random);
+
+        static ValueGenerator of(String name, int maxValue, final long keys) {
+            switch (name) {
+                case "uniform":
+                    return new ValueGenerator(maxValue) {
+                        @Override
+                        int next(long i, Random random) {
+                            return random.nextInt(this.maxValue + 1);
+                        }
+                    };
+                case "zipf":
+                    // 幂律分布(s≈1)：小的 Value 出现次数多
+                    return new ValueGenerator(maxValue) {
+                        @Override
+                        int next(long i, Random random) {
+                            return (int) Math.pow(this.maxValue + 1.0, random.nextDouble()) - 1;
+                        }
+                    };
+                case "clustered":
+                    // 每 65536 个 Key 的 Value 聚集在一个随机中心附近
+                    return new ValueGenerator(maxValue) {
+                        @Override
+                        int next(long i, Random random) {
+                            long chunk = i >>> 16;
+                            int center = (int) (((chunk * 0x9E3779B97F4A7C15L) >>> 33) % (this.maxValue + 1L));
+                            int value = center + (int) (random.nextGaussian() * (this.maxValue / 1000.0 + 1));
+                            return Math.max(0, Math.min(this.maxValue, value));
+                        }
+                    };
+                case "time":
+                    // 随 Key 的写入顺序递增，例如时间戳
+                    return new ValueGenerator(maxValue) {
+                        @Override
+                        int next(long i, Random random) {
+                            long value = i * this.maxValue / keys + random.nextInt(16);
+                            return (int) Math.min(this.maxValue, value);
+                        }
+                    };
+                default:
+                    throw new IllegalArgumentException("Unknown value distribution: " + name);
+            }
+        }
+    }
+}